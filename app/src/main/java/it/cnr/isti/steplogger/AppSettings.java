@@ -2,6 +2,9 @@ package it.cnr.isti.steplogger;
 
 import android.os.Environment;
 
+import it.cnr.isti.steplogger.core.SessionCatalog;
+import it.cnr.isti.steplogger.core.SessionIndex;
+
 import java.io.File;
 
 
@@ -25,4 +28,185 @@ public class AppSettings {
     /** filename to log position callbacks to */
     public static final String LOG_POSITION = "positions.log";
 
+    /** filename to write the session's statistics to, when the session ends */
+    public static final String LOG_SUMMARY = "summary.log";
+
+    /** filename to log position callbacks to, when using the binary format */
+    public static final String LOG_POSITION_BINARY = "positions.bin";
+
+    /** filename to log position callbacks to, when using the columnar format */
+    public static final String LOG_POSITION_COLUMNAR = "positions.col";
+
+    /** exists while a session writes into its folder. found by a later session start, the folder is repaired */
+    public static final String LOG_SESSION_OPEN = "session.open";
+
+    /** filename of the session index [record count, time range, bounding box, waypoints, checkpoints], kept up to date while the session runs */
+    public static final String LOG_INDEX = SessionIndex.FILE_NAME;
+
+    /** filename of the catalog of all sessions within the log folder, aggregated from their indexes */
+    public static final String LOG_CATALOG = SessionCatalog.FILE_NAME;
+
+    /** filename to write the repair statistics of an interrupted session to */
+    public static final String LOG_RECOVERY = "recovery.log";
+
+    /** suffix of the position log [positions.log.gz, positions.bin.gz], when using compressed storage */
+    public static final String LOG_COMPRESSED_SUFFIX = ".gz";
+
+    /** base name of the position log's segments [positions.0000.log ...] and manifest [positions.manifest], when using segmented storage */
+    public static final String LOG_POSITION_SEGMENTS = "positions";
+
+
+    /** config.ini key: format of the position log [text or binary] */
+    public static final String CFG_LOG_FORMAT = "log.format";
+    public static final String LOG_FORMAT_TEXT = "text";
+    public static final String LOG_FORMAT_BINARY = "binary";
+    public static final String LOG_FORMAT_COLUMNAR = "columnar";
+
+    /** config.ini key: text format only, decimal places of the coordinates [negative = full precision, allocates per record] */
+    public static final String CFG_LOG_DECIMALS = "log.decimals";
+
+    /** config.ini key: binary format only, records per checksum block [0 = no checksums] */
+    public static final String CFG_LOG_CHECKSUM_BLOCK = "log.checksum.block";
+
+    /** config.ini key: columnar format only, coordinates are rounded to multiples of this [mm] */
+    public static final String CFG_LOG_RESOLUTION = "log.columnar.resolution";
+
+    /** config.ini key: columnar format only, the maximum number of records per chunk [held back for at most flush.interval or until a waypoint. 1 with record durability] */
+    public static final String CFG_LOG_CHUNK = "log.columnar.chunk";
+
+    /** config.ini key: how the position log is stored [stream = one buffered file, segmented = memory-mapped segment files, compressed = gzip blocks] */
+    public static final String CFG_LOG_STORAGE = "log.storage";
+    public static final String LOG_STORAGE_STREAM = "stream";
+    public static final String LOG_STORAGE_SEGMENTED = "segmented";
+    public static final String LOG_STORAGE_COMPRESSED = "compressed";
+
+    /** config.ini key: segmented storage only, size of one segment file [MB] */
+    public static final String CFG_LOG_SEGMENT_SIZE = "log.segment.size";
+
+    /** config.ini key: compressed storage only, uncompressed size of one block [KB] */
+    public static final String CFG_LOG_COMPRESSION_BLOCK = "log.compression.block";
+
+    /** config.ini key: compressed storage only, deflate level [1 = fastest .. 9 = smallest] */
+    public static final String CFG_LOG_COMPRESSION_LEVEL = "log.compression.level";
+
+    /** default log format values, used when config.ini does not contain them */
+    public static final String DEFAULT_LOG_FORMAT = LOG_FORMAT_TEXT;
+    public static final int DEFAULT_LOG_CHECKSUM_BLOCK = 256;
+    public static final int DEFAULT_LOG_DECIMALS = 6;
+    public static final double DEFAULT_LOG_RESOLUTION = 1.0;
+    public static final int DEFAULT_LOG_CHUNK = 64;
+    public static final String DEFAULT_LOG_STORAGE = LOG_STORAGE_STREAM;
+    public static final int DEFAULT_LOG_SEGMENT_SIZE = 16;
+    public static final int DEFAULT_LOG_COMPRESSION_BLOCK = 64;
+    public static final int DEFAULT_LOG_COMPRESSION_LEVEL = 6;
+
+
+    /** config.ini key: flush the position log after this many records [0 = never] */
+    public static final String CFG_FLUSH_RECORDS = "flush.records";
+
+    /** config.ini key: flush the position log when the last flush is older than this [ms, 0 = never] */
+    public static final String CFG_FLUSH_INTERVAL = "flush.interval";
+
+    /** config.ini key: flush all logs whenever a waypoint is logged [true/false] */
+    public static final String CFG_FLUSH_WAYPOINT = "flush.waypoint";
+
+    /** config.ini key: the number of position records that can be queued for the writer thread */
+    public static final String CFG_QUEUE_CAPACITY = "queue.capacity";
+
+    /** config.ini key: what to do with new positions when the queue is full [block, drop-oldest, drop-newest, decimate]. block stalls the clients on a slow disk */
+    public static final String CFG_QUEUE_POLICY = "queue.policy";
+
+    /** config.ini key: decimate policy only, keep every n-th position while the queue is at least half full */
+    public static final String CFG_QUEUE_DECIMATION = "queue.decimation";
+
+    /** default queue values, used when config.ini does not contain them */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    public static final String DEFAULT_QUEUE_POLICY = "drop-oldest";
+    public static final int DEFAULT_QUEUE_DECIMATION = 4;
+
+    /** config.ini key: which received positions are persisted [none, rate, distance, average] */
+    public static final String CFG_DOWNSAMPLE_MODE = "downsample.mode";
+
+    /** config.ini key: rate mode only, persist at most this many positions per second [Hz] */
+    public static final String CFG_DOWNSAMPLE_RATE = "downsample.rate";
+
+    /** config.ini key: distance mode only, persist a position when it moved at least this far [m] */
+    public static final String CFG_DOWNSAMPLE_DISTANCE = "downsample.distance";
+
+    /** config.ini key: average mode only, persist the mean position of each bucket of this length [ms] */
+    public static final String CFG_DOWNSAMPLE_BUCKET = "downsample.bucket";
+
+    /** supported downsample modes */
+    public static final String DOWNSAMPLE_NONE = "none";
+    public static final String DOWNSAMPLE_RATE = "rate";
+    public static final String DOWNSAMPLE_DISTANCE = "distance";
+    public static final String DOWNSAMPLE_AVERAGE = "average";
+
+    /** default downsample values, used when config.ini does not contain them */
+    public static final String DEFAULT_DOWNSAMPLE_MODE = DOWNSAMPLE_NONE;
+    public static final double DEFAULT_DOWNSAMPLE_RATE = 10;
+    public static final double DEFAULT_DOWNSAMPLE_DISTANCE = 0.1;
+    public static final long DEFAULT_DOWNSAMPLE_BUCKET = 500;
+
+    /** config.ini key: accept position streams on a local [abstract-namespace] socket [true/false] */
+    public static final String CFG_SOCKET_ENABLED = "socket.enabled";
+
+    /** config.ini key: the name of the local socket */
+    public static final String CFG_SOCKET_NAME = "socket.name";
+
+    /** config.ini key: who may stream besides this app and apps signed with the same key [comma-separated package names and uids] */
+    public static final String CFG_SOCKET_ALLOW = "socket.allow";
+
+    /** default socket values, used when config.ini does not contain them */
+    public static final boolean DEFAULT_SOCKET_ENABLED = false;
+    public static final String DEFAULT_SOCKET_NAME = "it.cnr.isti.steplogger";
+    public static final String DEFAULT_SOCKET_ALLOW = "";
+
+    /** config.ini key: rescan the log-files for USB/MTP at most this often while a session runs [ms, 0 = only at start and end] */
+    public static final String CFG_MEDIASCAN_INTERVAL = "mediascan.interval";
+
+    /** default media-scan interval, used when config.ini does not contain it */
+    public static final long DEFAULT_MEDIASCAN_INTERVAL = 0;
+
+    /** config.ini key: maximum refresh rate of the overlay's statistics [Hz] */
+    public static final String CFG_OVERLAY_REFRESH_RATE = "overlay.refresh.rate";
+
+    /** default overlay refresh rate, used when config.ini does not contain it */
+    public static final int DEFAULT_OVERLAY_REFRESH_RATE = 4;
+
+    /** config.ini key: length of the sliding window for the update statistics [ms] */
+    public static final String CFG_STATS_WINDOW = "stats.window";
+
+    /** config.ini key: clients must deliver a position or a batch at least this often, longer intervals are gaps [ms, > 0] */
+    public static final String CFG_STATS_DEADLINE = "stats.deadline";
+
+    /** default statistics values, used when config.ini does not contain them */
+    public static final long DEFAULT_STATS_WINDOW = 10000;
+    public static final long DEFAULT_STATS_DEADLINE = 500;
+
+    /** default flush-policy values, used when config.ini does not contain them */
+    public static final int DEFAULT_FLUSH_RECORDS = 10;
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+    public static final boolean DEFAULT_FLUSH_WAYPOINT = true;
+
+    /** config.ini key: when the logs are forced onto the storage device [none, periodic, waypoint, record. compressed storage syncs record per block] */
+    public static final String CFG_LOG_DURABILITY = "log.durability";
+
+    /** config.ini key: periodic durability only, sync when the last sync is older than this [ms] */
+    public static final String CFG_LOG_DURABILITY_INTERVAL = "log.durability.interval";
+
+    /** default durability values, used when config.ini does not contain them */
+    public static final String DEFAULT_LOG_DURABILITY = "none";
+    public static final long DEFAULT_LOG_DURABILITY_INTERVAL = 5000;
+
+    /** config.ini key: the session index holds a checkpoint every this many records */
+    public static final String CFG_INDEX_CHECKPOINT = "index.checkpoint";
+
+    /** config.ini key: rewrite the session index at most this often while the session runs [ms] */
+    public static final String CFG_INDEX_INTERVAL = "index.interval";
+
+    /** default session-index values, used when config.ini does not contain them */
+    public static final int DEFAULT_INDEX_CHECKPOINT = 1000;
+    public static final long DEFAULT_INDEX_INTERVAL = 10000;
+
 }
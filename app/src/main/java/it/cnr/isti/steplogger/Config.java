@@ -4,6 +4,21 @@ import android.content.Context;
 import android.os.Environment;
 import android.util.Log;
 
+import it.cnr.isti.steplogger.core.ArrivalStats;
+import it.cnr.isti.steplogger.core.AveragingDownsampler;
+import it.cnr.isti.steplogger.core.BinaryPositionEncoder;
+import it.cnr.isti.steplogger.core.ColumnarPositionEncoder;
+import it.cnr.isti.steplogger.core.DistanceDownsampler;
+import it.cnr.isti.steplogger.core.Downsampler;
+import it.cnr.isti.steplogger.core.DurabilityPolicy;
+import it.cnr.isti.steplogger.core.FlushPolicy;
+import it.cnr.isti.steplogger.core.OverflowPolicy;
+import it.cnr.isti.steplogger.core.PositionEncoder;
+import it.cnr.isti.steplogger.core.RateDownsampler;
+import it.cnr.isti.steplogger.core.TextPositionEncoder;
+import it.cnr.isti.steplogger.core.WaypointPlan;
+
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -14,6 +29,13 @@ public class Config {
     private static String LOG_TAG = Config.class.getName();
     private Properties configuration;
 
+    /** modification time of the config.ini when it was loaded. 0 if not loaded from the file [or changed since] */
+    private long loadedModified = 0;
+
+    /** the last parsed waypoint plan of this process and the config.ini modification time it belongs to */
+    private static WaypointPlan cachedPlan;
+    private static long cachedPlanModified = 0;
+
     public Config() {
         configuration = new Properties();
     }
@@ -30,7 +52,12 @@ public class Config {
         boolean retval = false;
 
         try {
-            configuration.load(new FileInputStream(getConfigurationFile()));
+            final File file = new File(getConfigurationFile());
+            final long modified = file.lastModified();
+            try (FileInputStream in = new FileInputStream(file)) {
+                configuration.load(in);
+            }
+            loadedModified = modified;
             retval = true;
         } catch (IOException e) {
             Log.e(LOG_TAG, "Configuration error: " + e.getMessage());
@@ -43,7 +70,9 @@ public class Config {
         boolean retval = false;
 
         try {
-            configuration.store(new FileOutputStream(getConfigurationFile()), null);
+            try (FileOutputStream out = new FileOutputStream(getConfigurationFile())) {
+                configuration.store(out, null);
+            }
             retval = true;
         } catch (IOException e) {
             Log.e(LOG_TAG, "Configuration error: " + e.getMessage());
@@ -52,12 +81,191 @@ public class Config {
         return retval;
     }
 
+    /** modification time of the config.ini when this configuration was loaded [0 if not loaded from the file] */
+    public long getLoadedModified() {
+        return loadedModified;
+    }
+
     public void set(String key, String value) {
         configuration.setProperty(key, value);
+        if (WaypointPlan.PROPERTY.equals(key)) {loadedModified = 0;}
     }
 
     public String get(String key) {
         return configuration.getProperty(key);
     }
 
+    /**
+     * the waypoint plan described within this configuration.
+     * parsed once per config.ini version and shared within the process, a changed file is parsed again.
+     * throws an IllegalArgumentException if the plan is missing or malformed
+     */
+    public WaypointPlan getWaypointPlan() {
+        synchronized (Config.class) {
+            if (cachedPlan != null && loadedModified != 0 && loadedModified == cachedPlanModified) {return cachedPlan;}
+        }
+        final WaypointPlan plan = WaypointPlan.parse(get(WaypointPlan.PROPERTY));
+        if (loadedModified != 0) {
+            synchronized (Config.class) {
+                cachedPlan = plan;
+                cachedPlanModified = loadedModified;
+            }
+        }
+        return plan;
+    }
+
+    /** the flush policy for the position log described within this configuration */
+    public FlushPolicy getFlushPolicy() {
+        return new FlushPolicy(
+                getInt(AppSettings.CFG_FLUSH_RECORDS, AppSettings.DEFAULT_FLUSH_RECORDS),
+                getLong(AppSettings.CFG_FLUSH_INTERVAL, AppSettings.DEFAULT_FLUSH_INTERVAL),
+                getBoolean(AppSettings.CFG_FLUSH_WAYPOINT, AppSettings.DEFAULT_FLUSH_WAYPOINT));
+    }
+
+    /** the format of the position log [text, binary or columnar] described within this configuration */
+    public String getLogFormat() {
+        final String format = get(AppSettings.CFG_LOG_FORMAT, AppSettings.DEFAULT_LOG_FORMAT);
+        switch (format) {
+            case AppSettings.LOG_FORMAT_TEXT:
+            case AppSettings.LOG_FORMAT_BINARY:
+            case AppSettings.LOG_FORMAT_COLUMNAR:
+                return format;
+            default:
+                Log.e(LOG_TAG, "Configuration error: unknown log format: " + format);
+                return AppSettings.DEFAULT_LOG_FORMAT;
+        }
+    }
+
+    /** the name of the position log-file for the format described within this configuration */
+    public String getPositionLogName() {
+        switch (getLogFormat()) {
+            case AppSettings.LOG_FORMAT_BINARY:     return AppSettings.LOG_POSITION_BINARY;
+            case AppSettings.LOG_FORMAT_COLUMNAR:   return AppSettings.LOG_POSITION_COLUMNAR;
+            default:                                return AppSettings.LOG_POSITION;
+        }
+    }
+
+    /** the encoder for the position log described within this configuration */
+    public PositionEncoder getPositionEncoder() {
+        switch (getLogFormat()) {
+            case AppSettings.LOG_FORMAT_BINARY:
+                return new BinaryPositionEncoder(getInt(AppSettings.CFG_LOG_CHECKSUM_BLOCK, AppSettings.DEFAULT_LOG_CHECKSUM_BLOCK));
+            case AppSettings.LOG_FORMAT_COLUMNAR:
+                // record durability syncs every record: none may be held back within a chunk [deltas continue across chunks]
+                final boolean unchunked = getDurabilityPolicy().mode == DurabilityPolicy.Mode.RECORD;
+                try {
+                    return new ColumnarPositionEncoder(
+                            getDouble(AppSettings.CFG_LOG_RESOLUTION, AppSettings.DEFAULT_LOG_RESOLUTION) / 1000,
+                            unchunked ? 1 : getInt(AppSettings.CFG_LOG_CHUNK, AppSettings.DEFAULT_LOG_CHUNK),
+                            getLong(AppSettings.CFG_FLUSH_INTERVAL, AppSettings.DEFAULT_FLUSH_INTERVAL));
+                } catch (IllegalArgumentException e) {
+                    Log.e(LOG_TAG, "Configuration error: " + e.getMessage());
+                    return new ColumnarPositionEncoder(AppSettings.DEFAULT_LOG_RESOLUTION / 1000, unchunked ? 1 : AppSettings.DEFAULT_LOG_CHUNK, AppSettings.DEFAULT_FLUSH_INTERVAL);
+                }
+            default:
+                return new TextPositionEncoder(getInt(AppSettings.CFG_LOG_DECIMALS, AppSettings.DEFAULT_LOG_DECIMALS));
+        }
+    }
+
+    /** when the logs are synced, as described within this configuration */
+    public DurabilityPolicy getDurabilityPolicy() {
+        final String value = get(AppSettings.CFG_LOG_DURABILITY, AppSettings.DEFAULT_LOG_DURABILITY);
+        try {
+            return new DurabilityPolicy(DurabilityPolicy.Mode.fromConfigName(value),
+                    getLong(AppSettings.CFG_LOG_DURABILITY_INTERVAL, AppSettings.DEFAULT_LOG_DURABILITY_INTERVAL));
+        } catch (IllegalArgumentException e) {
+            Log.e(LOG_TAG, "Configuration error: " + e.getMessage());
+            return new DurabilityPolicy(DurabilityPolicy.Mode.fromConfigName(AppSettings.DEFAULT_LOG_DURABILITY), AppSettings.DEFAULT_LOG_DURABILITY_INTERVAL);
+        }
+    }
+
+    /** what the position queue does when it is full, as described within this configuration */
+    public OverflowPolicy getOverflowPolicy() {
+        final String value = get(AppSettings.CFG_QUEUE_POLICY, AppSettings.DEFAULT_QUEUE_POLICY);
+        try {
+            return OverflowPolicy.fromConfigName(value);
+        } catch (IllegalArgumentException e) {
+            Log.e(LOG_TAG, "Configuration error: " + e.getMessage());
+            return OverflowPolicy.fromConfigName(AppSettings.DEFAULT_QUEUE_POLICY);
+        }
+    }
+
+    /** statistics about the arrival of position updates as described within this configuration, holding at most capacity arrivals per window */
+    public ArrivalStats getArrivalStats(final int capacity) {
+        try {
+            return new ArrivalStats(
+                    getLong(AppSettings.CFG_STATS_WINDOW, AppSettings.DEFAULT_STATS_WINDOW),
+                    getLong(AppSettings.CFG_STATS_DEADLINE, AppSettings.DEFAULT_STATS_DEADLINE),
+                    capacity);
+        } catch (IllegalArgumentException e) {
+            Log.e(LOG_TAG, "Configuration error: " + e.getMessage());
+            return new ArrivalStats(AppSettings.DEFAULT_STATS_WINDOW, AppSettings.DEFAULT_STATS_DEADLINE, capacity);
+        }
+    }
+
+    /** the downsampler for the position log described within this configuration, null to persist everything */
+    public Downsampler getDownsampler() {
+        final String mode = get(AppSettings.CFG_DOWNSAMPLE_MODE, AppSettings.DEFAULT_DOWNSAMPLE_MODE);
+        try {
+            switch (mode) {
+                case AppSettings.DOWNSAMPLE_NONE:
+                    return null;
+                case AppSettings.DOWNSAMPLE_RATE:
+                    return new RateDownsampler(getDouble(AppSettings.CFG_DOWNSAMPLE_RATE, AppSettings.DEFAULT_DOWNSAMPLE_RATE));
+                case AppSettings.DOWNSAMPLE_DISTANCE:
+                    return new DistanceDownsampler(getDouble(AppSettings.CFG_DOWNSAMPLE_DISTANCE, AppSettings.DEFAULT_DOWNSAMPLE_DISTANCE));
+                case AppSettings.DOWNSAMPLE_AVERAGE:
+                    return new AveragingDownsampler(getLong(AppSettings.CFG_DOWNSAMPLE_BUCKET, AppSettings.DEFAULT_DOWNSAMPLE_BUCKET));
+                default:
+                    Log.e(LOG_TAG, "Configuration error: unknown downsample mode: " + mode);
+                    return null;
+            }
+        } catch (IllegalArgumentException e) {
+            // never lose positions because of a typo: persist everything instead
+            Log.e(LOG_TAG, "Configuration error: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** get the given key, or the default if it is missing */
+    public String get(String key, String defaultValue) {
+        return configuration.getProperty(key, defaultValue).trim();
+    }
+
+    /** get the given key as int, or the default if it is missing or malformed */
+    public int getInt(String key, int defaultValue) {
+        return (int) getLong(key, defaultValue);
+    }
+
+    /** get the given key as long, or the default if it is missing or malformed */
+    public long getLong(String key, long defaultValue) {
+        final String value = get(key);
+        if (value == null) {return defaultValue;}
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            Log.e(LOG_TAG, "Configuration error: " + key + " is not a number: " + value);
+            return defaultValue;
+        }
+    }
+
+    /** get the given key as double, or the default if it is missing or malformed */
+    public double getDouble(String key, double defaultValue) {
+        final String value = get(key);
+        if (value == null) {return defaultValue;}
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            Log.e(LOG_TAG, "Configuration error: " + key + " is not a number: " + value);
+            return defaultValue;
+        }
+    }
+
+    /** get the given key as boolean, or the default if it is missing */
+    public boolean getBoolean(String key, boolean defaultValue) {
+        final String value = get(key);
+        if (value == null) {return defaultValue;}
+        return Boolean.parseBoolean(value.trim());
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,115 @@
+package it.cnr.isti.steplogger;
+
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * keeps the service's configuration in sync with the config.ini, so a changed waypoint plan
+ * or changed settings apply to the next session without restarting the service.
+ *
+ * the file's folder is watched [editors and adb push replace the file instead of writing it].
+ * a change is loaded and validated on a background thread, and only a valid configuration is swapped in.
+ * a broken file is logged and ignored: the previous configuration stays in use.
+ * running sessions keep the configuration they were started with.
+ *
+ * [FileObserver events may be missing on emulated external storage, so every session start
+ *  also asks for a check of the modification time, see {@link #requestRefresh()}. it applies to the next session]
+ */
+public class ConfigWatcher {
+
+    private static final String LOG_TAG = ConfigWatcher.class.getName();
+
+    /** file events within this time are handled as one change [ms] */
+    private static final long SETTLE_MS = 250;
+
+    /** the configuration to use for the next session */
+    private final AtomicReference<Config> current;
+
+    private final File file;
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final FileObserver observer;
+
+    /** modification time of the last config.ini that was rejected, not loaded again until it changes */
+    private long rejectedModified = 0;
+
+    private final Runnable reloadTask = new Runnable() {
+        @Override public void run() {refresh();}
+    };
+
+
+    /** ctor. starts watching. the given configuration must already be loaded */
+    public ConfigWatcher(final Config initial) {
+
+        current = new AtomicReference<>(initial);
+        file = new File(initial.getConfigurationFile());
+
+        thread = new HandlerThread("ConfigWatcher");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+
+        final String name = file.getName();
+        observer = new FileObserver(file.getParent(), FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO | FileObserver.CREATE) {
+            @Override public void onEvent(final int event, final String path) {
+                if (!name.equals(path)) {return;}
+                handler.removeCallbacks(reloadTask);
+                handler.postDelayed(reloadTask, SETTLE_MS);
+            }
+        };
+        observer.startWatching();
+
+    }
+
+    /** the current configuration [any thread] */
+    public Config get() {
+        return current.get();
+    }
+
+    /** check the config.ini's modification time on the watcher thread, without waiting for it [any thread] */
+    public void requestRefresh() {
+        handler.post(reloadTask);
+    }
+
+    /**
+     * load the config.ini again if it changed since the current configuration was loaded.
+     * returns the configuration to use, which is the previous one if the file is invalid.
+     * performs file I/O: the watcher thread only
+     */
+    private synchronized Config refresh() {
+
+        final Config previous = current.get();
+        final long modified = file.lastModified();
+        if (modified == previous.getLoadedModified() || modified == rejectedModified) {return previous;}
+
+        final Config next = new Config();
+        if (!next.load()) {
+            Log.e(LOG_TAG, "Configuration error: could not reload " + file + ", keeping the previous configuration");
+            return previous;
+        }
+        try {
+            next.getWaypointPlan();
+        } catch (IllegalArgumentException e) {
+            Log.e(LOG_TAG, "Configuration error: " + e.getMessage() + ", keeping the previous configuration");
+            rejectedModified = next.getLoadedModified();
+            return previous;
+        }
+
+        current.set(next);
+        Log.d(LOG_TAG, "configuration reloaded from " + file);
+        return next;
+
+    }
+
+    /** stop watching */
+    public void stop() {
+        observer.stopWatching();
+        handler.removeCallbacks(reloadTask);
+        thread.quitSafely();
+    }
+
+}
@@ -0,0 +1,137 @@
+package it.cnr.isti.steplogger;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * a snapshot of what the service is currently doing. returned by IStepLoggerService.getMetrics()
+ * so external test harnesses can check the logger's health during long walks.
+ *
+ * [the fields are parceled in declaration order. new fields must be appended at the end
+ *  to keep older clients working]
+ */
+public class LoggerMetrics implements Parcelable {
+
+    /** when this snapshot was taken [ms since epoch] */
+    public long timestamp;
+
+    /** whether a logging session is active. all other fields are 0 if neither this nor sessionStarting */
+    public boolean sessionActive;
+
+    /** the name of the session's log folder */
+    public String sessionName;
+
+    /** time since the session was started [ms] */
+    public long sessionAgeMs;
+
+    /** positions received from the clients */
+    public long positionsReceived;
+
+    /** positions written into the position log [lower when downsampling or dropping] */
+    public long positionsPersisted;
+
+    /** bytes written into the position log */
+    public long bytesWritten;
+
+    /** positions waiting for the writer thread, the queue's capacity and its highest depth */
+    public int queueDepth;
+    public int queueCapacity;
+    public int queueMaxDepth;
+
+    /** positions dropped because the queue was full */
+    public long positionsDropped;
+
+    /** queue latency between receiving a position and handing it to the encoder [us, not the time to encode and write it] */
+    public long queueLatencyP50Us;
+    public long queueLatencyP99Us;
+    public long queueLatencyMaxUs;
+
+    /** update rate within the statistics window [Hz] */
+    public double rateHz;
+
+    /** intervals between updates that exceeded the deadline */
+    public long numGaps;
+
+    /** the id the clients use to address the session */
+    public String sessionId;
+
+    /**
+     * whether the session is still being started: its positions are buffered until its files are open.
+     * only the id, age [since the request], received, queue, rate and gap values are set then
+     */
+    public boolean sessionStarting;
+
+
+    /** ctor */
+    public LoggerMetrics() {
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    private LoggerMetrics(final Parcel in) {
+        timestamp = in.readLong();
+        sessionActive = in.readInt() != 0;
+        sessionName = in.readString();
+        sessionAgeMs = in.readLong();
+        positionsReceived = in.readLong();
+        positionsPersisted = in.readLong();
+        bytesWritten = in.readLong();
+        queueDepth = in.readInt();
+        queueCapacity = in.readInt();
+        queueMaxDepth = in.readInt();
+        positionsDropped = in.readLong();
+        queueLatencyP50Us = in.readLong();
+        queueLatencyP99Us = in.readLong();
+        queueLatencyMaxUs = in.readLong();
+        rateHz = in.readDouble();
+        numGaps = in.readLong();
+        sessionId = in.readString();
+        sessionStarting = in.readInt() != 0;
+    }
+
+    @Override
+    public void writeToParcel(final Parcel out, final int flags) {
+        out.writeLong(timestamp);
+        out.writeInt(sessionActive ? 1 : 0);
+        out.writeString(sessionName);
+        out.writeLong(sessionAgeMs);
+        out.writeLong(positionsReceived);
+        out.writeLong(positionsPersisted);
+        out.writeLong(bytesWritten);
+        out.writeInt(queueDepth);
+        out.writeInt(queueCapacity);
+        out.writeInt(queueMaxDepth);
+        out.writeLong(positionsDropped);
+        out.writeLong(queueLatencyP50Us);
+        out.writeLong(queueLatencyP99Us);
+        out.writeLong(queueLatencyMaxUs);
+        out.writeDouble(rateHz);
+        out.writeLong(numGaps);
+        out.writeString(sessionId);
+        out.writeInt(sessionStarting ? 1 : 0);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<LoggerMetrics> CREATOR = new Creator<LoggerMetrics>() {
+        @Override public LoggerMetrics createFromParcel(Parcel in) {return new LoggerMetrics(in);}
+        @Override public LoggerMetrics[] newArray(int size) {return new LoggerMetrics[size];}
+    };
+
+    @Override
+    public String toString() {
+        return "LoggerMetrics{session=" + (sessionActive ? sessionId + " [" + sessionName + "]" : sessionStarting ? sessionId + " [starting]" : "none") +
+                ", age=" + sessionAgeMs + "ms" +
+                ", received=" + positionsReceived +
+                ", persisted=" + positionsPersisted +
+                ", bytes=" + bytesWritten +
+                ", queue=" + queueDepth + "/" + queueCapacity + " (max " + queueMaxDepth + ")" +
+                ", dropped=" + positionsDropped +
+                ", queue latency p50/p99/max=" + queueLatencyP50Us + "/" + queueLatencyP99Us + "/" + queueLatencyMaxUs + "us" +
+                ", rate=" + rateHz + "Hz" +
+                ", gaps=" + numGaps + "}";
+    }
+
+}
@@ -2,315 +2,556 @@ package it.cnr.isti.steplogger;
 
 
 import android.content.Context;
-import android.graphics.PixelFormat;
-import android.media.MediaScannerConnection;
 import android.os.Build;
-import android.os.Handler;
-import android.os.Looper;
+import android.os.SharedMemory;
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
 import android.util.Log;
-import android.view.Gravity;
-import android.view.LayoutInflater;
-import android.view.View;
-import android.view.WindowManager;
-import android.widget.Button;
-import android.widget.TextView;
-import android.widget.Toast;
-
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
-import java.util.Timer;
-import java.util.TimerTask;
 
-import static java.lang.System.currentTimeMillis;
+import it.cnr.isti.steplogger.core.ArrivalStats;
+import it.cnr.isti.steplogger.core.CompressedLogWriter;
+import it.cnr.isti.steplogger.core.DeliveryLatencyStats;
+import it.cnr.isti.steplogger.core.Downsampler;
+import it.cnr.isti.steplogger.core.DurabilityPolicy;
+import it.cnr.isti.steplogger.core.FlushPolicy;
+import it.cnr.isti.steplogger.core.LatencyHistogram;
+import it.cnr.isti.steplogger.core.LogRecovery;
+import it.cnr.isti.steplogger.core.LogSink;
+import it.cnr.isti.steplogger.core.PositionEncoder;
+import it.cnr.isti.steplogger.core.PositionQueue;
+import it.cnr.isti.steplogger.core.PositionWriterThread;
+import it.cnr.isti.steplogger.core.SegmentedLogWriter;
+import it.cnr.isti.steplogger.core.SessionIndex;
+import it.cnr.isti.steplogger.core.SessionLogWriter;
+import it.cnr.isti.steplogger.core.SessionSummary;
+import it.cnr.isti.steplogger.core.SpscRingBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.function.LongSupplier;
 
 /**
- * describes the currently active logging session that will log
+ * describes one active logging session that will log
  * - position updates
  * - button presses
  * into two files that reside within the same folder
  *
- * this also creates a screen overlay,
- * that shows a clickable button,
- * that is always-on-top no matter which app is currently in foreground!
+ * several sessions [e.g. one per client or algorithm] may be active at the same time.
+ * each one has its own folder, files, queue and writer thread, so they never block each other.
+ * the waypoint button is provided by the {@link SessionOverlay} they all share.
  *
  * MUST be instantiated from a backgroundService to survive app-switching
  *
- * TODO: open both logfiles once instead of opening/closing them over and over again
+ * the session is built from the {@link SessionInput} that buffered the positions received since it was requested,
+ * on a background thread [the constructor performs all file I/O]. the overlay is attached afterwards, see {@link #onShown(SessionOverlay)}.
+ *
+ * both log-files are opened once when the session starts. destroy() only closes the queue: the writer thread
+ * drains it, closes the files and finishes the folder [summary, index, marker], see {@link #finish()}.
+ * no file is ever synced on the main thread or a binder thread.
+ * a small index of the position log [index.log] is rewritten while the session runs, its checkpoints are appended, see {@link SessionIndex}.
+ * a marker file [session.open] exists in between: if the process dies, the next session start
+ * finds it and repairs the folder, see {@link #recover(File)}
  */
 public class LoggingSession {
 
     private static final String LOG_TAG = LoggingSession.class.getName();
 
-    //ui
-    private WindowManager wm;
-    private View overlayView;
-    private Button counterButton;
-    private TextView lblInfo;
+    /** the id the clients use to address this session */
+    private final String id;
 
-    /** the service the logger belongs to */
-    private final StepLoggerService service;
+    /** the queue and arrival statistics the binder threads feed */
+    private final SessionInput input;
 
     /** the folder (including the timestamp during time-of-start) to write log-files to */
     private final File logFileDir;
 
-    /** parsed configuration lines */
-    private String[] lines;
+    /** the open position log [positions.log] */
+    private final LogSink positionWriter;
 
-    /** current waypoint index */
-    private Integer index = 0;
+    /** the open waypoint log [buttonsPressed.log]. flushed per waypoint by the caller, synced by the writer thread */
+    private final SessionLogWriter waypointWriter;
 
-    /** track the number of received position updates */
-    private Stats stats = new Stats();
+    /** whether the waypoint log is synced after every waypoint [any durability at all] */
+    private final boolean syncWaypoints;
 
-    /** timestamp of logging start */
-    private final long tsStart = System.currentTimeMillis();
+    /** received positions waiting for the writer thread */
+    private final PositionQueue positionQueue;
 
+    /** drains the positionQueue into the positionWriter */
+    private final PositionWriterThread positionWriterThread;
 
-    /** ctor */
-    public LoggingSession(final StepLoggerService service, final File logFileDir, WindowManager wm, LayoutInflater inflater, Config configuration) {
+    /** the shared-memory ring of a client and its mapping [if any]. see openRingBuffer() */
+    private SharedMemory ringMemory;
+    private ByteBuffer ringMapping;
 
-        this.service = service;
-        this.logFileDir = logFileDir;
-        this.wm = wm;
-
-        // split configuration file
-        lines = configuration.get("counter").split(",");
-
-        // create the overlay window
-        WindowManager.LayoutParams params = new WindowManager.LayoutParams(
-                WindowManager.LayoutParams.WRAP_CONTENT,
-                WindowManager.LayoutParams.WRAP_CONTENT,
-                ((Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
-                        ? WindowManager.LayoutParams.TYPE_APPLICATION_OVERLAY
-                        : WindowManager.LayoutParams.TYPE_PHONE),
-                WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE,
-                PixelFormat.TRANSLUCENT);
-        params.gravity = Gravity.BOTTOM | Gravity.RIGHT;
-        overlayView = inflater.inflate(R.layout.activity_steplogger_overlay, null);
-        wm.addView(overlayView, params);
-
-        // build the UI
-        setupUi();
-
-        // shown an information that the logging starts
-        final Context ctx = overlayView.getContext();
-        Toast.makeText(ctx, "new logging session\n" + logFileDir, Toast.LENGTH_LONG).show();
+    /** which received positions are persisted, for the summary */
+    private final String downsampling;
 
-    }
+    /** when the logs are synced, for the summary */
+    private final DurabilityPolicy durability;
 
-    /** must be called from the service when the logging session is complete */
-    public void destroy() {
-        if (overlayView != null) {
-            wm.removeView(overlayView);
-            overlayView = null;
-        }
-    }
+    /** makes the session's files visible via USB/MTP */
+    private final MediaScanNotifier mediaScanNotifier;
+
+    /** record count, time range, bounding box, waypoints and checkpoints of the position log [index.log] */
+    private final SessionIndex index;
+
+    /** rewrite the index at most this often while the session runs [ms] */
+    private final long indexIntervalMs;
 
-    private void setupUi() {
+    /** update rate, jitter and gaps of the received position updates */
+    private final ArrivalStats stats;
 
-        counterButton = (Button) overlayView.findViewById(R.id.counterButton);
-        lblInfo = (TextView) overlayView.findViewById(R.id.lblInfo);
+    /** the statistics shown within the overlay. only used by the main thread */
+    private final ArrivalStats.Snapshot overlayStats = new ArrivalStats.Snapshot();
 
-        // attach an event listener to the button
-        counterButton.setOnClickListener(
-                new View.OnClickListener() {
-                    @Override
-                    public void onClick(View v) {
+    /** reserves the blocks of a new log segment up front. falls back to a sparse file where fallocate is not supported [e.g. FUSE] */
+    private static final SegmentedLogWriter.Preallocator FALLOCATE = new SegmentedLogWriter.Preallocator() {
+        @Override public void preallocate(RandomAccessFile file, long size) throws IOException {
+            try {
+                Os.posix_fallocate(file.getFD(), 0, size);
+            } catch (ErrnoException e) {
+                Log.d(LOG_TAG, "fallocate not supported: " + e.getMessage());
+            }
+            file.setLength(size);
+        }
+    };
 
-                        // get the entry-string to log for the current waypoint
-                        final String[] logButton  = lines[index].split(":");
+    /** the largest ring buffer a client may request [positions] */
+    private static final int MAX_RING_CAPACITY = 1 << 16;
 
-                        // try to create a new log entry
-                        final boolean saveOK = (logCurrentWaypoint(
-                                System.currentTimeMillis() + " : " + logButton[0]+ " : " + logButton[1] +" : "+ logButton[2]+" : "+logButton[3]+"\n",
-                                lines[index]));
+    /** called on the writer thread once the session is finished [set by destroy()] */
+    private volatile Runnable onFinished;
 
-                        // if saving was OK, proceed with the next waypoint and block the button for some time
-                        if (saveOK) {
-                            index++;
-                            disableButtonForSomeTime();
-                        }
+    /** timestamp of logging start */
+    private final long tsStart = System.currentTimeMillis();
 
-                        // update the system state
-                        if(index < lines.length) {
+    /** the time from the session request until the files were open and until the overlay was shown [ns, -1 = not yet] */
+    private final long openLatencyNanos;
+    private volatile long shownLatencyNanos = -1;
 
-                            final String buttonName  = lines[index].split(":")[0];
-                            counterButton.setText(buttonName);
+    /** the number of positions buffered before the files were open */
+    private final long numBuffered;
 
-                        } else {
 
-                            // logging complete. kill the service!
-                            loggingComplete();
+    /** ctor. opens both log-files within the given folder and starts draining the input's queue. background thread */
+    public LoggingSession(final Context ctx, final SessionInput input, final File logFileDir) throws IOException {
 
-                        }
+        this.id = input.getId();
+        this.input = input;
+        this.logFileDir = logFileDir;
+        this.stats = input.getStats();
+        final Config configuration = input.getConfiguration();
+
+        // mark the folder as being written, before anything is written into it
+        new File(logFileDir, AppSettings.LOG_SESSION_OPEN).createNewFile();
+
+        // open both log-files for the whole session. waypoints are rare and always flushed immediately
+        final FlushPolicy flushPolicy = configuration.getFlushPolicy();
+        Log.d(LOG_TAG, "position flush policy: " + flushPolicy);
+        durability = configuration.getDurabilityPolicy();
+        Log.d(LOG_TAG, "durability: " + durability);
+        final PositionEncoder positionEncoder = configuration.getPositionEncoder();
+        final String positionLogName = configuration.getPositionLogName();
+        final boolean newFile;
+        final String storage = configuration.get(AppSettings.CFG_LOG_STORAGE, AppSettings.DEFAULT_LOG_STORAGE);
+        if (AppSettings.LOG_STORAGE_SEGMENTED.equals(storage)) {
+            // memory-mapped segments: no flushing needed, records are visible once written
+            newFile = !SegmentedLogWriter.getManifestFile(logFileDir, AppSettings.LOG_POSITION_SEGMENTS).exists();
+            // the segments keep the extension of the single log-file
+            positionWriter = new SegmentedLogWriter(logFileDir, AppSettings.LOG_POSITION_SEGMENTS, positionLogName.substring(positionLogName.lastIndexOf('.') + 1),
+                    configuration.getLong(AppSettings.CFG_LOG_SEGMENT_SIZE, AppSettings.DEFAULT_LOG_SEGMENT_SIZE) * 1024 * 1024,
+                    FALLOCATE, durability);
+        } else if (AppSettings.LOG_STORAGE_COMPRESSED.equals(storage)) {
+            // blocks are compressed by the writer thread, never by the binder threads
+            final File positionFile = new File(logFileDir, positionLogName + AppSettings.LOG_COMPRESSED_SUFFIX);
+            newFile = !positionFile.exists() || positionFile.length() == 0;
+            positionWriter = new CompressedLogWriter(positionFile,
+                    configuration.getInt(AppSettings.CFG_LOG_COMPRESSION_BLOCK, AppSettings.DEFAULT_LOG_COMPRESSION_BLOCK) * 1024,
+                    configuration.getInt(AppSettings.CFG_LOG_COMPRESSION_LEVEL, AppSettings.DEFAULT_LOG_COMPRESSION_LEVEL),
+                    flushPolicy, durability);
+        } else {
+            final File positionFile = new File(logFileDir, positionLogName);
+            newFile = !positionFile.exists() || positionFile.length() == 0;
+            positionWriter = new SessionLogWriter(positionFile, flushPolicy, durability);
+        }
+        try {
+            if (newFile) {positionEncoder.writeHeader(positionWriter);}
+            // any durability at all also makes every waypoint durable. they are rare, the writer thread syncs them
+            syncWaypoints = durability.mode != DurabilityPolicy.Mode.NONE;
+            waypointWriter = new SessionLogWriter(new File(logFileDir, AppSettings.LOG_STEPLOGGER), FlushPolicy.EVERY_RECORD, DurabilityPolicy.NONE);
+        } catch (IOException e) {
+            closeQuietly(positionWriter);
+            throw e;
+        }
 
-                    }
+        // announce the new files once. optional periodic rescans are performed by the writer thread
+        mediaScanNotifier = new MediaScanNotifier(ctx,
+                configuration.getLong(AppSettings.CFG_MEDIASCAN_INTERVAL, AppSettings.DEFAULT_MEDIASCAN_INTERVAL),
+                logFileDir);
+        mediaScanNotifier.scanNow();
+
+        // binder threads only enqueue positions, the writer thread performs all position-log I/O
+        positionQueue = input.getQueue();
+        final Downsampler downsampler = configuration.getDownsampler();
+        downsampling = (downsampler == null) ? AppSettings.DOWNSAMPLE_NONE : downsampler.describe();
+        Log.d(LOG_TAG, "downsampling: " + downsampling);
+        index = createIndex(configuration, positionWriter.getFile().getName());
+        indexIntervalMs = configuration.getLong(AppSettings.CFG_INDEX_INTERVAL, AppSettings.DEFAULT_INDEX_INTERVAL);
+        writeIndex();
+        positionWriterThread = new PositionWriterThread(positionQueue, positionWriter, positionEncoder, downsampler, new PositionWriterThread.Listener() {
+            @Override public void onBatchWritten(int numRecords) {
+                mediaScanNotifier.scanIfDue();
+                try {
+                    index.writeIfDue(new File(logFileDir, AppSettings.LOG_INDEX), indexIntervalMs);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "error writing the session index: " + e.getMessage());
                 }
-        );
-
-        // start empty
-        updateInfoLabel();
-        resetCounter();
+            }
+            @Override public void onRingDrained(int numRecords) {
+                input.onArrival(numRecords);
+            }
+            @Override public void onWaypoint() {
+                if (!syncWaypoints) {return;}
+                try {
+                    waypointWriter.sync();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "error syncing " + waypointWriter.getFile() + ": " + e.getMessage());
+                }
+            }
+            @Override public void onError(String message, Exception e) {
+                Log.e(LOG_TAG, message + ": " + e.getMessage());
+            }
+            @Override public void onFinished() {
+                finish();
+            }
+        });
+        positionWriterThread.setIndex(index);
+        numBuffered = input.getNumReceived();
+        positionWriterThread.start();
+        openLatencyNanos = SystemClock.elapsedRealtimeNanos() - input.getRequestNanos();
+        Log.d(LOG_TAG, "session " + id + " open after " + openLatencyNanos / 1000 + " us, positions buffered: " + numBuffered);
 
     }
 
-    /** set the text to display within the info label */
-    public void setInfoLabelText(final String txt) {
-        lblInfo.setText(txt);
+    /** the index of the given position log, with the checkpoint interval described within the configuration */
+    private static SessionIndex createIndex(final Config configuration, final String logName) {
+        try {
+            return new SessionIndex(logName, configuration.getInt(AppSettings.CFG_INDEX_CHECKPOINT, AppSettings.DEFAULT_INDEX_CHECKPOINT));
+        } catch (IllegalArgumentException e) {
+            Log.e(LOG_TAG, "Configuration error: " + e.getMessage());
+            return new SessionIndex(logName, AppSettings.DEFAULT_INDEX_CHECKPOINT);
+        }
     }
 
-    /** disable the waypoint-button for some time */
-    private void disableButtonForSomeTime() {
-        counterButton.setClickable(false);
-        new Timer().schedule(new TimerTask() {
-            @Override public void run() {
-                counterButton.setClickable(true);
-            }
-        }, 2000);
+    /** write the session index now, errors are only logged */
+    private void writeIndex() {
+        try {
+            index.write(new File(logFileDir, AppSettings.LOG_INDEX));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "error writing the session index: " + e.getMessage());
+        }
     }
 
-    /** helper method to get the context the logging session belongs to */
-    private Context getContext() {
-        return overlayView.getContext();
+    /** the session is shown within the given overlay [main thread] */
+    public void onShown(final SessionOverlay overlay) {
+        shownLatencyNanos = SystemClock.elapsedRealtimeNanos() - input.getRequestNanos();
+        input.attachOverlay(overlay);
     }
 
+    /** the queue and arrival statistics the binder threads feed */
+    public SessionInput getInput() {
+        return input;
+    }
 
+    /**
+     * must be called from the service when the logging session is complete. does not wait:
+     * the writer thread drains all queued positions, closes the files and then calls the given callback [may be null].
+     * if the writer never finishes, the marker remains and the next service start repairs the folder
+     */
+    public void destroy(final Runnable onFinished) {
+        this.onFinished = onFinished;
+        positionQueue.close();
+    }
 
-    /** log the given position to file */
-    protected boolean logPosition(final long timestmap, final double x, final double y, final double z) {
+    /** the position log is closed: close the waypoint log and finish the folder. writer thread only */
+    private void finish() {
+        if (syncWaypoints) {
+            try {
+                waypointWriter.sync();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "error syncing " + waypointWriter.getFile() + ": " + e.getMessage());
+            }
+        }
+        closeQuietly(waypointWriter);
+        closeRingBuffer();
+        writeSummary();
+        index.onComplete();
+        writeIndex();
+        new File(logFileDir, AppSettings.LOG_SESSION_OPEN).delete();
+        mediaScanNotifier.scanNow();
+        Log.d(LOG_TAG, "session " + id + " done. positions written: " + positionWriterThread.getNumWritten() +
+                ", mean queue latency: " + positionWriterThread.getMeanQueueLatencyNanos() / 1000 + " us" +
+                ", max queue latency: " + positionWriterThread.getMaxQueueLatencyNanos() / 1000 + " us");
+        final Runnable callback = onFinished;
+        if (callback != null) {callback.run();}
+    }
 
-        // sanity check
-        if (logFileDir == null) {throw new RuntimeException("log folder is null. should not happen!");}
+    /**
+     * write the session's statistics into summary.log [arrival statistics over the whole session, not the overlay's window].
+     * arrival.rate.hz counts positions, the arrival intervals and gaps are measured between deliveries [calls, batches, ring drains]
+     */
+    private void writeSummary() {
+
+        final long tsEnd = System.currentTimeMillis();
+        final ArrivalStats.Snapshot s = new ArrivalStats.Snapshot();
+        stats.snapshot(System.nanoTime(), s);
+        final DeliveryLatencyStats delivery = positionWriterThread.getDeliveryStats();
+
+        final SessionSummary summary = new SessionSummary()
+                .put("session.id", id)
+                .put("session.start", tsStart)
+                .put("session.end", tsEnd)
+                .put("session.duration.ms", tsEnd - tsStart)
+                .put("session.start.open.ms", openLatencyNanos / 1000000.0, 1)
+                .put("session.start.shown.ms", (shownLatencyNanos < 0) ? -1 : shownLatencyNanos / 1000000.0, 1)
+                .put("session.start.buffered", numBuffered)
+                .put("positions.received", input.getNumReceived())
+                .put("positions.written", positionWriterThread.getNumWritten())
+                .put("positions.downsampling", downsampling)
+                .put("log.durability", durability)
+                .put("log.syncs", positionWriter.getNumSyncs())
+                .put("queue.capacity", positionQueue.capacity())
+                .put("queue.policy", positionQueue.getPolicy().configName())
+                .put("queue.depth.max", positionQueue.getMaxSize())
+                .put("queue.dropped", positionQueue.getNumDropped())
+                .put("queue.delayed", positionQueue.getNumDelayed())
+                .put("queue.blocked.ms", positionQueue.getBlockedNanos() / 1000000)
+                .put("arrival.rate.hz", s.sessionRateHz, 2)
+                .put("arrival.deliveries", s.numArrivals)
+                .put("arrival.interval.mean.ms", s.sessionMeanIntervalMs, 1)
+                .put("arrival.interval.jitter.ms", s.sessionJitterMs, 1)
+                .put("arrival.interval.min.ms", s.sessionMinIntervalMs, 1)
+                .put("arrival.interval.p50.ms", s.sessionP50IntervalMs, 1)
+                .put("arrival.interval.p99.ms", s.sessionP99IntervalMs, 1)
+                .put("arrival.interval.max.ms", s.maxGapMs, 1)
+                .put("arrival.delivery.gaps", s.numGaps)
+                .put("arrival.delivery.gaps.missed.deadlines", s.numMissedDeadlines)
+                .put("arrival.delivery.gaps.max.ms", s.maxGapMs, 1)
+                .put("queue.latency.mean.us", positionWriterThread.getMeanQueueLatencyNanos() / 1000)
+                .put("queue.latency.p50.us", positionWriterThread.getQueueLatencyUs().percentile(0.50))
+                .put("queue.latency.p99.us", positionWriterThread.getQueueLatencyUs().percentile(0.99))
+                .put("queue.latency.max.us", positionWriterThread.getMaxQueueLatencyNanos() / 1000)
+                .put("client.clock.offset.ms", delivery.getClockOffsetMs())
+                .put("delivery.delta.p50.ms", delivery.getDeltaPercentileMs(0.50))
+                .put("delivery.delta.p99.ms", delivery.getDeltaPercentileMs(0.99))
+                .put("delivery.latency.p50.ms", delivery.getLatencyPercentileMs(0.50))
+                .put("delivery.latency.p90.ms", delivery.getLatencyPercentileMs(0.90))
+                .put("delivery.latency.p99.ms", delivery.getLatencyPercentileMs(0.99))
+                .put("delivery.latency.max.ms", delivery.getLatencyPercentileMs(1.0));
 
         try {
-
-            final File fileToWrite = new File(logFileDir, AppSettings.LOG_POSITION);
-            final BufferedWriter bw = new BufferedWriter(new FileWriter(fileToWrite, true));
-//            bw.write("A " + String.valueOf(timestmap) + " " + x + " " + y + " " + z + "\n");
-            bw.write(String.valueOf(currentTimeMillis()) + " " + x + " " + y + " " + z + "\n");
-            bw.flush();
-            bw.close();
-            MediaScannerConnection.scanFile(getContext(), new String[]{fileToWrite.getAbsolutePath()}, null, null);
-            stats.inc();
-            updateInfoLabel();
-            return true;
-
-        } catch (Exception e) {
-
-            e.printStackTrace();
-            Log.e(LOG_TAG, "error: " + e.getMessage());
-            return false;
-
+            summary.write(new File(logFileDir, AppSettings.LOG_SUMMARY));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "error writing the session summary: " + e.getMessage());
         }
 
     }
 
-    /** log the given waypoint to file */
-    private boolean logCurrentWaypoint(final String content, final String label){
-
-        // sanity check
-        if (logFileDir == null) {throw new RuntimeException("log folder is null. should not happen!");}
+    /** whether the given session folder belongs to a session that was not closed properly */
+    public static boolean needsRecovery(final File logFileDir) {
+        return new File(logFileDir, AppSettings.LOG_SESSION_OPEN).exists();
+    }
 
-        try {
+    /**
+     * repair the folder of a session that was not closed properly [the process was killed]:
+     * cut torn records off all logs, finish the segment manifest, note what was done within recovery.log
+     * and remove the marker. must not be called for an active session
+     */
+    public static void recover(final File logFileDir) throws IOException {
+
+        long removed = 0;
+        removed += LogRecovery.truncateText(new File(logFileDir, AppSettings.LOG_POSITION));
+        removed += LogRecovery.truncateBinary(new File(logFileDir, AppSettings.LOG_POSITION_BINARY));
+        removed += LogRecovery.truncateColumnar(new File(logFileDir, AppSettings.LOG_POSITION_COLUMNAR));
+        removed += LogRecovery.recoverSegments(logFileDir, AppSettings.LOG_POSITION_SEGMENTS);
+        removed += LogRecovery.recoverCompressed(new File(logFileDir, AppSettings.LOG_POSITION + AppSettings.LOG_COMPRESSED_SUFFIX));
+        removed += LogRecovery.recoverCompressed(new File(logFileDir, AppSettings.LOG_POSITION_BINARY + AppSettings.LOG_COMPRESSED_SUFFIX));
+        removed += LogRecovery.recoverCompressed(new File(logFileDir, AppSettings.LOG_POSITION_COLUMNAR + AppSettings.LOG_COMPRESSED_SUFFIX));
+        removed += LogRecovery.truncateText(new File(logFileDir, AppSettings.LOG_STEPLOGGER));
+
+        final File marker = new File(logFileDir, AppSettings.LOG_SESSION_OPEN);
+        new SessionSummary()
+                .put("recovery.time", System.currentTimeMillis())
+                .put("recovery.marker.time", marker.lastModified())
+                .put("recovery.summary.found", new File(logFileDir, AppSettings.LOG_SUMMARY).exists())
+                .put("recovery.bytes.removed", removed)
+                .write(new File(logFileDir, AppSettings.LOG_RECOVERY));
+        marker.delete();
+        Log.d(LOG_TAG, "recovered " + logFileDir + ", bytes removed: " + removed);
 
-            final File fileToWrite = new File(logFileDir, AppSettings.LOG_STEPLOGGER);
-            final BufferedWriter bw = new BufferedWriter(new FileWriter(fileToWrite, true));
-            bw.write(content);
-            bw.close();
-            Log.d(LOG_TAG, fileToWrite.toURI()+" written");
-            scanFile(fileToWrite);
-            return true;
+    }
 
-        } catch (Exception e) {
+    /**
+     * create a shared-memory ring buffer for the given number of positions, that the writer thread polls
+     * in addition to the binder calls. a session has at most one ring [single producer].
+     * returns null if the device is too old, a ring is already open, or the region could not be created.
+     */
+    public synchronized RingBufferHandle openRingBuffer(final int capacity) {
 
-            Log.e(LOG_TAG, e.getMessage());
-            e.printStackTrace();
-            return false;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O_MR1) {
+            Log.e(LOG_TAG, "shared-memory ring buffers require API " + Build.VERSION_CODES.O_MR1);
+            return null;
+        }
+        if (ringMemory != null) {
+            Log.e(LOG_TAG, "session " + id + " already has a ring buffer");
+            return null;
+        }
 
+        // rings are indexed by masking: round up to the next power of two
+        final int slots = Integer.highestOneBit(Math.max(1, Math.min(capacity, MAX_RING_CAPACITY) - 1)) << 1;
+        try {
+            ringMemory = SharedMemory.create("steplogger-" + id, SpscRingBuffer.getRequiredBytes(slots));
+            ringMapping = ringMemory.mapReadWrite();
+            positionWriterThread.attachRing(SpscRingBuffer.create(ringMapping, slots), new LongSupplier() {
+                @Override public long getAsLong() {return SystemClock.elapsedRealtimeNanos();}
+            });
+            Log.d(LOG_TAG, "session " + id + ": ring buffer for " + slots + " positions");
+            return new RingBufferHandle(ringMemory);
+        } catch (ErrnoException | IllegalArgumentException e) {
+            Log.e(LOG_TAG, "could not create the ring buffer: " + e.getMessage());
+            closeRingBuffer();
+            return null;
         }
 
     }
 
-    /** when logging is complete [all waypoints processed] show an information and kill the service including the overlay view */
-    private void loggingComplete() {
-
-        // show an information
-        Toast.makeText(getContext(), "logging complete!\n" + logFileDir, Toast.LENGTH_LONG).show();
-
-        // inform the service the service
-        service.onLogDone();
-
+    /** release the ring buffer. only once the writer thread is done with it [finish()] or when it was never attached */
+    private synchronized void closeRingBuffer() {
+        // rings are never opened before API 27
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O_MR1) {return;}
+        if (ringMapping != null) {
+            SharedMemory.unmap(ringMapping);
+            ringMapping = null;
+        }
+        if (ringMemory != null) {
+            ringMemory.close();
+            ringMemory = null;
+        }
     }
 
-
-    /** reset the logging process [not really needed, as the Session is killed after one walk is completed] */
-    private void resetCounter() {
-        index = 0;
-        String buttonName  = lines[index].split(":")[0];
-        counterButton.setText(buttonName);
+    /** fill the given snapshot with this session's metrics. may be called from any thread */
+    public void fillMetrics(final LoggerMetrics m) {
+        final ArrivalStats.Snapshot s = new ArrivalStats.Snapshot();
+        stats.snapshot(System.nanoTime(), s);
+        final LatencyHistogram latency = positionWriterThread.getQueueLatencyUs();
+        m.sessionActive = true;
+        m.sessionId = id;
+        m.sessionName = logFileDir.getName();
+        m.sessionAgeMs = m.timestamp - tsStart;
+        m.positionsReceived = input.getNumReceived();
+        m.positionsPersisted = positionWriterThread.getNumWritten();
+        m.bytesWritten = positionWriter.getBytesWritten();
+        m.queueDepth = positionQueue.size();
+        m.queueCapacity = positionQueue.capacity();
+        m.queueMaxDepth = positionQueue.getMaxSize();
+        m.positionsDropped = positionQueue.getNumDropped();
+        m.queueLatencyP50Us = latency.percentile(0.50);
+        m.queueLatencyP99Us = latency.percentile(0.99);
+        m.queueLatencyMaxUs = latency.getMax();
+        m.rateHz = s.rateHz;
+        m.numGaps = s.numGaps;
     }
 
+    /** the number of received positions still waiting for the writer thread */
+    public int getQueueDepth() {
+        return positionQueue.size();
+    }
 
-
-    /** update the info-label below the button that shows the number of received position updates */
-    private void updateInfoLabel() {
-
-        // must be called from the android main-thread
-        final Handler mainHandler = new Handler(Looper.getMainLooper());
-
-        mainHandler.post(
-            new Runnable() {
-                @Override public void run() {
-
-                    lblInfo.setText("Estimations: " + stats.getCount() + " @ " + stats.getUpdateRate() + " ms");
-                }
-            }
-        );
-
+    /** the queue latency between receiving a position and handing it to the encoder [ns] */
+    public long getLastQueueLatencyNanos() {
+        return positionWriterThread.getLastQueueLatencyNanos();
     }
 
+    /** the average queue latency between receiving a position and handing it to the encoder [ns] */
+    public long getMeanQueueLatencyNanos() {
+        return positionWriterThread.getMeanQueueLatencyNanos();
+    }
 
+    /** close the given log-file, errors are only logged */
+    private static void closeQuietly(final LogSink writer) {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "error closing " + writer.getFile() + ": " + e.getMessage());
+        }
+    }
 
+    /** log the given waypoint line to file [main thread, or a stream client's connection thread] */
+    protected boolean logWaypoint(final String content){
 
+        // sanity check
+        if (logFileDir == null) {throw new RuntimeException("log folder is null. should not happen!");}
 
-    /** TODO: implement this again? */
-    private void scanFile(final File permFile) {
-//        Intent mediaScannerIntent = new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE);
-//        Uri fileContentUri = Uri.fromFile(permFile); // With 'permFile' being the File object
-//        mediaScannerIntent.setData(fileContentUri);
-    }
+        try {
 
-}
+            waypointWriter.writeRecord(content);
+            Log.d(LOG_TAG, waypointWriter.getFile().toURI()+" written");
+            indexWaypoint(content);
+            // flushing [or syncing] the position log and syncing the waypoint log is up to the writer thread
+            positionWriterThread.onWaypoint();
+            return true;
 
+        } catch (Exception e) {
 
-/** helper class to show some stats below the button */
-class Stats {
+            Log.e(LOG_TAG, e.getMessage());
+            e.printStackTrace();
+            return false;
 
-    public int numTotal = 0;
-    public int numWindow = 0;
-    public long windowStartTS = System.currentTimeMillis();
+        }
 
-    public void inc() {
-        ++numTotal;
+    }
 
-        if (numWindow > 10) {
-            numWindow = 0;
-            windowStartTS = System.currentTimeMillis();
+    /** add the waypoint of the given line [timestamp : label : ...] to the index */
+    private void indexWaypoint(final String line) {
+        final int sep = line.indexOf(" : ");
+        if (sep < 0) {return;}
+        final int end = line.indexOf(" : ", sep + 3);
+        try {
+            index.onWaypoint(Long.parseLong(line.substring(0, sep)), line.substring(sep + 3, (end < 0) ? line.trim().length() : end));
+        } catch (NumberFormatException e) {
+            Log.e(LOG_TAG, "waypoint line without timestamp: " + line);
         }
-        ++numWindow;
-
+    }
 
+    /** append this session's statistics for the overlay's info label [main thread]. detailed for a single session */
+    protected void appendInfo(final StringBuilder sb, final boolean detailed) {
+        stats.snapshot(System.nanoTime(), overlayStats);
+        if (detailed) {
+            final DeliveryLatencyStats delivery = positionWriterThread.getDeliveryStats();
+            sb.append(String.format(Locale.US,
+                    "Estimations: %d / %d saved @ %.1f Hz\np50 %.0f p99 %.0f ms, gaps: %d\ndelivery p50 %d p99 %d ms",
+                    input.getNumReceived(), positionWriterThread.getNumWritten(), overlayStats.rateHz,
+                    overlayStats.p50IntervalMs, overlayStats.p99IntervalMs, overlayStats.numGaps,
+                    delivery.getDeltaPercentileMs(0.50), delivery.getDeltaPercentileMs(0.99)));
+        } else {
+            sb.append(String.format(Locale.US, "%s: %d / %d @ %.1f Hz, gaps: %d",
+                    id, input.getNumReceived(), positionWriterThread.getNumWritten(), overlayStats.rateHz, overlayStats.numGaps));
+        }
     }
 
-    public int getCount() {
-        return numTotal;
+    /** the id the clients use to address this session */
+    public String getId() {
+        return id;
     }
 
-    public int getUpdateRate() {
-        if (numWindow == 0) {return 0;}
-        final long duration = System.currentTimeMillis() - windowStartTS;
-        return (int) (duration / numWindow);
+    /** the folder this session writes to */
+    public File getLogFileDir() {
+        return logFileDir;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,57 @@
+package it.cnr.isti.steplogger;
+
+import android.content.Context;
+import android.media.MediaScannerConnection;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * tells the media scanner about the log-files of a session, so they show up via USB/MTP.
+ *
+ * scanning is a session-lifecycle operation: once when the files are created
+ * and once when the session is done. optionally, the files are rescanned
+ * while the session runs, but never more often than the given interval.
+ */
+public class MediaScanNotifier {
+
+    private final Context ctx;
+    private final File[] files;
+
+    /** minimum time between two periodic rescans [ms, 0 = no periodic rescans] */
+    private final long minIntervalMs;
+
+    private volatile long lastScanTS;
+
+
+    /** ctor. for a folder, all files it contains at scan time are scanned [e.g. the segments of a segmented log] */
+    public MediaScanNotifier(final Context ctx, final long minIntervalMs, final File... files) {
+        this.ctx = ctx;
+        this.minIntervalMs = minIntervalMs;
+        this.files = files;
+    }
+
+    /** scan all files now */
+    public void scanNow() {
+        lastScanTS = SystemClock.elapsedRealtime();
+        final List<String> paths = new ArrayList<>();
+        for (final File file : files) {
+            final File[] children = file.isDirectory() ? file.listFiles() : null;
+            if (children == null) {
+                paths.add(file.getAbsolutePath());
+            } else {
+                for (final File child : children) {paths.add(child.getAbsolutePath());}
+            }
+        }
+        MediaScannerConnection.scanFile(ctx, paths.toArray(new String[0]), null, null);
+    }
+
+    /** rescan all files if periodic rescans are enabled and the last scan is old enough. cheap otherwise */
+    public void scanIfDue() {
+        if (minIntervalMs <= 0) {return;}
+        if (SystemClock.elapsedRealtime() - lastScanTS >= minIntervalMs) {scanNow();}
+    }
+
+}
@@ -0,0 +1,65 @@
+package it.cnr.isti.steplogger;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * refreshes the overlay at most at a fixed rate, no matter how often a refresh is requested.
+ *
+ * requestRefresh() may be called from any thread [e.g. for every received position].
+ * it never blocks and posts at most one pending refresh to the main looper,
+ * all further requests are merged into that pending refresh.
+ */
+public class OverlayRefresher {
+
+    /** performs the actual refresh. always called on the main thread */
+    public interface Target {
+        void refresh();
+    }
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Target target;
+
+    /** minimum time between two refreshes [ms] */
+    private final long minIntervalMs;
+
+    /** whether a refresh is already posted */
+    private final AtomicBoolean pending = new AtomicBoolean(false);
+
+    private volatile long lastRefreshTS = 0;
+    private volatile boolean stopped = false;
+
+    private final Runnable refreshRunnable = new Runnable() {
+        @Override public void run() {
+            // clear the flag first: requests arriving during refresh() get their own refresh
+            pending.set(false);
+            if (stopped) {return;}
+            lastRefreshTS = SystemClock.uptimeMillis();
+            target.refresh();
+        }
+    };
+
+
+    /** ctor. refreshes the target at most maxRateHz times per second */
+    public OverlayRefresher(final Target target, final int maxRateHz) {
+        this.target = target;
+        this.minIntervalMs = 1000 / Math.max(1, maxRateHz);
+    }
+
+    /** request a refresh. merged with an already pending one */
+    public void requestRefresh() {
+        if (stopped || !pending.compareAndSet(false, true)) {return;}
+        final long delay = lastRefreshTS + minIntervalMs - SystemClock.uptimeMillis();
+        mainHandler.postDelayed(refreshRunnable, Math.max(0, delay));
+    }
+
+    /** drop any pending refresh and ignore all further requests */
+    public void stop() {
+        stopped = true;
+        mainHandler.removeCallbacks(refreshRunnable);
+    }
+
+}
@@ -0,0 +1,46 @@
+package it.cnr.isti.steplogger;
+
+import android.os.Build;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SharedMemory;
+
+import androidx.annotation.RequiresApi;
+
+/**
+ * the shared-memory region of a position ring buffer, handed from the service to a client.
+ * the region's layout is described by {@link it.cnr.isti.steplogger.core.SpscRingBuffer}.
+ *
+ * [SharedMemory requires API 27. the service never creates a handle on older devices]
+ */
+@RequiresApi(Build.VERSION_CODES.O_MR1)
+public class RingBufferHandle implements Parcelable {
+
+    /** the region holding the ring */
+    public final SharedMemory memory;
+
+    /** ctor */
+    public RingBufferHandle(final SharedMemory memory) {
+        this.memory = memory;
+    }
+
+    private RingBufferHandle(final Parcel in) {
+        memory = in.readParcelable(SharedMemory.class.getClassLoader());
+    }
+
+    @Override
+    public void writeToParcel(final Parcel out, final int flags) {
+        out.writeParcelable(memory, flags);
+    }
+
+    @Override
+    public int describeContents() {
+        return CONTENTS_FILE_DESCRIPTOR;
+    }
+
+    public static final Creator<RingBufferHandle> CREATOR = new Creator<RingBufferHandle>() {
+        @Override public RingBufferHandle createFromParcel(Parcel in) {return new RingBufferHandle(in);}
+        @Override public RingBufferHandle[] newArray(int size) {return new RingBufferHandle[size];}
+    };
+
+}
@@ -0,0 +1,63 @@
+package it.cnr.isti.steplogger;
+
+import android.os.Build;
+import android.os.SharedMemory;
+import android.system.ErrnoException;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+import it.cnr.isti.steplogger.core.SpscRingBuffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * client side of a session's shared-memory ring buffer.
+ * positions offered here reach the service's writer thread without any binder transaction.
+ *
+ * a ring has exactly one producer: offer() must always be called from the same thread
+ * [or be synchronized by the caller].
+ *
+ * [SharedMemory requires API 27, see {@link StepLoggerServiceHelper#openRingBuffer(String, int)}]
+ */
+@RequiresApi(Build.VERSION_CODES.O_MR1)
+public class RingBufferProducer {
+
+    private static final String LOG_TAG = RingBufferProducer.class.getName();
+
+    private final SharedMemory memory;
+    private ByteBuffer mapping;
+    private final SpscRingBuffer ring;
+
+    /** positions that did not fit into the ring */
+    private long numRejected = 0;
+
+    /** ctor. maps the handle's region */
+    public RingBufferProducer(final RingBufferHandle handle) throws ErrnoException {
+        this.memory = handle.memory;
+        this.mapping = memory.mapReadWrite();
+        this.ring = SpscRingBuffer.attach(mapping);
+    }
+
+    /** append one position. returns false if the ring is full or closed [the position is lost] */
+    public boolean offer(final long timestamp, final double x, final double y, final double z) {
+        if (mapping == null) {return false;}
+        if (ring.offer(timestamp, x, y, z)) {return true;}
+        if (numRejected++ == 0) {Log.e(LOG_TAG, "ring buffer full, positions are dropped");}
+        return false;
+    }
+
+    /** positions that did not fit into the ring */
+    public long getNumRejected() {
+        return numRejected;
+    }
+
+    /** unmap the region. positions offered so far are still written by the service */
+    public void close() {
+        if (mapping == null) {return;}
+        SharedMemory.unmap(mapping);
+        mapping = null;
+        memory.close();
+    }
+
+}
@@ -0,0 +1,185 @@
+package it.cnr.isti.steplogger;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import it.cnr.isti.steplogger.core.ArrivalStats;
+import it.cnr.isti.steplogger.core.PositionQueue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * the in-memory side of a logging session: the queue the binder threads put positions into,
+ * and the statistics of their arrival.
+ *
+ * it is created as soon as a session is requested, before the session's folder and files exist.
+ * positions that arrive while the files are opened wait within the queue [the pre-session buffer]
+ * with their original receive times, and the {@link LoggingSession} drains them once it is open.
+ */
+public class SessionInput {
+
+    private static final String LOG_TAG = SessionInput.class.getName();
+
+    /** how many arrivals the update statistics can hold within their window */
+    private static final int STATS_CAPACITY = 4096;
+
+    /** the id the clients use to address the session */
+    private final String id;
+
+    /** the configuration the session is started with */
+    private final Config configuration;
+
+    /** when the session was requested [ns, elapsedRealtimeNanos] */
+    private final long requestNanos;
+
+    /** received positions waiting for the writer thread */
+    private final PositionQueue queue;
+
+    /** update rate, jitter and gaps of the received position updates */
+    private final ArrivalStats stats;
+
+    /** the number of received position updates. incremented by the binder threads without locking */
+    private final AtomicLong numReceived = new AtomicLong();
+
+    /** the overlay to refresh when positions arrive. null until the session is shown */
+    private volatile SessionOverlay overlay;
+
+
+    /** ctor. cheap, no I/O: may be called on a binder thread */
+    public SessionInput(final String id, final Config configuration) {
+        this.id = id;
+        this.configuration = configuration;
+        this.requestNanos = SystemClock.elapsedRealtimeNanos();
+        this.queue = new PositionQueue(
+                configuration.getInt(AppSettings.CFG_QUEUE_CAPACITY, AppSettings.DEFAULT_QUEUE_CAPACITY),
+                configuration.getOverflowPolicy(),
+                configuration.getInt(AppSettings.CFG_QUEUE_DECIMATION, AppSettings.DEFAULT_QUEUE_DECIMATION));
+        this.stats = configuration.getArrivalStats(STATS_CAPACITY);
+    }
+
+    /** queue the given position for the writer thread. blocks only while the queue is full */
+    public boolean logPosition(final long timestamp, final double x, final double y, final double z) {
+
+        try {
+
+            if (!queue.put(timestamp, currentTimeMillis(), SystemClock.elapsedRealtimeNanos(), x, y, z)) {
+                Log.d(LOG_TAG, "session already closed, position dropped");
+                return false;
+            }
+            numReceived.incrementAndGet();
+            stats.onArrival(System.nanoTime(), 1);
+            refreshOverlay();
+            return true;
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            Log.e(LOG_TAG, "interrupted while queueing a position");
+            return false;
+
+        }
+
+    }
+
+    /** queue a batch of positions [same-length arrays] for the writer thread. blocks only while the queue is full */
+    public boolean logPositions(final long[] timestamps, final double[] x, final double[] y, final double[] z) {
+        return logPositions(timestamps, x, y, z, timestamps.length);
+    }
+
+    /** queue the first count positions of the given arrays for the writer thread. blocks only while the queue is full */
+    public boolean logPositions(final long[] timestamps, final double[] x, final double[] y, final double[] z, final int count) {
+
+        try {
+
+            final int cnt = queue.putAll(timestamps, currentTimeMillis(), SystemClock.elapsedRealtimeNanos(), x, y, z, 0, count);
+            if (cnt < count) {
+                Log.d(LOG_TAG, "session already closed, " + (count - cnt) + " positions dropped");
+            }
+            numReceived.addAndGet(cnt);
+            stats.onArrival(System.nanoTime(), cnt);
+            refreshOverlay();
+            return cnt == count;
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            Log.e(LOG_TAG, "interrupted while queueing positions");
+            return false;
+
+        }
+
+    }
+
+    /** count positions that arrived via another path [e.g. a ring buffer drained by the writer thread] */
+    void onArrival(final int count) {
+        numReceived.addAndGet(count);
+        stats.onArrival(System.nanoTime(), count);
+        refreshOverlay();
+    }
+
+    /** show the session's statistics within the given overlay from now on */
+    void attachOverlay(final SessionOverlay overlay) {
+        this.overlay = overlay;
+        refreshOverlay();
+    }
+
+    /** update the overlay's info-label at the next possible time [from any thread] */
+    void refreshOverlay() {
+        final SessionOverlay o = overlay;
+        if (o != null) {o.requestRefresh();}
+    }
+
+    /** stop accepting positions. already queued positions can still be drained */
+    public void close() {
+        queue.close();
+    }
+
+    /** the id the clients use to address the session */
+    public String getId() {
+        return id;
+    }
+
+    /** the configuration the session is started with */
+    public Config getConfiguration() {
+        return configuration;
+    }
+
+    /** when the session was requested [ns, elapsedRealtimeNanos] */
+    public long getRequestNanos() {
+        return requestNanos;
+    }
+
+    /** the queue the session's writer thread drains */
+    public PositionQueue getQueue() {
+        return queue;
+    }
+
+    /** update rate, jitter and gaps of the received position updates */
+    public ArrivalStats getStats() {
+        return stats;
+    }
+
+    /** fill the given snapshot with the values known while the session is being started. may be called from any thread */
+    public void fillMetrics(final LoggerMetrics m) {
+        final ArrivalStats.Snapshot s = new ArrivalStats.Snapshot();
+        stats.snapshot(System.nanoTime(), s);
+        m.sessionStarting = true;
+        m.sessionId = id;
+        m.sessionAgeMs = (SystemClock.elapsedRealtimeNanos() - requestNanos) / 1000000;
+        m.positionsReceived = getNumReceived();
+        m.queueDepth = queue.size();
+        m.queueCapacity = queue.capacity();
+        m.queueMaxDepth = queue.getMaxSize();
+        m.positionsDropped = queue.getNumDropped();
+        m.rateHz = s.rateHz;
+        m.numGaps = s.numGaps;
+    }
+
+    /** the number of received position updates */
+    public long getNumReceived() {
+        return numReceived.get();
+    }
+
+}
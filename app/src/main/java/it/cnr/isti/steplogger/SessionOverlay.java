@@ -0,0 +1,179 @@
+package it.cnr.isti.steplogger;
+
+import android.content.Context;
+import android.graphics.PixelFormat;
+import android.os.Build;
+import android.util.Log;
+import android.view.Gravity;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.WindowManager;
+import android.widget.Button;
+import android.widget.TextView;
+
+import it.cnr.isti.steplogger.core.WaypointPlan;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * the screen overlay of a walk: a clickable waypoint button
+ * that is always-on-top no matter which app is currently in foreground,
+ * and an info label below it.
+ *
+ * one overlay is shared by all logging sessions that are active at the same time:
+ * every waypoint click is passed to the listener, which logs it into each session.
+ *
+ * MUST be created and used from the main thread [except requestRefresh()]
+ */
+public class SessionOverlay {
+
+    private static final String LOG_TAG = SessionOverlay.class.getName();
+
+    /** informed about waypoint clicks. called on the main thread */
+    public interface Listener {
+
+        /** log the given waypoint line. returns true if it was saved */
+        boolean onWaypoint(String line, String label);
+
+        /** the text to show within the info label */
+        String getInfoText();
+
+        /** all waypoints of the plan were logged */
+        void onWalkComplete();
+
+    }
+
+    //ui
+    private final WindowManager wm;
+    private View overlayView;
+    private Button counterButton;
+    private TextView lblInfo;
+
+    /** the waypoints of this walk */
+    private final WaypointPlan plan;
+
+    /** current waypoint index */
+    private int index = 0;
+
+    private final Listener listener;
+
+    /** refreshes the info-label at a bounded rate */
+    private final OverlayRefresher overlayRefresher;
+
+
+    /** ctor. adds the overlay view to the window manager */
+    public SessionOverlay(final WindowManager wm, final LayoutInflater inflater, final WaypointPlan plan, final int refreshRateHz, final Listener listener) {
+
+        this.wm = wm;
+        this.plan = plan;
+        this.listener = listener;
+
+        // create the overlay window
+        WindowManager.LayoutParams params = new WindowManager.LayoutParams(
+                WindowManager.LayoutParams.WRAP_CONTENT,
+                WindowManager.LayoutParams.WRAP_CONTENT,
+                ((Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+                        ? WindowManager.LayoutParams.TYPE_APPLICATION_OVERLAY
+                        : WindowManager.LayoutParams.TYPE_PHONE),
+                WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE,
+                PixelFormat.TRANSLUCENT);
+        params.gravity = Gravity.BOTTOM | Gravity.RIGHT;
+        overlayView = inflater.inflate(R.layout.activity_steplogger_overlay, null);
+        wm.addView(overlayView, params);
+
+        // build the UI
+        overlayRefresher = new OverlayRefresher(new OverlayRefresher.Target() {
+            @Override public void refresh() {
+                if (lblInfo == null) {return;}
+                lblInfo.setText(listener.getInfoText());
+            }
+        }, refreshRateHz);
+        setupUi();
+
+    }
+
+    /** remove the overlay view */
+    public void destroy() {
+        overlayRefresher.stop();
+        if (overlayView != null) {
+            wm.removeView(overlayView);
+            overlayView = null;
+        }
+    }
+
+    /** update the info-label at the next possible time [from any thread] */
+    public void requestRefresh() {
+        overlayRefresher.requestRefresh();
+    }
+
+    /** the context the overlay view belongs to */
+    public Context getContext() {
+        return overlayView.getContext();
+    }
+
+    private void setupUi() {
+
+        counterButton = (Button) overlayView.findViewById(R.id.counterButton);
+        lblInfo = (TextView) overlayView.findViewById(R.id.lblInfo);
+
+        // attach an event listener to the button
+        counterButton.setOnClickListener(
+                new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+
+                        // try to create a new log entry for the current waypoint
+                        final boolean saveOK = listener.onWaypoint(
+                                plan.formatLogLine(index, System.currentTimeMillis()),
+                                plan.getEntry(index));
+
+                        // if saving was OK, proceed with the next waypoint and block the button for some time
+                        if (saveOK) {
+                            index++;
+                            disableButtonForSomeTime();
+                        } else {
+                            Log.e(LOG_TAG, "waypoint " + index + " was not saved");
+                        }
+
+                        // update the system state
+                        if(index < plan.size()) {
+
+                            final String buttonName  = plan.getLabel(index);
+                            counterButton.setText(buttonName);
+
+                        } else {
+
+                            // logging complete. kill the sessions!
+                            listener.onWalkComplete();
+
+                        }
+
+                    }
+                }
+        );
+
+        // start empty
+        requestRefresh();
+        resetCounter();
+
+    }
+
+    /** disable the waypoint-button for some time */
+    private void disableButtonForSomeTime() {
+        counterButton.setClickable(false);
+        new Timer().schedule(new TimerTask() {
+            @Override public void run() {
+                counterButton.setClickable(true);
+            }
+        }, 2000);
+    }
+
+    /** reset the logging process [not really needed, as the overlay is removed after one walk is completed] */
+    private void resetCounter() {
+        index = 0;
+        String buttonName  = plan.getLabel(index);
+        counterButton.setText(buttonName);
+    }
+
+}
@@ -0,0 +1,176 @@
+package it.cnr.isti.steplogger;
+
+import android.content.pm.PackageManager;
+import android.net.Credentials;
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.os.Process;
+import android.util.Log;
+
+import it.cnr.isti.steplogger.core.PositionStreamReader;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * accepts position streams [see PositionStreamFormat] on an abstract-namespace unix domain socket,
+ * an alternative to the binder calls for native [NDK] positioning stacks.
+ * [its throughput has not been compared with the binder calls, which cannot be benchmarked off a device]
+ *
+ * anyone can connect to an abstract socket. only this app, apps signed with the same key
+ * and the packages or uids listed within socket.allow may stream, other peers are disconnected right away.
+ *
+ * every connection names its session within the HELLO frame and gets its own reader thread.
+ * the session is looked up for every frame, so a client keeps streaming when its session is restarted.
+ * frames for a session that is neither active nor being started are dropped.
+ */
+public class SocketIngestServer {
+
+    private static final String LOG_TAG = SocketIngestServer.class.getName();
+
+    private final StepLoggerService service;
+    private final String name;
+
+    /** packages and uids that may stream besides this app and apps signed with the same key */
+    private final Set<String> allowedPackages = new HashSet<>();
+    private final Set<Integer> allowedUids = new HashSet<>();
+    private final LocalServerSocket serverSocket;
+    private final Thread acceptThread;
+
+    /** all open client connections, closed by stop() */
+    private final Set<LocalSocket> connections = Collections.synchronizedSet(new HashSet<LocalSocket>());
+
+    private volatile boolean stopped = false;
+
+
+    /** ctor. binds the socket and starts accepting clients. allow: comma-separated package names and uids */
+    public SocketIngestServer(final StepLoggerService service, final String name, final String allow) throws IOException {
+        this.service = service;
+        this.name = name;
+        for (final String entry : allow.split(",")) {
+            final String e = entry.trim();
+            if (e.isEmpty()) {continue;}
+            if (e.matches("\\d+")) {allowedUids.add(Integer.valueOf(e));}
+            else {allowedPackages.add(e);}
+        }
+        this.serverSocket = new LocalServerSocket(name);
+        this.acceptThread = new Thread(new Runnable() {
+            @Override public void run() {acceptLoop();}
+        }, "SocketIngest-accept");
+        acceptThread.start();
+        Log.d(LOG_TAG, "listening on @" + name);
+    }
+
+    /** stop accepting clients and close all connections */
+    public void stop() {
+
+        stopped = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "error closing the server socket: " + e.getMessage());
+        }
+
+        // closing the server socket does not interrupt a pending accept(): wake it up with a dummy client
+        final LocalSocket wakeUp = new LocalSocket();
+        try {
+            wakeUp.connect(new LocalSocketAddress(name));
+        } catch (IOException e) {
+            // accept() already returned
+        } finally {
+            closeQuietly(wakeUp);
+        }
+
+        synchronized (connections) {
+            for (final LocalSocket socket : connections) {closeQuietly(socket);}
+            connections.clear();
+        }
+
+    }
+
+    private void acceptLoop() {
+        while (!stopped) {
+            final LocalSocket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!stopped) {Log.e(LOG_TAG, "accept failed: " + e.getMessage());}
+                return;
+            }
+            if (stopped) {
+                closeQuietly(socket);
+                return;
+            }
+            connections.add(socket);
+            new Thread(new Runnable() {
+                @Override public void run() {serve(socket);}
+            }, "SocketIngest-client").start();
+        }
+    }
+
+    /** read the client's frames until it disconnects */
+    private void serve(final LocalSocket socket) {
+
+        String peer = "?";
+        try {
+            final Credentials credentials = socket.getPeerCredentials();
+            peer = "uid " + credentials.getUid() + " pid " + credentials.getPid();
+            if (!isAllowed(credentials.getUid())) {
+                Log.e(LOG_TAG, "stream client " + peer + " is not allowed, see " + AppSettings.CFG_SOCKET_ALLOW);
+                return;
+            }
+
+            final PositionStreamReader reader = new PositionStreamReader(socket.getInputStream());
+            final String sessionId = reader.getSessionId();
+            Log.d(LOG_TAG, "stream client " + peer + " logs into session " + sessionId);
+
+            final PositionStreamReader.Handler handler = new PositionStreamReader.Handler() {
+                @Override public void onPositions(long[] timestamps, double[] x, double[] y, double[] z, int count) {
+                    final SessionInput input = service.getInput(sessionId);
+                    if (input != null) {input.logPositions(timestamps, x, y, z, count);}
+                }
+                @Override public void onWaypoint(long timestamp, String label) {
+                    final LoggingSession session = service.getSession(sessionId);
+                    if (session != null) {session.logWaypoint(timestamp + " : " + label + "\n");}
+                }
+            };
+            while (reader.next(handler)) {}
+            Log.d(LOG_TAG, "stream client " + peer + " done. positions: " + reader.getNumPositions() + ", frames: " + reader.getNumFrames());
+
+        } catch (IOException e) {
+            if (!stopped) {Log.e(LOG_TAG, "stream client " + peer + ": " + e.getMessage());}
+        } finally {
+            connections.remove(socket);
+            closeQuietly(socket);
+        }
+
+    }
+
+    /**
+     * whether the peer with the given uid may stream positions.
+     * [android 11+: a package is only visible to this app once it bound the service, list its uid otherwise]
+     */
+    private boolean isAllowed(final int uid) {
+        if (uid == Process.myUid() || allowedUids.contains(uid)) {return true;}
+        final PackageManager pm = service.getPackageManager();
+        if (pm.checkSignatures(Process.myUid(), uid) == PackageManager.SIGNATURE_MATCH) {return true;}
+        final String[] packages = pm.getPackagesForUid(uid);
+        if (packages == null) {return false;}
+        for (final String pkg : packages) {
+            if (allowedPackages.contains(pkg)) {return true;}
+        }
+        return false;
+    }
+
+    private static void closeQuietly(final LocalSocket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+}
@@ -23,6 +23,8 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import it.cnr.isti.steplogger.core.WaypointPlan;
+
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
@@ -34,7 +36,7 @@ public class StepLoggerActivity extends AppCompatActivity {
 
     //private Button counterButton;
     //private int counterButtonVisibility = View.INVISIBLE;
-    private String[] lines = null;
+    private WaypointPlan plan = null;
     //private String folder = "";
     public String uid = "";
     //private Integer index = 0;
@@ -92,7 +94,12 @@ public class StepLoggerActivity extends AppCompatActivity {
         // sanity check. ensure that the configuration.ini is accessible and valid
         configuration = new Config();
         configuration.load();
-        lines = configuration.get("counter").split(",");
+        try {
+            plan = configuration.getWaypointPlan();
+        } catch (IllegalArgumentException e) {
+            Log.e(LOG_TAG, "Configuration error: " + e.getMessage());
+            configDialogShowing = true;
+        }
 
         // ensure all data folders are created and accessible
         this.ensureFoldersExist();
@@ -103,7 +110,7 @@ public class StepLoggerActivity extends AppCompatActivity {
 
         PreferenceManager.setDefaultValues(this, R.xml.settings, false);
 
-        if (lines != null && !configDialogShowing) {
+        if (plan != null && !configDialogShowing) {
             if (!recreatedActivity || (recreatedActivity && welcomeScreenDialogShowing))
                 this.showWelcomeDialog();
             // String buttonName  = lines[index].split(":")[0];
@@ -214,7 +221,7 @@ public class StepLoggerActivity extends AppCompatActivity {
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
 
-        if(lines != null) {
+        if(plan != null) {
             menu.findItem(R.id.menu_action_newsession).setEnabled(true);
             menu.findItem(R.id.menu_action_settings).setEnabled(true);
         } else {
@@ -264,7 +271,6 @@ public class StepLoggerActivity extends AppCompatActivity {
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         //outState.putInt("index", index);
-        outState.putStringArray("lines", lines);
         //outState.putInt("counterButtonVisibility", counterButton.getVisibility());
         outState.putBoolean("testMode", testMode);
         //outState.putString("folder", folder);
@@ -1,8 +1,10 @@
 package it.cnr.isti.steplogger;
 
 import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.RemoteException;
@@ -10,8 +12,16 @@ import android.text.format.Time;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.WindowManager;
+import android.widget.Toast;
+
+import it.cnr.isti.steplogger.core.SessionCatalog;
+import it.cnr.isti.steplogger.core.WaypointPlan;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * this is a background-service that accepts external calls via an AIDL
@@ -20,16 +30,54 @@ import java.io.File;
  *
  * furthermore, the service provides a command to start a new measurement session.
  * this will create a new always-on-top UI that is clickable to mark waypoints.
+ *
+ * several sessions, addressed by an id, can be active at the same time [e.g. one per
+ * positioning app or algorithm]. they share the overlay, every waypoint is logged into each of them.
+ * the original single-session calls use the session {@link #DEFAULT_SESSION_ID}.
+ *
+ * the config.ini is watched: a new session uses the latest valid configuration, without restarting the service.
+ *
+ * a session start does not block the caller: positions are buffered from the request on,
+ * the folder and files are created on a background thread, and only the overlay is created on the main thread.
  */
 public class StepLoggerService extends Service {
 
     private static final String LOG_TAG = StepLoggerService.class.getName();
 
-    /** the currently active logging session [if any!] */
-    private LoggingSession logSession;
+    /** how many numbered variants of a session folder name are tried before a start is given up */
+    private static final int MAX_DIR_ATTEMPTS = 100;
+
+    /** the session used by startNewSession(), logPosition(), logPositions() and getMetrics() */
+    public static final String DEFAULT_SESSION_ID = "default";
+
+    /** the currently active logging sessions by id. added on the main thread, removed by stops [any thread], read by the binder threads */
+    private final ConcurrentHashMap<String, LoggingSession> sessions = new ConcurrentHashMap<>();
+
+    /** the sessions that were requested but are not shown yet, by id. their inputs buffer the positions received meanwhile */
+    private final ConcurrentHashMap<String, SessionInput> starting = new ConcurrentHashMap<>();
+
+    /**
+     * the folders of all sessions whose files are open. never repaired by recoverInterruptedSessions().
+     * [per process: the writer of a session of a destroyed service may still be finishing its folder]
+     */
+    private static final Set<File> openDirs = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
 
-    /** the waypoint configuration */
-    final Config configuration = new Config();
+    /** the writer threads of finished sessions update the catalog one at a time */
+    private static final Object catalogLock = new Object();
+
+    /** opens the files of new sessions, away from the main thread */
+    private HandlerThread starterThread;
+    private Handler starter;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /** the waypoint overlay shared by all active sessions [if any!]. main thread only */
+    private SessionOverlay overlay;
+
+    /** the configuration for the next session, reloaded whenever the config.ini changes */
+    private ConfigWatcher configWatcher;
+
+    /** accepts position streams on a local socket [if enabled] */
+    private SocketIngestServer socketServer;
 
 
 
@@ -39,8 +87,30 @@ public class StepLoggerService extends Service {
         super.onCreate();
         Log.d(LOG_TAG, "onCreate()");
 
-        // load the configuration
+        // load the configuration and keep it up to date
+        final Config configuration = new Config();
         configuration.load();
+        configWatcher = new ConfigWatcher(configuration);
+
+        starterThread = new HandlerThread("SessionStarter");
+        starterThread.start();
+        starter = new Handler(starterThread.getLooper());
+
+        // repair the folders a killed process left behind, once, before any session of this process is opened
+        starter.post(new Runnable() {
+            @Override public void run() {recoverInterruptedSessions(configuration);}
+        });
+
+        // optional streaming endpoint next to the binder interface
+        if (configuration.getBoolean(AppSettings.CFG_SOCKET_ENABLED, AppSettings.DEFAULT_SOCKET_ENABLED)) {
+            final String name = configuration.get(AppSettings.CFG_SOCKET_NAME, AppSettings.DEFAULT_SOCKET_NAME);
+            try {
+                socketServer = new SocketIngestServer(this, name,
+                        configuration.get(AppSettings.CFG_SOCKET_ALLOW, AppSettings.DEFAULT_SOCKET_ALLOW));
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "could not listen on local socket " + name + ": " + e.getMessage());
+            }
+        }
 
     }
 
@@ -53,36 +123,210 @@ public class StepLoggerService extends Service {
 
     }
 
-    /** start a new logging-session be changing the current log-file-directory */
+    /** start a new logging-session for the default session by changing the current log-file-directory [any thread] */
     public void startNewLog(final String uid) {
+        requestSession(DEFAULT_SESSION_ID, uid);
+    }
 
-        // ensure everything is clean
-        logSessionCleanup();
+    /**
+     * start [or restart] the session with the given id, writing into [timestamp]_[folderSuffix] [any thread].
+     * positions for the id are buffered from now on. the files are opened on the starter thread,
+     * then the session is shown on the main thread
+     */
+    private void requestSession(final String id, final String folderSuffix) {
+        // no file I/O here: the latest configuration the watcher loaded. a change it missed applies to the next session
+        final SessionInput input = new SessionInput(id, configWatcher.get());
+        configWatcher.requestRefresh();
+        final SessionInput previous = starting.put(id, input);
+        if (previous != null) {previous.close();}
+        starter.post(new Runnable() {
+            @Override public void run() {openSession(input, folderSuffix);}
+        });
+    }
+
+    /** I/O phase of a session start: check the plan, create the folder and open the files. starter thread only */
+    private void openSession(final SessionInput input, final String folderSuffix) {
+
+        // a newer request or a stop for the same id replaced this one before anything was created
+        if (starting.get(input.getId()) != input) {return;}
+
+        final Config configuration = input.getConfiguration();
+
+        // the first session of a walk needs the plan. check it before creating anything
+        final WaypointPlan plan;
+        try {
+            plan = configuration.getWaypointPlan();
+        } catch (IllegalArgumentException e) {
+            abortSession(input, "invalid waypoint plan\n" + e.getMessage());
+            return;
+        }
+
+        // create the folder to log the current session to. it must be new: two sessions never share a folder
+        final String dirName = getTimestampString() + (folderSuffix.length() > 0 ? "_" + folderSuffix : "");
+        final File logFileDir = createSessionDir(new File(configuration.getLogFilesFolder()), dirName);
+        if (logFileDir == null) {
+            abortSession(input, "could not create a folder for " + dirName + " within " + configuration.getLogFilesFolder());
+            return;
+        }
+
+        // create the new logging session. its writer thread starts draining the buffered positions
+        openDirs.add(logFileDir);
+        final LoggingSession session;
+        try {
+            session = new LoggingSession(this, input, logFileDir);
+        } catch (IOException e) {
+            // leave nothing behind that recovery or the catalog would take for a session
+            new File(logFileDir, AppSettings.LOG_SESSION_OPEN).delete();
+            logFileDir.delete();
+            openDirs.remove(logFileDir);
+            abortSession(input, "could not open the log files within " + logFileDir + ": " + e.getMessage());
+            return;
+        }
+
+        mainHandler.post(new Runnable() {
+            @Override public void run() {showSession(session, plan);}
+        });
+
+    }
+
+    /**
+     * create a new, empty session folder named dirName within the given folder, or dirName_2, dirName_3, ... if that exists
+     * [a restart within the same second, or ids with the same folder suffix]. null if none could be created. starter thread only
+     */
+    private static File createSessionDir(final File logFolder, final String dirName) {
+        for (int n = 1; n <= MAX_DIR_ATTEMPTS; ++n) {
+            final File dir = new File(logFolder, (n == 1) ? dirName : dirName + "_" + n);
+            if (!openDirs.contains(dir) && dir.mkdirs()) {return dir;}
+            if (!dir.exists()) {return null;}
+        }
+        return null;
+    }
+
+    /** UI phase of a session start: replace the previous session of the id and show the overlay. main thread only */
+    private void showSession(final LoggingSession session, final WaypointPlan plan) {
+
+        // a newer request or a stop for the same id cancelled this one while the files were opened
+        final String id = session.getId();
+        if (starting.get(id) != session.getInput()) {
+            destroySession(session);
+            return;
+        }
+
+        // the previous session of the id got no positions since the request, they went into the new one
+        final LoggingSession previous = sessions.remove(id);
+        if (previous != null) {destroySession(previous);}
+        removeOverlayIfIdle();
+
+        // the first session of a walk creates the overlay view. later sessions join the walk and its plan
+        if (overlay == null) {
+            WindowManager wm = (WindowManager) getSystemService(WINDOW_SERVICE);
+            LayoutInflater inflater = (LayoutInflater) getSystemService(LAYOUT_INFLATER_SERVICE);
+            overlay = new SessionOverlay(wm, inflater, plan,
+                    session.getInput().getConfiguration().getInt(AppSettings.CFG_OVERLAY_REFRESH_RATE, AppSettings.DEFAULT_OVERLAY_REFRESH_RATE),
+                    overlayListener);
+        }
+
+        // activate before leaving the starting state, so positions always find the session
+        sessions.put(id, session);
+        starting.remove(id, session.getInput());
+        session.onShown(overlay);
+        Toast.makeText(overlay.getContext(), "new logging session\n" + session.getLogFileDir(), Toast.LENGTH_LONG).show();
+
+    }
+
+    /** give up starting the session of the given input, its buffered positions are dropped [any thread] */
+    private void abortSession(final SessionInput input, final String message) {
+        Log.e(LOG_TAG, message);
+        starting.remove(input.getId(), input);
+        input.close();
+        mainHandler.post(new Runnable() {
+            @Override public void run() {Toast.makeText(StepLoggerService.this, message, Toast.LENGTH_LONG).show();}
+        });
+    }
 
-        // get the folder to log the current session to
-        final String dirName = getTimestampString() + (uid.length() > 0 ? "_" + uid : "");
-        final File logFileDir = new File(configuration.getLogFilesFolder(), dirName);
-        if (!logFileDir.exists()) {logFileDir.mkdirs();}
+    /**
+     * repair the folders of all sessions that were not closed properly [the process was killed].
+     * once per service start, on the starter thread: sessions of this process never need it
+     */
+    private void recoverInterruptedSessions(final Config configuration) {
+        final File[] dirs = new File(configuration.getLogFilesFolder()).listFiles();
+        if (dirs == null) {return;}
+        for (final File dir : dirs) {
+            if (!dir.isDirectory() || !LoggingSession.needsRecovery(dir) || openDirs.contains(dir)) {continue;}
+            try {
+                LoggingSession.recover(dir);
+                new MediaScanNotifier(this, 0, dir).scanNow();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "could not recover " + dir + ": " + e.getMessage());
+            }
+        }
+    }
 
-        // create the new logging session [this will also create the overlay view]
-        WindowManager wm = (WindowManager) getSystemService(WINDOW_SERVICE);
-        LayoutInflater inflater = (LayoutInflater) getSystemService(LAYOUT_INFLATER_SERVICE);
-        logSession = new LoggingSession(this, logFileDir, wm, inflater, configuration);
+    /** stop the session with the given id [if active or being started]. main thread only */
+    private void stopSession(final String id) {
+        final LoggingSession session = detachSession(id);
+        if (session != null) {destroySession(session);}
+        removeOverlayIfIdle();
+    }
 
+    /**
+     * take the session with the given id out of service: positions for the id are dropped from now on,
+     * a start in progress is cancelled. returns the active session, whose files are still to be closed [any thread]
+     */
+    private LoggingSession detachSession(final String id) {
+        final SessionInput input = starting.remove(id);
+        if (input != null) {input.close();}
+        return sessions.remove(id);
     }
 
-    /** called from the logSession when logging is complete [all waypoints processed] */
+    /**
+     * close the files of the given session and add it to the catalog once they are closed. main thread only, does not wait.
+     * [the catalog is updated by the session's writer thread: the starter thread is gone if the service is being destroyed]
+     */
+    private void destroySession(final LoggingSession session) {
+        final Context appContext = getApplicationContext();
+        session.destroy(new Runnable() {
+            @Override public void run() {
+                // the session's writer thread: the folder is finished
+                openDirs.remove(session.getLogFileDir());
+                updateCatalog(appContext, session.getLogFileDir().getParentFile());
+            }
+        });
+    }
+
+    /** bring the catalog of all sessions within the given log folder up to date. any thread, one at a time */
+    private static void updateCatalog(final Context ctx, final File logFolder) {
+        synchronized (catalogLock) {
+            try {
+                final SessionCatalog catalog = SessionCatalog.update(logFolder);
+                Log.d(LOG_TAG, "catalog: " + catalog.getEntries().size() + " sessions, " + catalog.getNumIndexesRead() + " indexes read");
+                new MediaScanNotifier(ctx, 0, new File(logFolder, AppSettings.LOG_CATALOG)).scanNow();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "could not update the catalog of " + logFolder + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /** the overlay is only shown while at least one session is active */
+    private void removeOverlayIfIdle() {
+        if (overlay != null && sessions.isEmpty()) {
+            overlay.destroy();
+            overlay = null;
+        }
+    }
+
+    /** called when logging is complete [all waypoints processed] */
     protected void onLogDone() {
-        logSession.destroy();
-        logSession = null;
+        final StringBuilder sb = new StringBuilder("logging complete!");
+        for (final LoggingSession session : sessions.values()) {sb.append('\n').append(session.getLogFileDir());}
+        Toast.makeText(overlay.getContext(), sb.toString(), Toast.LENGTH_LONG).show();
+        logSessionCleanup();
     }
 
-    /** cleanup any active logging session */
+    /** cleanup all active logging sessions and cancel those being started */
     private void logSessionCleanup() {
-        if (logSession != null) {
-            logSession.destroy();
-            logSession = null;
-        }
+        for (final String id : starting.keySet()) {stopSession(id);}
+        for (final String id : sessions.keySet()) {stopSession(id);}
     }
 
     @Override
@@ -90,11 +334,67 @@ public class StepLoggerService extends Service {
 
         // service cleanup. also remove the overlay view
         Log.d(LOG_TAG, "onDestroy()");
+        if (socketServer != null) {
+            socketServer.stop();
+            socketServer = null;
+        }
+        configWatcher.stop();
         logSessionCleanup();
+        starterThread.quitSafely();
         super.onDestroy();
 
     }
 
+    /** connects the shared overlay with all active sessions. called on the main thread */
+    private final SessionOverlay.Listener overlayListener = new SessionOverlay.Listener() {
+
+        @Override
+        public boolean onWaypoint(String line, String label) {
+            // the walk proceeds if at least one session saved the waypoint
+            boolean saved = false;
+            for (final LoggingSession session : sessions.values()) {
+                saved |= session.logWaypoint(line);
+            }
+            return saved;
+        }
+
+        @Override
+        public String getInfoText() {
+            final StringBuilder sb = new StringBuilder();
+            final boolean detailed = sessions.size() == 1;
+            for (final LoggingSession session : sessions.values()) {
+                if (sb.length() > 0) {sb.append('\n');}
+                session.appendInfo(sb, detailed);
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public void onWalkComplete() {
+            onLogDone();
+        }
+
+    };
+
+    /** the active session with the given id, or null [any thread] */
+    LoggingSession getSession(final String id) {
+        return (id == null) ? null : sessions.get(id);
+    }
+
+    /** where positions for the given session id go: the buffer of the session being started, else the active session. null if neither [any thread] */
+    SessionInput getInput(final String id) {
+        if (id == null) {return null;}
+        final SessionInput input = starting.get(id);
+        if (input != null) {return input;}
+        final LoggingSession session = sessions.get(id);
+        return (session == null) ? null : session.getInput();
+    }
+
+    /** a file-system friendly version of the given session id */
+    private static String toFolderSuffix(final String id) {
+        return id.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
 
 
     /** the service-interface implementation */
@@ -102,29 +402,123 @@ public class StepLoggerService extends Service {
 
         @Override
         public void logPosition(long timestamp, double x, double y, double z) throws RemoteException {
+            logPositionTo(DEFAULT_SESSION_ID, timestamp, x, y, z);
+        }
+
+        @Override
+        public void logPositions(long[] timestamps, double[] x, double[] y, double[] z) {
+            logPositionsTo(DEFAULT_SESSION_ID, timestamps, x, y, z);
+        }
+
+        @Override
+        public void startNewSession(final String uid) {
+
+            // positions are buffered from now on, the files are opened in the background
+            startNewLog(uid);
+
+        }
+
+        @Override
+        public LoggerMetrics getMetrics() {
+            return getSessionMetrics(DEFAULT_SESSION_ID);
+        }
+
+        @Override
+        public void startSession(final String sessionId) {
+
+            if (sessionId == null || sessionId.isEmpty()) {
+                Log.e(LOG_TAG, "startSession: the session id is missing");
+                return;
+            }
+
+            // synchronous call: the session's input is registered before the client gets to send positions
+            requestSession(sessionId, toFolderSuffix(sessionId));
+
+        }
+
+        @Override
+        public void stopSession(final String sessionId) {
+
+            if (sessionId == null || sessionId.isEmpty()) {
+                Log.e(LOG_TAG, "stopSession: the session id is missing");
+                return;
+            }
+
+            // the id is released before returning, closing the files and the overlay is up to the main thread
+            final LoggingSession session = detachSession(sessionId);
+            mainHandler.post(new Runnable() {
+                @Override public void run() {
+                    if (session != null) {destroySession(session);}
+                    removeOverlayIfIdle();
+                }
+            });
+
+        }
+
+        @Override
+        public void logPositionTo(String sessionId, long timestamp, double x, double y, double z) {
 
             // the client app sent its current location estimation -> log it to file
-            Log.d(LOG_TAG, "Set logPosition: " + timestamp + ", " + x + ", " + y + ", " + z);
+            // [debug builds only: the string concatenation allocates on every call]
+            if (BuildConfig.DEBUG) {Log.d(LOG_TAG, "Set logPosition: " + sessionId + ", " + timestamp + ", " + x + ", " + y + ", " + z);}
 
-            // if there is currently an active session, pass it the position data!
-            if (logSession != null) {
-                logSession.logPosition(timestamp, x, y, z);
+            // if there is currently an active session [or one being started], pass it the position data!
+            final SessionInput input = getInput(sessionId);
+            if (input != null) {
+                input.logPosition(timestamp, x, y, z);
             }
             else {
-                Log.d(LOG_TAG, "logSession == null");
+                Log.d(LOG_TAG, "no session " + sessionId);
             }
 
         }
 
         @Override
-        public void startNewSession(final String uid) {
+        public void logPositionsTo(String sessionId, long[] timestamps, double[] x, double[] y, double[] z) {
 
-            Handler mainHandler = new Handler(Looper.getMainLooper());
+            // one-way call: the client does not wait for us, errors can only be logged
+            if (timestamps == null || x == null || y == null || z == null ||
+                    x.length != timestamps.length || y.length != timestamps.length || z.length != timestamps.length) {
+                Log.e(LOG_TAG, "logPositions: arrays are missing or differ in length");
+                return;
+            }
+
+            final SessionInput input = getInput(sessionId);
+            if (input != null) {
+                input.logPositions(timestamps, x, y, z);
+            }
+            else {
+                Log.d(LOG_TAG, "no session " + sessionId);
+            }
+
+        }
 
-            Runnable myRunnable = new Runnable() {
-                @Override public void run() {startNewLog(uid);}
-            };
-            mainHandler.post(myRunnable);
+        @Override
+        public RingBufferHandle openRingBuffer(String sessionId, int capacity) {
+
+            final LoggingSession session = getSession(sessionId);
+            if (session == null) {
+                Log.d(LOG_TAG, "no session " + sessionId);
+                return null;
+            }
+            return session.openRingBuffer(capacity);
+
+        }
+
+        @Override
+        public LoggerMetrics getSessionMetrics(String sessionId) {
+
+            // binder thread: all values are read without blocking the writer thread.
+            // a session being started reports its buffer, where the positions for the id go meanwhile
+            final LoggerMetrics metrics = new LoggerMetrics();
+            final SessionInput input = (sessionId == null) ? null : starting.get(sessionId);
+            if (input != null) {
+                input.fillMetrics(metrics);
+                return metrics;
+            }
+            final LoggingSession session = getSession(sessionId);
+            if (session != null) {session.fillMetrics(metrics);}
+            return metrics;
 
         }
 
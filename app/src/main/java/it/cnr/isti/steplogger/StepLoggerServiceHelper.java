@@ -4,17 +4,32 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.os.Build;
 import android.os.IBinder;
 
+import it.cnr.isti.steplogger.core.PositionBatcher;
+
 /**
  * starts the StepLoggerService
  * and provides a convenience method to advice the service to start a new logging session
+ *
+ * positions can either be sent one by one [logPosition] or collected and sent
+ * in one-way batches [logPositionBatched], which is much cheaper for high-rate clients
  */
 public class StepLoggerServiceHelper {
 
+    /** default batching: send after 20 positions or when the oldest one is 1 second old */
+    public static final int DEFAULT_BATCH_RECORDS = 20;
+    public static final long DEFAULT_BATCH_AGE_MS = 1000;
+
     private IStepLoggerService mService;
     private final Context ctx;
 
+    /** collects positions for logPositionBatched. created on first use */
+    private PositionBatcher batcher;
+    private int batchRecords = DEFAULT_BATCH_RECORDS;
+    private long batchAgeMs = DEFAULT_BATCH_AGE_MS;
+
     /** ctor */
     public StepLoggerServiceHelper(final Context ctx) {
         this.ctx = ctx;
@@ -36,6 +51,123 @@ public class StepLoggerServiceHelper {
         }
     }
 
+    /** send one position to the service [one blocking binder call] */
+    public void logPosition(final long timestamp, final double x, final double y, final double z) {
+        try {
+            mService.logPosition(timestamp, x, y, z);
+        } catch (final Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** start [or restart] a session with the given id that runs next to all other sessions */
+    public void startSession(final String sessionId) {
+        try {
+            mService.startSession(sessionId);
+        } catch (final Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** stop the session with the given id */
+    public void stopSession(final String sessionId) {
+        try {
+            mService.stopSession(sessionId);
+        } catch (final Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** send one position to the session with the given id [one blocking binder call] */
+    public void logPositionTo(final String sessionId, final long timestamp, final double x, final double y, final double z) {
+        try {
+            mService.logPositionTo(sessionId, timestamp, x, y, z);
+        } catch (final Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** send a batch of positions [same-length arrays] to the session with the given id [does not block] */
+    public void logPositionsTo(final String sessionId, final long[] timestamps, final double[] x, final double[] y, final double[] z) {
+        try {
+            mService.logPositionsTo(sessionId, timestamps, x, y, z);
+        } catch (final Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * open a shared-memory ring buffer into the session with the given id [API 27+].
+     * returns null if the service could not provide one. the caller must close() the producer
+     */
+    public RingBufferProducer openRingBuffer(final String sessionId, final int capacity) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O_MR1) {return null;}
+        try {
+            final RingBufferHandle handle = mService.openRingBuffer(sessionId, capacity);
+            return (handle == null) ? null : new RingBufferProducer(handle);
+        } catch (final Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /** query the ingestion metrics of the session with the given id. null if the service is not reachable */
+    public LoggerMetrics getSessionMetrics(final String sessionId) {
+        try {
+            return mService.getSessionMetrics(sessionId);
+        } catch (final Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /** query the service's current ingestion metrics. null if the service is not reachable */
+    public LoggerMetrics getMetrics() {
+        try {
+            return mService.getMetrics();
+        } catch (final Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /** change when batched positions are sent. sends everything collected so far */
+    public synchronized void setBatchPolicy(final int maxRecords, final long maxAgeMs) {
+        if (batcher != null) {
+            batcher.close();
+            batcher = null;
+        }
+        batchRecords = maxRecords;
+        batchAgeMs = maxAgeMs;
+    }
+
+    /** collect one position and send it to the service within the next batch */
+    public void logPositionBatched(final long timestamp, final double x, final double y, final double z) {
+        getBatcher().add(timestamp, x, y, z);
+    }
+
+    /** send all positions collected by logPositionBatched now */
+    public void flushPositions() {
+        final PositionBatcher b;
+        synchronized (this) {b = batcher;}
+        if (b != null) {b.flush();}
+    }
+
+    private synchronized PositionBatcher getBatcher() {
+        if (batcher == null) {
+            batcher = new PositionBatcher(new PositionBatcher.Sink() {
+                @Override public void send(long[] timestamps, double[] x, double[] y, double[] z) {
+                    try {
+                        mService.logPositions(timestamps, x, y, z);
+                    } catch (final Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            }, batchRecords, batchAgeMs);
+        }
+        return batcher;
+    }
+
 
 
 
@@ -66,8 +198,14 @@ public class StepLoggerServiceHelper {
 
     }
 
-    /** cleanup */
+    /** cleanup. sends the pending batch before unbinding */
     void doUnbindService() {
+        synchronized (this) {
+            if (batcher != null) {
+                batcher.close();
+                batcher = null;
+            }
+        }
         ctx.unbindService(mConnection);
     }
 
@@ -0,0 +1,279 @@
+package it.cnr.isti.steplogger.core;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * statistics about the arrival of position updates over a sliding time window:
+ * update rate, inter-arrival jitter, min/max/median/p99 interval
+ * and gaps [intervals longer than the update deadline of the AIDL contract],
+ * plus the same values over the whole session [for the session summary].
+ *
+ * an arrival is one delivery: a single position, a batch or a drained ring buffer. intervals, gaps and missed deadlines
+ * are measured between deliveries [a client batching 10 positions every second has 1000 ms intervals],
+ * the rates and totals count positions.
+ *
+ * the window is kept within a preallocated ring buffer of primitives,
+ * so memory is constant no matter how long the session runs.
+ *
+ * onArrival() is called by the binder threads for every delivery and never locks:
+ * each arrival claims a ring slot with an atomic counter and publishes it with the slot's sequence number,
+ * the whole-session values are atomic counters. snapshot() copies the published slots of the window
+ * and sorts only its copy [it locks against other snapshots, never against arrivals].
+ * all methods are thread-safe.
+ */
+public class ArrivalStats {
+
+    /** a consistent set of values, filled by snapshot() */
+    public static class Snapshot {
+        /** positions received since the session started */
+        public long numTotal;
+        /** deliveries since the session started [the intervals are measured between them] */
+        public long numArrivals;
+        /** positions received within the window */
+        public long numWindow;
+        /** positions per second within the window */
+        public double rateHz;
+        /** mean and standard deviation [jitter] of the intervals within the window [ms] */
+        public double meanIntervalMs;
+        public double jitterMs;
+        /** interval distribution within the window [ms] */
+        public double minIntervalMs;
+        public double maxIntervalMs;
+        public double p50IntervalMs;
+        public double p99IntervalMs;
+        /** intervals between deliveries longer than the deadline since the session started */
+        public long numGaps;
+        /** the number of deadlines missed within those gaps */
+        public long numMissedDeadlines;
+        /** the longest interval since the session started [ms] */
+        public double maxGapMs;
+        /** positions per second from the first to the last arrival of the session */
+        public double sessionRateHz;
+        /** mean, standard deviation, minimum and percentiles of all intervals of the session [ms, percentiles ~3%] */
+        public double sessionMeanIntervalMs;
+        public double sessionJitterMs;
+        public double sessionMinIntervalMs;
+        public double sessionP50IntervalMs;
+        public double sessionP99IntervalMs;
+    }
+
+    private static final double NS_PER_MS = 1000000.0;
+
+    /** length of the sliding window [ns] */
+    private final long windowNanos;
+
+    /** intervals longer than this are gaps [ns] */
+    private final long deadlineNanos;
+
+    /** arrival times [ns] and the number of positions per arrival [batched calls deliver several] */
+    private final int capacity;
+    private final AtomicLongArray arrivals;
+    private final AtomicIntegerArray counts;
+
+    /** per slot: the sequence number + 1 of the arrival within it, 0 while it is being written */
+    private final AtomicLongArray published;
+
+    /** the number of arrivals so far, the next arrival's sequence number */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /** whole session */
+    private final LongAdder numTotal = new LongAdder();
+    private final AtomicLong firstArrival = new AtomicLong(-1);
+    private final AtomicLong lastArrival = new AtomicLong(-1);
+    private volatile int firstCount = 0;
+    private final LongAdder numIntervals = new LongAdder();
+    private final LongAdder sumIntervalNanos = new LongAdder();
+    private final DoubleAdder sumSqIntervalNanos = new DoubleAdder();
+    private final AtomicLong minIntervalNanos = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maxGapNanos = new AtomicLong();
+    private final LongAdder numGaps = new LongAdder();
+    private final LongAdder numMissedDeadlines = new LongAdder();
+
+    /** all intervals of the session [us], bucketed like {@link LatencyHistogram} */
+    private final AtomicLongArray intervalHistogram = new AtomicLongArray(LatencyHistogram.NUM_BUCKETS);
+
+    /** snapshot() only: copies of the window's arrival times and intervals, sorted there, and of the histogram */
+    private final long[] scratchArrivals;
+    private final long[] scratchIntervals;
+    private final long[] scratchHistogram = new long[LatencyHistogram.NUM_BUCKETS];
+
+
+    /** ctor. the window holds at most capacity arrivals, older ones are dropped even if they are within windowMs */
+    public ArrivalStats(final long windowMs, final long deadlineMs, final int capacity) {
+        if (windowMs <= 0) {throw new IllegalArgumentException("stats window must be > 0 ms: " + windowMs);}
+        if (deadlineMs <= 0) {throw new IllegalArgumentException("stats deadline must be > 0 ms: " + deadlineMs);}
+        if (capacity <= 0) {throw new IllegalArgumentException("capacity must be > 0: " + capacity);}
+        this.windowNanos = windowMs * 1000000L;
+        this.deadlineNanos = deadlineMs * 1000000L;
+        this.capacity = capacity;
+        this.arrivals = new AtomicLongArray(capacity);
+        this.counts = new AtomicIntegerArray(capacity);
+        this.published = new AtomicLongArray(capacity);
+        this.scratchArrivals = new long[capacity];
+        this.scratchIntervals = new long[capacity];
+    }
+
+    /** numPositions positions arrived at the given monotonic time [ns, e.g. System.nanoTime()]. lock-free */
+    public void onArrival(final long nowNanos, final int numPositions) {
+
+        numTotal.add(numPositions);
+
+        final long prev = lastArrival.getAndSet(nowNanos);
+        if (prev < 0) {
+            if (firstArrival.compareAndSet(-1, nowNanos)) {firstCount = numPositions;}
+        } else {
+            // concurrent binder threads may take their timestamps in a different order than they get here
+            final long interval = Math.max(0, nowNanos - prev);
+            numIntervals.increment();
+            sumIntervalNanos.add(interval);
+            sumSqIntervalNanos.add((double) interval * interval);
+            intervalHistogram.incrementAndGet(LatencyHistogram.bucketOf(interval / 1000));
+            updateMin(minIntervalNanos, interval);
+            updateMax(maxGapNanos, interval);
+            if (interval > deadlineNanos) {
+                numGaps.increment();
+                numMissedDeadlines.add(interval / deadlineNanos);
+            }
+        }
+
+        final long seq = sequence.getAndIncrement();
+        final int idx = (int) (seq % capacity);
+        published.set(idx, 0);
+        arrivals.set(idx, nowNanos);
+        counts.set(idx, numPositions);
+        published.set(idx, seq + 1);
+
+    }
+
+    private static void updateMin(final AtomicLong min, final long value) {
+        long cur;
+        while (value < (cur = min.get()) && !min.compareAndSet(cur, value)) {}
+    }
+
+    private static void updateMax(final AtomicLong max, final long value) {
+        long cur;
+        while (value > (cur = max.get()) && !max.compareAndSet(cur, value)) {}
+    }
+
+    /** the number of positions received since the session started */
+    public long getCount() {
+        return numTotal.sum();
+    }
+
+    /** fill the given snapshot with the statistics of the window ending at the given time [ns] and of the whole session */
+    public synchronized void snapshot(final long nowNanos, final Snapshot out) {
+
+        fillSession(out);
+
+        // copy the published arrivals within the window. a slot that is rewritten meanwhile is skipped
+        final long end = sequence.get();
+        int size = 0;
+        long numWindow = 0;
+        long earliest = Long.MAX_VALUE;
+        int earliestCount = 0;
+        for (long seq = Math.max(0, end - capacity); seq < end; ++seq) {
+            final int idx = (int) (seq % capacity);
+            if (published.get(idx) != seq + 1) {continue;}
+            final long arrival = arrivals.get(idx);
+            final int count = counts.get(idx);
+            if (published.get(idx) != seq + 1 || nowNanos - arrival > windowNanos) {continue;}
+            scratchArrivals[size++] = arrival;
+            numWindow += count;
+            if (arrival < earliest) {
+                earliest = arrival;
+                earliestCount = count;
+            }
+        }
+        out.numWindow = numWindow;
+
+        final int numIntervals = size - 1;
+        if (numIntervals <= 0) {
+            out.rateHz = 0;
+            out.meanIntervalMs = out.jitterMs = 0;
+            out.minIntervalMs = out.maxIntervalMs = out.p50IntervalMs = out.p99IntervalMs = 0;
+            return;
+        }
+
+        Arrays.sort(scratchArrivals, 0, size);
+        double sum = 0;
+        double sumSq = 0;
+        for (int i = 0; i < numIntervals; ++i) {
+            final long interval = scratchArrivals[i + 1] - scratchArrivals[i];
+            scratchIntervals[i] = interval;
+            sum += interval;
+            sumSq += (double) interval * interval;
+        }
+        final double mean = sum / numIntervals;
+        final double variance = Math.max(0, sumSq / numIntervals - mean * mean);
+
+        // positions delivered after the first arrival, over the time they took
+        final long span = scratchArrivals[size - 1] - scratchArrivals[0];
+        out.rateHz = (span > 0) ? (numWindow - earliestCount) * 1e9 / span : 0;
+
+        Arrays.sort(scratchIntervals, 0, numIntervals);
+        out.meanIntervalMs = mean / NS_PER_MS;
+        out.jitterMs = Math.sqrt(variance) / NS_PER_MS;
+        out.minIntervalMs = scratchIntervals[0] / NS_PER_MS;
+        out.maxIntervalMs = scratchIntervals[numIntervals - 1] / NS_PER_MS;
+        out.p50IntervalMs = scratchIntervals[percentileIndex(numIntervals, 0.50)] / NS_PER_MS;
+        out.p99IntervalMs = scratchIntervals[percentileIndex(numIntervals, 0.99)] / NS_PER_MS;
+
+    }
+
+    /** the whole-session values. must hold the lock [scratch] */
+    private void fillSession(final Snapshot out) {
+
+        out.numTotal = numTotal.sum();
+        out.numArrivals = sequence.get();
+        out.numGaps = numGaps.sum();
+        out.numMissedDeadlines = numMissedDeadlines.sum();
+        out.maxGapMs = maxGapNanos.get() / NS_PER_MS;
+
+        final long first = firstArrival.get();
+        final long span = lastArrival.get() - first;
+        out.sessionRateHz = (first >= 0 && span > 0) ? (out.numTotal - firstCount) * 1e9 / span : 0;
+
+        final long num = numIntervals.sum();
+        if (num == 0) {
+            out.sessionMeanIntervalMs = out.sessionJitterMs = out.sessionMinIntervalMs = 0;
+            out.sessionP50IntervalMs = out.sessionP99IntervalMs = 0;
+            return;
+        }
+        final double mean = (double) sumIntervalNanos.sum() / num;
+        out.sessionMeanIntervalMs = mean / NS_PER_MS;
+        out.sessionJitterMs = Math.sqrt(Math.max(0, sumSqIntervalNanos.sum() / num - mean * mean)) / NS_PER_MS;
+        out.sessionMinIntervalMs = minIntervalNanos.get() / NS_PER_MS;
+
+        long count = 0;
+        for (int i = 0; i < scratchHistogram.length; ++i) {
+            scratchHistogram[i] = intervalHistogram.get(i);
+            count += scratchHistogram[i];
+        }
+        out.sessionP50IntervalMs = histogramPercentileUs(count, 0.50) / 1000.0;
+        out.sessionP99IntervalMs = histogramPercentileUs(count, 0.99) / 1000.0;
+
+    }
+
+    /** the given percentile of the copied histogram holding count intervals [us] */
+    private long histogramPercentileUs(final long count, final double p) {
+        final long rank = Math.max(1, (long) Math.ceil(p * count));
+        long seen = 0;
+        for (int i = 0; i < scratchHistogram.length; ++i) {
+            seen += scratchHistogram[i];
+            if (seen >= rank) {return LatencyHistogram.valueOf(i);}
+        }
+        return 0;
+    }
+
+    /** nearest-rank percentile */
+    private static int percentileIndex(final int num, final double p) {
+        final int rank = (int) Math.ceil(p * num);
+        return Math.min(num - 1, Math.max(0, rank - 1));
+    }
+
+}
@@ -0,0 +1,65 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.IOException;
+
+/**
+ * splits the client's time axis into buckets of bucketMs and persists one position per bucket:
+ * the mean of all positions within the bucket. the persisted client timestamp is the mean
+ * of the bucket's client timestamps, the receive times are those of the bucket's last position.
+ */
+public class AveragingDownsampler implements Downsampler {
+
+    private final long bucketMs;
+
+    private long bucket;
+    private int num = 0;
+    private double sumX;
+    private double sumY;
+    private double sumZ;
+    private long baseTS;
+    private long sumDeltaTS;
+    private long lastReceiveTS;
+    private long lastReceiveNanos;
+
+    /** ctor */
+    public AveragingDownsampler(final long bucketMs) {
+        if (bucketMs <= 0) {throw new IllegalArgumentException("bucket length must be > 0: " + bucketMs);}
+        this.bucketMs = bucketMs;
+    }
+
+    @Override
+    public void offer(final long receiveTS, final long clientTS, final long receiveNanos, final double x, final double y, final double z, final Output out) throws IOException {
+
+        final long b = Math.floorDiv(clientTS, bucketMs);
+        if (num > 0 && b != bucket) {finish(out);}
+
+        if (num == 0) {
+            bucket = b;
+            baseTS = clientTS;
+            sumDeltaTS = 0;
+            sumX = sumY = sumZ = 0;
+        }
+        ++num;
+        sumX += x;
+        sumY += y;
+        sumZ += z;
+        sumDeltaTS += clientTS - baseTS;
+        lastReceiveTS = receiveTS;
+        lastReceiveNanos = receiveNanos;
+
+    }
+
+    @Override
+    public void finish(final Output out) throws IOException {
+        if (num == 0) {return;}
+        final int n = num;
+        num = 0;
+        out.emit(lastReceiveTS, baseTS + sumDeltaTS / n, lastReceiveNanos, sumX / n, sumY / n, sumZ / n);
+    }
+
+    @Override
+    public String describe() {
+        return "average over " + bucketMs + " ms";
+    }
+
+}
@@ -0,0 +1,82 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * writes positions as fixed-width binary records, see {@link BinaryPositionFormat}.
+ * optionally adds a CRC32 trailer after every block of records.
+ */
+public class BinaryPositionEncoder implements PositionEncoder {
+
+    /** records per checksum block, 0 = no checksums */
+    private final int blockRecords;
+
+    private final byte[] buf = new byte[Math.max(BinaryPositionFormat.HEADER_SIZE, BinaryPositionFormat.RECORD_SIZE)];
+    private final ByteBuffer bb = ByteBuffer.wrap(buf);
+    private final CRC32 crc = new CRC32();
+
+    /** records within the current checksum block */
+    private int numInBlock = 0;
+
+
+    /** ctor. blockRecords is the number of records per checksum block, 0 disables checksums */
+    public BinaryPositionEncoder(final int blockRecords) {
+        if (blockRecords < 0) {throw new IllegalArgumentException("blockRecords must be >= 0: " + blockRecords);}
+        this.blockRecords = blockRecords;
+    }
+
+    @Override
+    public void writeHeader(final LogSink out) throws IOException {
+        bb.clear();
+        bb.putInt(BinaryPositionFormat.MAGIC);
+        bb.putShort(BinaryPositionFormat.VERSION);
+        bb.putShort(blockRecords > 0 ? BinaryPositionFormat.FLAG_CHECKSUM : 0);
+        bb.putInt(blockRecords);
+        out.write(buf, 0, BinaryPositionFormat.HEADER_SIZE);
+    }
+
+    @Override
+    public void encode(final long receiveTS, final long clientTS, final long receiveNanos, final double x, final double y, final double z, final LogSink out) throws IOException {
+        bb.clear();
+        bb.putLong(receiveTS);
+        bb.putDouble(x);
+        bb.putDouble(y);
+        bb.putDouble(z);
+        bb.putLong(clientTS);
+        bb.putLong(receiveNanos);
+        out.writeRecord(receiveTS, buf, 0, BinaryPositionFormat.RECORD_SIZE);
+
+        if (blockRecords > 0) {
+            crc.update(buf, 0, BinaryPositionFormat.RECORD_SIZE);
+            if (++numInBlock == blockRecords) {writeTrailer(out);}
+        }
+    }
+
+    @Override
+    public void flushIfDue(final LogSink out) {
+        // every record is written immediately. a trailer is only written once its block is full
+    }
+
+    @Override
+    public void flush(final LogSink out) {
+        // every record is written immediately. the trailer is not needed to read them
+    }
+
+    @Override
+    public void finish(final LogSink out) throws IOException {
+        if (numInBlock > 0) {writeTrailer(out);}
+    }
+
+    private void writeTrailer(final LogSink out) throws IOException {
+        bb.clear();
+        bb.putInt(BinaryPositionFormat.BLOCK_MARKER);
+        bb.putInt(numInBlock);
+        bb.putInt((int) crc.getValue());
+        out.write(buf, 0, BinaryPositionFormat.TRAILER_SIZE);
+        crc.reset();
+        numInBlock = 0;
+    }
+
+}
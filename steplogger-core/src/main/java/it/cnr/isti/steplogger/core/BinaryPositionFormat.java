@@ -0,0 +1,43 @@
+package it.cnr.isti.steplogger.core;
+
+/**
+ * layout of the binary position log [positions.bin]. all values are big-endian.
+ *
+ * header [12 bytes]
+ *   int     MAGIC ["SLPB"]
+ *   short   VERSION
+ *   short   flags [FLAG_CHECKSUM]
+ *   int     records per checksum block [0 if FLAG_CHECKSUM is not set]
+ *
+ * record [48 bytes, version 2]
+ *   long    timestamp [wall-clock receive time, ms]
+ *   double  x, y, z
+ *   long    timestamp sent by the client
+ *   long    monotonic receive time since boot [ns]
+ *
+ * version 1 records [32 bytes] end after z.
+ *
+ * if FLAG_CHECKSUM is set, every block of records is followed by a trailer.
+ * the last block may be shorter [e.g. when the session ends]. a missing last
+ * trailer means the session was not closed properly.
+ *
+ * trailer [12 bytes]
+ *   int     BLOCK_MARKER ["CKSM", can not be the high half of a sane ms-timestamp]
+ *   int     number of records within the block
+ *   int     CRC32 over all record bytes of the block
+ */
+public final class BinaryPositionFormat {
+
+    public static final int MAGIC = 0x534C5042;
+    public static final short VERSION = 2;
+    public static final short FLAG_CHECKSUM = 0x0001;
+    public static final int BLOCK_MARKER = 0x434B534D;
+
+    public static final int HEADER_SIZE = 12;
+    public static final int RECORD_SIZE = 48;
+    public static final int RECORD_SIZE_V1 = 32;
+    public static final int TRAILER_SIZE = 12;
+
+    private BinaryPositionFormat() {}
+
+}
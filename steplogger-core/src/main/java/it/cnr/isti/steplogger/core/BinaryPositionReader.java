@@ -0,0 +1,169 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * reads a binary position log [see {@link BinaryPositionFormat}] record by record
+ * and verifies the block checksums, if present.
+ *
+ * a torn last record [the writer was killed mid-record] ends the stream and is reported by isTruncated()
+ *
+ * reads version 1 [no client timestamps] and version 2 files
+ *
+ * the records may also start in the middle of a checksum block [e.g. after seeking within a
+ * compressed log, with the file header put in front]: the first trailer is then skipped unverified.
+ */
+public class BinaryPositionReader implements PositionReader {
+
+    private final InputStream in;
+
+    private final int version;
+    private final int recordSize;
+    private final boolean checksums;
+    private final int blockRecords;
+
+    private final byte[] buf = new byte[BinaryPositionFormat.RECORD_SIZE];
+    private final ByteBuffer bb = ByteBuffer.wrap(buf);
+    private final CRC32 crc = new CRC32();
+
+    private int numInBlock = 0;
+    private long numRecords = 0;
+    private boolean truncated = false;
+
+    /** the records start within a checksum block: do not verify the first trailer */
+    private boolean resync;
+
+    private long timestamp;
+    private double x;
+    private double y;
+    private double z;
+    private long clientTimestamp;
+    private long receiveNanos;
+
+
+    /** ctor. reads and checks the file header */
+    public BinaryPositionReader(final InputStream in) throws IOException {
+        this(in, false);
+    }
+
+    /** ctor. reads and checks the file header. with midBlock, the records after it may start within a checksum block */
+    public BinaryPositionReader(final InputStream in, final boolean midBlock) throws IOException {
+        this.in = new BufferedInputStream(in);
+        this.resync = midBlock;
+        if (readFully(buf, BinaryPositionFormat.HEADER_SIZE) != BinaryPositionFormat.HEADER_SIZE) {
+            throw new IOException("not a binary position log: file too short");
+        }
+        bb.clear();
+        if (bb.getInt() != BinaryPositionFormat.MAGIC) {throw new IOException("not a binary position log: bad magic");}
+        version = bb.getShort();
+        if (version == 1) {
+            recordSize = BinaryPositionFormat.RECORD_SIZE_V1;
+        } else if (version == BinaryPositionFormat.VERSION) {
+            recordSize = BinaryPositionFormat.RECORD_SIZE;
+        } else {
+            throw new IOException("unsupported binary position log version: " + version);
+        }
+        checksums = (bb.getShort() & BinaryPositionFormat.FLAG_CHECKSUM) != 0;
+        blockRecords = bb.getInt();
+    }
+
+    /**
+     * advance to the next record.
+     * @return false at the end of the log
+     * @throws IOException on read errors and checksum mismatches
+     */
+    public boolean next() throws IOException {
+
+        while (true) {
+
+            final int head = readFully(buf, 4);
+            if (head == 0) {return false;}
+            if (head < 4) {truncated = true; return false;}
+            bb.clear();
+
+            if (checksums && bb.getInt(0) == BinaryPositionFormat.BLOCK_MARKER) {
+                if (readFully(buf, BinaryPositionFormat.TRAILER_SIZE - 4) != BinaryPositionFormat.TRAILER_SIZE - 4) {truncated = true; return false;}
+                final int cnt = bb.getInt(0);
+                final int sum = bb.getInt(4);
+                if (resync) {
+                    resync = false;
+                } else if (cnt != numInBlock || sum != (int) crc.getValue()) {
+                    throw new IOException("checksum mismatch within the block ending at record " + numRecords);
+                }
+                crc.reset();
+                numInBlock = 0;
+                continue;
+            }
+
+            if (readFully(buf, 4, recordSize - 4) != recordSize - 4) {truncated = true; return false;}
+            timestamp = bb.getLong();
+            x = bb.getDouble();
+            y = bb.getDouble();
+            z = bb.getDouble();
+            if (hasClientTimestamps()) {
+                clientTimestamp = bb.getLong();
+                receiveNanos = bb.getLong();
+            }
+            if (checksums) {
+                crc.update(buf, 0, recordSize);
+                if (++numInBlock > blockRecords && !resync) {throw new IOException("missing checksum trailer before record " + numRecords);}
+            }
+            ++numRecords;
+            return true;
+
+        }
+
+    }
+
+    public long getTimestamp() {return timestamp;}
+    public double getX() {return x;}
+    public double getY() {return y;}
+    public double getZ() {return z;}
+    public long getClientTimestamp() {return clientTimestamp;}
+    public long getReceiveNanos() {return receiveNanos;}
+
+    /** whether the records contain the client's timestamp and the monotonic receive time [version 2+] */
+    public boolean hasClientTimestamps() {
+        return version >= 2;
+    }
+
+    /** the number of records read so far */
+    public long getNumRecords() {
+        return numRecords;
+    }
+
+    /** whether the log ended with an incomplete record or trailer */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /** whether the records of the last block were not covered by a checksum trailer */
+    public boolean hasUnverifiedTail() {
+        return checksums && numInBlock > 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private int readFully(final byte[] dst, final int len) throws IOException {
+        return readFully(dst, 0, len);
+    }
+
+    /** read up to len bytes, returns less only at the end of the stream */
+    private int readFully(final byte[] dst, final int off, final int len) throws IOException {
+        int done = 0;
+        while (done < len) {
+            final int cnt = in.read(dst, off + done, len - done);
+            if (cnt < 0) {break;}
+            done += cnt;
+        }
+        return done;
+    }
+
+}
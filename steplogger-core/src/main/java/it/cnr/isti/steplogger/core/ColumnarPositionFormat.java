@@ -0,0 +1,70 @@
+package it.cnr.isti.steplogger.core;
+
+/**
+ * layout of the columnar position log [positions.col]. fixed-size values are big-endian.
+ *
+ * header [16 bytes]
+ *   int     MAGIC ["SLPC"]
+ *   short   VERSION
+ *   short   flags [none yet]
+ *   double  coordinate resolution [m, e.g. 0.001]
+ *
+ * the records follow in chunks of up to a few hundred records, column by column:
+ *
+ * chunk
+ *   byte    CHUNK_TAG | flags [FLAG_RESET]
+ *   varint  number of records
+ *   varint  number of payload bytes
+ *   payload receive timestamps     [ms, delta-of-delta]
+ *           client timestamps      [offset to the receive timestamp, delta]
+ *           monotonic receive time [ns, delta-of-delta]
+ *           x, y, z                [quantized to the resolution, delta]
+ *
+ * every column holds one zig-zag varint per record. deltas continue from the previous chunk,
+ * so the log must be decoded from the start. FLAG_RESET starts over [the first chunk of every writer]:
+ * the first value of each column is stored as is, the second one as delta.
+ * a zero byte where a chunk should start ends the log [the unused tail of a segment].
+ *
+ * coordinates are rounded to the nearest multiple of the resolution and must be finite [NaN is stored as 0].
+ */
+public final class ColumnarPositionFormat {
+
+    public static final int MAGIC = 0x534C5043;
+    public static final short VERSION = 1;
+
+    public static final int HEADER_SIZE = 16;
+
+    public static final int CHUNK_TAG = 0x80;
+    public static final int FLAG_RESET = 0x01;
+
+    /** the largest number of records within a chunk */
+    public static final int MAX_CHUNK_RECORDS = 4096;
+
+    /** a varint of a 64-bit value takes at most 10 bytes */
+    public static final int MAX_VARINT_SIZE = 10;
+
+    /** the number of values per record */
+    public static final int COLUMNS = 6;
+
+    private ColumnarPositionFormat() {}
+
+    /** map signed values to unsigned ones, small magnitudes to small numbers: 0, -1, 1, -2 ... -> 0, 1, 2, 3 ... */
+    public static long zigZag(final long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    public static long unZigZag(final long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /** append the given value as unsigned varint [7 bits per byte, least significant first]. returns the new position */
+    public static int putVarLong(final byte[] buf, int pos, long v) {
+        while ((v & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[pos++] = (byte) v;
+        return pos;
+    }
+
+}
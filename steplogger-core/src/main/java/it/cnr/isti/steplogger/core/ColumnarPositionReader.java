@@ -0,0 +1,219 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * streaming decoder of a columnar position log [see {@link ColumnarPositionFormat}]:
+ * decodes one chunk at a time and hands out its records one by one.
+ *
+ * a torn last chunk [the writer was killed mid-chunk] ends the stream and is reported by isTruncated()
+ */
+public class ColumnarPositionReader implements PositionReader {
+
+    private final InputStream in;
+
+    private final double resolution;
+
+    /** 1 / resolution, if that is an integer: dividing by it yields the shortest decimal representation */
+    private final double scale;
+    private final boolean exactScale;
+
+    /** the current chunk: its payload and decoded columns */
+    private byte[] payload = new byte[0];
+    private int payloadLen;
+    private int payloadPos;
+    private long[] receiveTS = new long[0];
+    private long[] clientTS = new long[0];
+    private long[] receiveNanos = new long[0];
+    private long[] qx = new long[0];
+    private long[] qy = new long[0];
+    private long[] qz = new long[0];
+    private int count = 0;
+    private int idx = 0;
+
+    /** per column: previous value and delta, continued across chunks */
+    private final long[] prev = new long[ColumnarPositionFormat.COLUMNS];
+    private final long[] prevDelta = new long[ColumnarPositionFormat.COLUMNS];
+    private long numDecoded = 0;
+
+    private long numRecords = 0;
+    private long numChunks = 0;
+    private boolean truncated = false;
+
+
+    /** ctor. reads and checks the file header */
+    public ColumnarPositionReader(final InputStream in) throws IOException {
+        this.in = new BufferedInputStream(in);
+        final byte[] header = new byte[ColumnarPositionFormat.HEADER_SIZE];
+        if (readFully(header, 0, header.length) != header.length) {throw new IOException("not a columnar position log: file too short");}
+        final ByteBuffer bb = ByteBuffer.wrap(header);
+        if (bb.getInt() != ColumnarPositionFormat.MAGIC) {throw new IOException("not a columnar position log: bad magic");}
+        final short version = bb.getShort();
+        if (version != ColumnarPositionFormat.VERSION) {throw new IOException("unsupported columnar position log version: " + version);}
+        bb.getShort();
+        resolution = bb.getDouble();
+        if (!(resolution > 0)) {throw new IOException("invalid resolution: " + resolution);}
+        scale = 1 / resolution;
+        exactScale = Math.abs(scale - Math.rint(scale)) < 1e-9 && scale < 1e15;
+    }
+
+    /** the coordinate resolution [m] */
+    public double getResolution() {
+        return resolution;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        while (idx == count) {
+            if (!readChunk()) {return false;}
+        }
+        ++idx;
+        ++numRecords;
+        return true;
+    }
+
+    @Override public long getTimestamp() {return receiveTS[idx - 1];}
+    @Override public double getX() {return coordinate(qx[idx - 1]);}
+    @Override public double getY() {return coordinate(qy[idx - 1]);}
+    @Override public double getZ() {return coordinate(qz[idx - 1]);}
+    @Override public long getClientTimestamp() {return clientTS[idx - 1];}
+    @Override public long getReceiveNanos() {return receiveNanos[idx - 1];}
+
+    @Override
+    public boolean hasClientTimestamps() {
+        return true;
+    }
+
+    @Override
+    public long getNumRecords() {
+        return numRecords;
+    }
+
+    /** the number of chunks read so far */
+    public long getNumChunks() {
+        return numChunks;
+    }
+
+    @Override
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /** chunks have no checksums */
+    @Override
+    public boolean hasUnverifiedTail() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private double coordinate(final long q) {
+        return exactScale ? q / scale : q * resolution;
+    }
+
+    /** read and decode the next chunk. false at the end of the log */
+    private boolean readChunk() throws IOException {
+
+        final int tag = in.read();
+        if (tag <= 0) {return false;}
+        if ((tag & ~ColumnarPositionFormat.FLAG_RESET) != ColumnarPositionFormat.CHUNK_TAG) {
+            throw new IOException("bad chunk tag " + tag + " after record " + numRecords);
+        }
+        final long cnt = readStreamVarLong();
+        final long len = readStreamVarLong();
+        if (cnt < 0 || len < 0) {truncated = true; return false;}
+        if (cnt == 0 || cnt > ColumnarPositionFormat.MAX_CHUNK_RECORDS || len > cnt * ColumnarPositionFormat.COLUMNS * ColumnarPositionFormat.MAX_VARINT_SIZE) {
+            throw new IOException("corrupt chunk header after record " + numRecords);
+        }
+        if (payload.length < len) {payload = new byte[(int) len];}
+        if (readFully(payload, 0, (int) len) != len) {truncated = true; return false;}
+
+        count = (int) cnt;
+        if (receiveTS.length < count) {
+            receiveTS = new long[count];
+            clientTS = new long[count];
+            receiveNanos = new long[count];
+            qx = new long[count];
+            qy = new long[count];
+            qz = new long[count];
+        }
+        if ((tag & ColumnarPositionFormat.FLAG_RESET) != 0) {numDecoded = 0;}
+        payloadLen = (int) len;
+        payloadPos = 0;
+        decodeColumn(receiveTS, 0, true, null);
+        decodeColumn(clientTS, 1, false, receiveTS);
+        decodeColumn(receiveNanos, 2, true, null);
+        decodeColumn(qx, 3, false, null);
+        decodeColumn(qy, 4, false, null);
+        decodeColumn(qz, 5, false, null);
+        if (payloadPos != len) {throw new IOException("chunk payload size mismatch after record " + numRecords);}
+        numDecoded += count;
+        idx = 0;
+        ++numChunks;
+        return true;
+
+    }
+
+    /** the inverse of ColumnarPositionEncoder.putColumn() */
+    private void decodeColumn(final long[] values, final int col, final boolean deltaOfDelta, final long[] base) throws IOException {
+        long p = (numDecoded == 0) ? 0 : prev[col];
+        long pd = (numDecoded == 0) ? 0 : prevDelta[col];
+        long n = numDecoded;
+        for (int i = 0; i < count; ++i, ++n) {
+            final long enc = ColumnarPositionFormat.unZigZag(readVarLong());
+            final long v;
+            if (n == 0) {
+                v = enc;
+            } else if (!deltaOfDelta || n == 1) {
+                v = p + enc;
+            } else {
+                v = p + pd + enc;
+            }
+            if (n > 0) {pd = v - p;}
+            p = v;
+            values[i] = (base == null) ? v : v + base[i];
+        }
+        prev[col] = p;
+        prevDelta[col] = pd;
+    }
+
+    private long readVarLong() throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (payloadPos >= payloadLen) {throw new IOException("chunk payload ends within a value");}
+            final byte b = payload[payloadPos++];
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {return v;}
+        }
+        throw new IOException("malformed varint after record " + numRecords);
+    }
+
+    /** a varint from the stream, -1 if the stream ends within it */
+    private long readStreamVarLong() throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.read();
+            if (b < 0) {return -1;}
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {return v;}
+        }
+        throw new IOException("malformed varint after record " + numRecords);
+    }
+
+    private int readFully(final byte[] buf, final int off, final int len) throws IOException {
+        int total = 0;
+        while (total < len) {
+            final int cnt = in.read(buf, off + total, len - total);
+            if (cnt < 0) {break;}
+            total += cnt;
+        }
+        return total;
+    }
+
+}
@@ -0,0 +1,55 @@
+package it.cnr.isti.steplogger.core;
+
+/**
+ * layout of a block-compressed log [positions.log.gz, positions.bin.gz].
+ *
+ * the file is a series of gzip members, one per block, so standard tools [zcat, gunzip]
+ * decompress it as a whole. every block holds complete records only and can be
+ * decompressed on its own. its gzip header carries an extra field describing the block,
+ * so the block index can be rebuilt by skipping from header to header.
+ *
+ * block [HEADER_SIZE + compressed bytes + TRAILER_SIZE]
+ *   byte[10] gzip member header: 1f 8b 08, FLG = FEXTRA, MTIME = 0, XFL = 0, OS = 255
+ *   short    XLEN = 32 [little-endian, as all gzip fields]
+ *   byte[2]  subfield id "SL"
+ *   short    subfield length = 28 [little-endian]
+ *   int      compressed bytes       [big-endian, as all steplogger fields]
+ *   int      uncompressed bytes
+ *   int      number of records
+ *   long     receive timestamp of the first record [Long.MIN_VALUE if none]
+ *   long     receive timestamp of the last record  [Long.MIN_VALUE if none]
+ *   byte[]   raw deflate data
+ *   int      CRC32 of the uncompressed bytes [little-endian]
+ *   int      uncompressed bytes [little-endian]
+ *
+ * the block index [log-file name + ".idx"] is a text file with one line per block:
+ *
+ *   offset compressedBytes uncompressedBytes records firstTS lastTS
+ *
+ * firstTS and lastTS are "-" if the block has no timestamps. lines starting with # are comments.
+ * the index is a cache: blocks missing from it [e.g. after a crash] are found by scanning the file.
+ */
+public final class CompressedLogFormat {
+
+    public static final int GZIP_ID1 = 0x1f;
+    public static final int GZIP_ID2 = 0x8b;
+    public static final int GZIP_CM_DEFLATE = 8;
+    public static final int GZIP_FLG_FEXTRA = 0x04;
+    public static final int GZIP_OS_UNKNOWN = 255;
+
+    public static final byte SUBFIELD_ID1 = 'S';
+    public static final byte SUBFIELD_ID2 = 'L';
+    public static final int SUBFIELD_SIZE = 28;
+    public static final int XLEN = 4 + SUBFIELD_SIZE;
+
+    /** offset of the subfield data within the block header */
+    public static final int SUBFIELD_OFFSET = 16;
+
+    public static final int HEADER_SIZE = SUBFIELD_OFFSET + SUBFIELD_SIZE;
+    public static final int TRAILER_SIZE = 8;
+
+    public static final String INDEX_SUFFIX = ".idx";
+
+    private CompressedLogFormat() {}
+
+}
@@ -0,0 +1,329 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * random access to a block-compressed log [see {@link CompressedLogFormat}]:
+ * finds the block holding a timestamp via the block index and decompresses from there on,
+ * without touching the blocks before it.
+ *
+ * blocks missing from the index [a crashed writer, a lost index] are found by scanning the headers.
+ * a torn last block is ignored and reported by isTruncated().
+ *
+ * standalone, prints the lines of a compressed text log within a time range:
+ *
+ *   java -cp steplogger-core.jar it.cnr.isti.steplogger.core.CompressedLogReader positions.log.gz [fromTS [toTS]]
+ *
+ * [use the PositionLogConverter for compressed binary logs]
+ */
+public class CompressedLogReader implements Closeable {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /** one block of the log, as listed by the index */
+    public static class Block {
+        public final long offset;
+        public final int compressedBytes;
+        public final int uncompressedBytes;
+        public final int records;
+        public final long firstTS;
+        public final long lastTS;
+
+        /** ctor */
+        public Block(final long offset, final int compressedBytes, final int uncompressedBytes, final int records, final long firstTS, final long lastTS) {
+            this.offset = offset;
+            this.compressedBytes = compressedBytes;
+            this.uncompressedBytes = uncompressedBytes;
+            this.records = records;
+            this.firstTS = firstTS;
+            this.lastTS = lastTS;
+        }
+
+        /** where the next block starts */
+        public long end() {
+            return offset + CompressedLogFormat.HEADER_SIZE + compressedBytes + CompressedLogFormat.TRAILER_SIZE;
+        }
+    }
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final List<Block> blocks = new ArrayList<>();
+
+    /** whether blocks had to be found by scanning [the index is incomplete] */
+    private boolean scanned = false;
+
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private byte[] compressed = new byte[0];
+
+
+    /** ctor. reads the block index and scans the file for blocks it does not list */
+    public CompressedLogReader(final File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "r");
+        try {
+            readIndex();
+            scan();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /** all complete blocks, in file order */
+    public List<Block> getBlocks() {
+        return Collections.unmodifiableList(blocks);
+    }
+
+    /** where the last complete block ends */
+    public long getValidLength() {
+        return blocks.isEmpty() ? 0 : blocks.get(blocks.size() - 1).end();
+    }
+
+    /** whether the file continues after its last complete block [a torn block] */
+    public boolean isTruncated() throws IOException {
+        return raf.length() > getValidLength();
+    }
+
+    /** whether the index was incomplete and blocks were found by scanning */
+    public boolean isIndexIncomplete() {
+        return scanned;
+    }
+
+    /**
+     * the first block that may hold a record with the given [or a later] timestamp:
+     * the first one whose last timestamp is not older. getBlocks().size() if there is none
+     */
+    public int findBlock(final long timestamp) {
+        for (int i = 0; i < blocks.size(); ++i) {
+            final Block b = blocks.get(i);
+            if (b.lastTS != LogSink.NO_TIMESTAMP && b.lastTS >= timestamp) {return i;}
+        }
+        return blocks.size();
+    }
+
+    /** decompress the given block. throws an IOException if it is corrupt */
+    public byte[] readBlock(final int idx) throws IOException {
+
+        final Block b = blocks.get(idx);
+        final int len = b.compressedBytes + CompressedLogFormat.TRAILER_SIZE;
+        if (compressed.length < len) {compressed = new byte[len];}
+        raf.seek(b.offset + CompressedLogFormat.HEADER_SIZE);
+        raf.readFully(compressed, 0, len);
+
+        final byte[] data = new byte[b.uncompressedBytes];
+        inflater.reset();
+        // the trailer follows the deflate data: the inflater stops before it
+        inflater.setInput(compressed, 0, len);
+        try {
+            int cnt = 0;
+            while (cnt < data.length && !inflater.finished()) {
+                final int n = inflater.inflate(data, cnt, data.length - cnt);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {break;}
+                cnt += n;
+            }
+            if (cnt != data.length) {throw new IOException("block at " + b.offset + " is shorter than " + data.length + " bytes");}
+        } catch (DataFormatException e) {
+            throw new IOException("block at " + b.offset + " is corrupt: " + e.getMessage());
+        }
+
+        crc.reset();
+        crc.update(data, 0, data.length);
+        final int expected = ByteBuffer.wrap(compressed, b.compressedBytes, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        if (expected != (int) crc.getValue()) {throw new IOException("checksum mismatch within the block at " + b.offset);}
+        return data;
+
+    }
+
+    /** the decompressed content from the start of the given block to the end of the log */
+    public InputStream openFrom(final int idx) {
+        return new InputStream() {
+            private int next = idx;
+            private byte[] data = new byte[0];
+            private int pos = 0;
+
+            @Override
+            public int read() throws IOException {
+                if (!fill()) {return -1;}
+                return data[pos++] & 0xFF;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                if (len == 0) {return 0;}
+                if (!fill()) {return -1;}
+                final int cnt = Math.min(len, data.length - pos);
+                System.arraycopy(data, pos, b, off, cnt);
+                pos += cnt;
+                return cnt;
+            }
+
+            private boolean fill() throws IOException {
+                while (pos == data.length) {
+                    if (next >= blocks.size()) {return false;}
+                    data = readBlock(next++);
+                    pos = 0;
+                }
+                return true;
+            }
+        };
+    }
+
+    /** rewrite the block index from the blocks found [e.g. after a crash] */
+    public void writeIndex() throws IOException {
+        final File indexFile = CompressedLogWriter.getIndexFile(file);
+        final File tmp = new File(indexFile.getPath() + ".tmp");
+        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), CHARSET))) {
+            bw.write("# offset compressedBytes uncompressedBytes records firstTS lastTS\n");
+            for (final Block b : blocks) {
+                bw.write(b.offset + " " + b.compressedBytes + " " + b.uncompressedBytes + " " + b.records + " "
+                        + formatTS(b.firstTS) + " " + formatTS(b.lastTS) + "\n");
+            }
+        }
+        if (!tmp.renameTo(indexFile)) {throw new IOException("could not replace " + indexFile);}
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        raf.close();
+    }
+
+    /** take all index entries that describe consecutive blocks within the file */
+    private void readIndex() throws IOException {
+        final File indexFile = CompressedLogWriter.getIndexFile(file);
+        if (!indexFile.exists()) {return;}
+        final long length = raf.length();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), CHARSET))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {continue;}
+                final String[] parts = line.split("\\s+");
+                final Block b;
+                try {
+                    if (parts.length != 6) {return;}
+                    b = new Block(Long.parseLong(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+                            Integer.parseInt(parts[3]), parseTS(parts[4]), parseTS(parts[5]));
+                } catch (NumberFormatException e) {
+                    // a torn last line
+                    return;
+                }
+                if (b.offset != getValidLength() || b.end() > length) {return;}
+                blocks.add(b);
+            }
+        }
+    }
+
+    /** find the blocks after the last indexed one by their headers */
+    private void scan() throws IOException {
+        final byte[] header = new byte[CompressedLogFormat.HEADER_SIZE];
+        final long length = raf.length();
+        long pos = getValidLength();
+        while (pos + CompressedLogFormat.HEADER_SIZE <= length) {
+            raf.seek(pos);
+            raf.readFully(header);
+            final Block b = parseHeader(header, pos);
+            if (b == null || b.end() > length) {return;}
+            blocks.add(b);
+            scanned = true;
+            pos = b.end();
+        }
+    }
+
+    /** the block described by the given header, null if it is not a valid block header */
+    private static Block parseHeader(final byte[] header, final long offset) {
+        final ByteBuffer bb = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+        if ((bb.get(0) & 0xFF) != CompressedLogFormat.GZIP_ID1 || (bb.get(1) & 0xFF) != CompressedLogFormat.GZIP_ID2
+                || bb.get(2) != CompressedLogFormat.GZIP_CM_DEFLATE || bb.get(3) != CompressedLogFormat.GZIP_FLG_FEXTRA
+                || bb.getShort(10) != CompressedLogFormat.XLEN
+                || bb.get(12) != CompressedLogFormat.SUBFIELD_ID1 || bb.get(13) != CompressedLogFormat.SUBFIELD_ID2
+                || bb.getShort(14) != CompressedLogFormat.SUBFIELD_SIZE) {
+            return null;
+        }
+        bb.order(ByteOrder.BIG_ENDIAN).position(CompressedLogFormat.SUBFIELD_OFFSET);
+        final int compressedBytes = bb.getInt();
+        final int uncompressedBytes = bb.getInt();
+        final int records = bb.getInt();
+        if (compressedBytes < 0 || uncompressedBytes < 0 || records < 0) {return null;}
+        return new Block(offset, compressedBytes, uncompressedBytes, records, bb.getLong(), bb.getLong());
+    }
+
+    static long parseTS(final String str) {
+        return str.equals("-") ? LogSink.NO_TIMESTAMP : Long.parseLong(str);
+    }
+
+    static String formatTS(final long ts) {
+        return (ts == LogSink.NO_TIMESTAMP) ? "-" : String.valueOf(ts);
+    }
+
+    public static void main(final String[] args) throws IOException {
+
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("usage: CompressedLogReader <positions.log.gz> [<fromTS> [<toTS>]]");
+            System.exit(1);
+        }
+        final long fromTS = (args.length > 1) ? Long.parseLong(args[1]) : Long.MIN_VALUE;
+        final long toTS = (args.length > 2) ? Long.parseLong(args[2]) : Long.MAX_VALUE;
+
+        final CompressedLogReader reader = new CompressedLogReader(new File(args[0]));
+        final OutputStream out = new BufferedOutputStream(System.out);
+        try {
+            final int magic = reader.getBlocks().isEmpty() ? 0 : ByteBuffer.wrap(reader.readBlock(0)).getInt(0);
+            if (magic == BinaryPositionFormat.MAGIC || magic == ColumnarPositionFormat.MAGIC) {
+                System.err.println(args[0] + " is a binary log, use the PositionLogConverter");
+                System.exit(1);
+            }
+            final int first = reader.findBlock(fromTS);
+            System.err.println("skipping " + first + " of " + reader.getBlocks().size() + " blocks");
+            for (int i = first; i < reader.getBlocks().size(); ++i) {
+                if (reader.getBlocks().get(i).firstTS != LogSink.NO_TIMESTAMP && reader.getBlocks().get(i).firstTS > toTS) {break;}
+                final byte[] data = reader.readBlock(i);
+                int start = 0;
+                for (int end = 0; end < data.length; ++end) {
+                    if (data[end] != '\n') {continue;}
+                    final long ts = parseLeadingNumber(data, start, end);
+                    if (ts == LogSink.NO_TIMESTAMP || (ts >= fromTS && ts <= toTS)) {out.write(data, start, end + 1 - start);}
+                    start = end + 1;
+                }
+            }
+            if (reader.isTruncated()) {System.err.println("warning: " + args[0] + " ends with an incomplete block");}
+        } finally {
+            out.flush();
+            reader.close();
+        }
+
+    }
+
+    /** the number the given line starts with [followed by a blank], NO_TIMESTAMP if there is none */
+    private static long parseLeadingNumber(final byte[] data, final int start, final int end) {
+        long value = 0;
+        int i = start;
+        while (i < end && i - start < 18 && data[i] >= '0' && data[i] <= '9') {
+            value = value * 10 + (data[i++] - '0');
+        }
+        return (i > start && i < end && data[i] == ' ') ? value : LogSink.NO_TIMESTAMP;
+    }
+
+}
@@ -0,0 +1,302 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * one block-compressed log-file of a logging session, see {@link CompressedLogFormat}.
+ *
+ * records are collected within an uncompressed block. once the block reaches the block size, it is
+ * compressed and appended to the file, together with its line within the block index.
+ * a block is also finished [shorter] when the {@link FlushPolicy}'s interval elapses, on a waypoint,
+ * on every sync of the {@link DurabilityPolicy}, and on close.
+ * the policies' record-count criteria are ignored: blocks of a few records would not compress.
+ * for the same reason RECORD durability is clamped to one sync per block [whenever a block is finished]:
+ * a gzip member per record would be larger than the plain log.
+ *
+ * compression happens within writeRecord() and flushIfDue(). waypoints only request the block
+ * to be finished [or synced], the next flushIfDue() does it. so the thread that owns the writer
+ * [the writer thread] is the only one that compresses.
+ *
+ * may be used from several threads.
+ */
+public class CompressedLogWriter implements LogSink {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private final File file;
+    private final File indexFile;
+    private final int blockSize;
+    private final FlushPolicy policy;
+    private final DurabilityPolicy durability;
+
+    /** RECORD durability: sync whenever a block is finished, instead of after every record */
+    private final boolean syncBlocks;
+
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+
+    /** the block being collected */
+    private byte[] block;
+    private int blockLen = 0;
+    private int blockRecords = 0;
+    private long blockFirstTS = NO_TIMESTAMP;
+    private long blockLastTS = NO_TIMESTAMP;
+
+    /** header, compressed data and trailer of the block being written */
+    private byte[] out;
+
+    /** the log-file and the index. null after close() */
+    private FileOutputStream fos;
+    private Writer index;
+
+    /** where the next block starts */
+    private long offset;
+
+    /** compressed and uncompressed bytes written since the file was opened */
+    private long bytesWritten = 0;
+    private long uncompressedBytes = 0;
+
+    private long lastFlushTS = System.currentTimeMillis();
+    private int unsyncedRecords = 0;
+    private long lastSyncTS = lastFlushTS;
+    private long numSyncs = 0;
+
+    /** set by onWaypoint(), performed by the next flushIfDue() */
+    private boolean blockRequested = false;
+    private boolean syncRequested = false;
+
+
+    /**
+     * ctor. opens the given file [and its index] for appending.
+     * blockSize is the uncompressed size of a block [bytes], level the deflate level [1..9, or -1 for the default]
+     */
+    public CompressedLogWriter(final File file, final int blockSize, final int level, final FlushPolicy policy, final DurabilityPolicy durability) throws IOException {
+        if (blockSize <= 0) {throw new IllegalArgumentException("block size must be > 0: " + blockSize);}
+        this.file = file;
+        this.indexFile = getIndexFile(file);
+        this.blockSize = blockSize;
+        this.policy = policy;
+        this.durability = durability;
+        this.syncBlocks = durability.mode == DurabilityPolicy.Mode.RECORD;
+        this.deflater = new Deflater(level, true);
+        this.block = new byte[blockSize + 256];
+        this.out = new byte[CompressedLogFormat.HEADER_SIZE + blockSize + blockSize / 8 + 64 + CompressedLogFormat.TRAILER_SIZE];
+        final boolean newIndex = !indexFile.exists();
+        this.fos = new FileOutputStream(file, true);
+        this.offset = file.length();
+        try {
+            this.index = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indexFile, true), CHARSET));
+            if (newIndex) {index.write("# offset compressedBytes uncompressedBytes records firstTS lastTS\n");}
+        } catch (IOException e) {
+            fos.close();
+            deflater.end();
+            throw e;
+        }
+    }
+
+    /** the block index of the given compressed log */
+    public static File getIndexFile(final File file) {
+        return new File(file.getPath() + CompressedLogFormat.INDEX_SUFFIX);
+    }
+
+    @Override
+    public File getFile() {
+        return file;
+    }
+
+    /** the number of compressed bytes written to the file. grows block by block */
+    @Override
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /** the number of bytes given to this writer so far [including the block being collected] */
+    public synchronized long getUncompressedBytes() {
+        return uncompressedBytes + blockLen;
+    }
+
+    @Override
+    public synchronized void writeRecord(final String record) throws IOException {
+        final byte[] bytes = record.getBytes(CHARSET);
+        writeRecord(NO_TIMESTAMP, bytes, 0, bytes.length);
+    }
+
+    /** collect one record. finishes the block when it is full, or the policies say so */
+    @Override
+    public synchronized void writeRecord(final long timestamp, final byte[] buf, final int off, final int len) throws IOException {
+        write(buf, off, len);
+        ++blockRecords;
+        ++unsyncedRecords;
+        if (timestamp != NO_TIMESTAMP) {
+            if (blockFirstTS == NO_TIMESTAMP) {blockFirstTS = timestamp;}
+            blockLastTS = timestamp;
+        }
+        final long now = System.currentTimeMillis();
+        if (isSyncDue(now)) {
+            sync();
+        } else if (blockLen >= blockSize || isBlockDue(now)) {
+            endBlock();
+        }
+    }
+
+    /** collect bytes that are not a record [file headers, checksums]. never finishes the block */
+    @Override
+    public synchronized void write(final byte[] buf, final int off, final int len) throws IOException {
+        ensureOpen();
+        if (blockLen + len > block.length) {
+            final byte[] larger = new byte[Math.max(block.length * 2, blockLen + len)];
+            System.arraycopy(block, 0, larger, 0, blockLen);
+            block = larger;
+        }
+        System.arraycopy(buf, off, block, blockLen, len);
+        blockLen += len;
+    }
+
+    /** perform a requested [or due] block end or sync */
+    @Override
+    public synchronized void flushIfDue() throws IOException {
+        if (fos == null) {return;}
+        final long now = System.currentTimeMillis();
+        if (syncRequested || isSyncDue(now)) {
+            sync();
+        } else if (blockRequested || isBlockDue(now)) {
+            endBlock();
+        }
+    }
+
+    /** request the block to be finished [or synced] by the next flushIfDue(), if the policies say so */
+    @Override
+    public synchronized void onWaypoint() {
+        if (durability.onWaypoint()) {
+            syncRequested = true;
+        } else if (policy.onWaypoint) {
+            blockRequested = true;
+        }
+    }
+
+    /** finish the current block */
+    @Override
+    public synchronized void flush() throws IOException {
+        ensureOpen();
+        finishBlock();
+        index.flush();
+    }
+
+    /**
+     * finish the current block and force the file onto the storage device.
+     * the index is only flushed: it can be rebuilt from the file
+     */
+    @Override
+    public synchronized void sync() throws IOException {
+        flush();
+        fos.getChannel().force(false);
+        unsyncedRecords = 0;
+        lastSyncTS = System.currentTimeMillis();
+        syncRequested = false;
+        ++numSyncs;
+    }
+
+    @Override
+    public synchronized long getNumSyncs() {
+        return numSyncs;
+    }
+
+    /** finish the current block [and sync, if the durability policy says so] and close the file */
+    @Override
+    public synchronized void close() throws IOException {
+        if (fos == null) {return;}
+        try {
+            if (durability.onClose()) {sync();} else {flush();}
+        } finally {
+            try {
+                index.close();
+            } finally {
+                fos.close();
+                fos = null;
+                index = null;
+                deflater.end();
+            }
+        }
+    }
+
+    /** whether the durability policy asks for a sync apart from finished blocks */
+    private boolean isSyncDue(final long now) {
+        return !syncBlocks && durability.shouldSync(unsyncedRecords, now - lastSyncTS);
+    }
+
+    /** finish the current block, and sync it with RECORD durability */
+    private void endBlock() throws IOException {
+        if (syncBlocks) {sync();} else {finishBlock();}
+    }
+
+    private boolean isBlockDue(final long now) {
+        return blockRecords > 0 && policy.maxIntervalMs > 0 && now - lastFlushTS >= policy.maxIntervalMs;
+    }
+
+    /** compress the collected block and append it to the file and the index */
+    private void finishBlock() throws IOException {
+
+        lastFlushTS = System.currentTimeMillis();
+        blockRequested = false;
+        if (blockLen == 0) {return;}
+
+        crc.reset();
+        crc.update(block, 0, blockLen);
+        deflater.reset();
+        deflater.setInput(block, 0, blockLen);
+        deflater.finish();
+        int clen = 0;
+        while (!deflater.finished()) {
+            final int room = out.length - CompressedLogFormat.HEADER_SIZE - CompressedLogFormat.TRAILER_SIZE - clen;
+            if (room == 0) {
+                final byte[] larger = new byte[out.length * 2];
+                System.arraycopy(out, 0, larger, 0, CompressedLogFormat.HEADER_SIZE + clen);
+                out = larger;
+                continue;
+            }
+            clen += deflater.deflate(out, CompressedLogFormat.HEADER_SIZE + clen, room);
+        }
+
+        final ByteBuffer bb = ByteBuffer.wrap(out).order(ByteOrder.LITTLE_ENDIAN);
+        bb.put((byte) CompressedLogFormat.GZIP_ID1).put((byte) CompressedLogFormat.GZIP_ID2);
+        bb.put((byte) CompressedLogFormat.GZIP_CM_DEFLATE).put((byte) CompressedLogFormat.GZIP_FLG_FEXTRA);
+        bb.putInt(0).put((byte) 0).put((byte) CompressedLogFormat.GZIP_OS_UNKNOWN);
+        bb.putShort((short) CompressedLogFormat.XLEN);
+        bb.put(CompressedLogFormat.SUBFIELD_ID1).put(CompressedLogFormat.SUBFIELD_ID2);
+        bb.putShort((short) CompressedLogFormat.SUBFIELD_SIZE);
+        bb.order(ByteOrder.BIG_ENDIAN);
+        bb.putInt(clen).putInt(blockLen).putInt(blockRecords).putLong(blockFirstTS).putLong(blockLastTS);
+        bb.order(ByteOrder.LITTLE_ENDIAN);
+        bb.position(CompressedLogFormat.HEADER_SIZE + clen);
+        bb.putInt((int) crc.getValue()).putInt(blockLen);
+
+        final int total = CompressedLogFormat.HEADER_SIZE + clen + CompressedLogFormat.TRAILER_SIZE;
+        fos.write(out, 0, total);
+        index.write(offset + " " + clen + " " + blockLen + " " + blockRecords + " "
+                + CompressedLogReader.formatTS(blockFirstTS) + " " + CompressedLogReader.formatTS(blockLastTS) + "\n");
+
+        offset += total;
+        bytesWritten += total;
+        uncompressedBytes += blockLen;
+        blockLen = 0;
+        blockRecords = 0;
+        blockFirstTS = NO_TIMESTAMP;
+        blockLastTS = NO_TIMESTAMP;
+
+    }
+
+    private void ensureOpen() throws IOException {
+        if (fos == null) {throw new IOException("log file already closed: " + file);}
+    }
+
+}
@@ -0,0 +1,52 @@
+package it.cnr.isti.steplogger.core;
+
+/**
+ * compares the timestamp a client attached to a position with the time the service received it.
+ *
+ * the difference [receive - client] is the delivery latency plus the offset between
+ * the client's clock and ours. the offset is estimated as the smallest difference seen
+ * [the fastest delivery is assumed to take ~0 ms], latencies are reported relative to it.
+ * this works even if the client uses a completely different time base.
+ *
+ * all methods are thread-safe.
+ */
+public class DeliveryLatencyStats {
+
+    /** differences relative to the first one, keeps the histogram's precision independent of the clock offset */
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    private boolean hasBase = false;
+    private long base;
+
+
+    /** add one position, sent at clientTS [client clock, ms] and received at receiveTS [our clock, ms] */
+    public synchronized void record(final long clientTS, final long receiveTS) {
+        final long delta = receiveTS - clientTS;
+        if (!hasBase) {
+            base = delta;
+            hasBase = true;
+        }
+        histogram.record(delta - base);
+    }
+
+    /** the number of recorded positions */
+    public long getCount() {
+        return histogram.getCount();
+    }
+
+    /** the estimated offset between the client's clock and ours [ms, smallest receive - client difference] */
+    public synchronized long getClockOffsetMs() {
+        return hasBase ? base + histogram.getMin() : 0;
+    }
+
+    /** percentile of the raw receive - client differences [ms]. equals the latency if both use the same clock */
+    public synchronized long getDeltaPercentileMs(final double p) {
+        return hasBase ? base + histogram.percentile(p) : 0;
+    }
+
+    /** percentile of the delivery latency above the estimated clock offset [ms] */
+    public synchronized long getLatencyPercentileMs(final double p) {
+        return histogram.percentile(p) - histogram.getMin();
+    }
+
+}
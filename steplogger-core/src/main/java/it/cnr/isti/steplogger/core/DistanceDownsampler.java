@@ -0,0 +1,49 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.IOException;
+
+/**
+ * persists a position only if it is at least minDistance [m] away from the last kept one
+ */
+public class DistanceDownsampler implements Downsampler {
+
+    private final double minDistance;
+    private final double minDistanceSq;
+    private boolean hasLast = false;
+    private double lastX;
+    private double lastY;
+    private double lastZ;
+
+    /** ctor */
+    public DistanceDownsampler(final double minDistance) {
+        if (!(minDistance >= 0)) {throw new IllegalArgumentException("minimum distance must be >= 0: " + minDistance);}
+        this.minDistance = minDistance;
+        this.minDistanceSq = minDistance * minDistance;
+    }
+
+    @Override
+    public void offer(final long receiveTS, final long clientTS, final long receiveNanos, final double x, final double y, final double z, final Output out) throws IOException {
+        if (hasLast) {
+            final double dx = x - lastX;
+            final double dy = y - lastY;
+            final double dz = z - lastZ;
+            if (dx * dx + dy * dy + dz * dz < minDistanceSq) {return;}
+        }
+        hasLast = true;
+        lastX = x;
+        lastY = y;
+        lastZ = z;
+        out.emit(receiveTS, clientTS, receiveNanos, x, y, z);
+    }
+
+    @Override
+    public void finish(final Output out) {
+        // nothing pending
+    }
+
+    @Override
+    public String describe() {
+        return "distance " + minDistance + " m";
+    }
+
+}
@@ -0,0 +1,28 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.IOException;
+
+/**
+ * reduces the positions of a high-rate client before they are persisted.
+ * runs on the session's writer thread, implementations need not be thread-safe.
+ *
+ * decisions are based on the client's timestamps [ms]: they describe when a
+ * position was estimated, even if several positions arrived within one batch.
+ */
+public interface Downsampler {
+
+    /** receives the positions to persist */
+    interface Output {
+        void emit(long receiveTS, long clientTS, long receiveNanos, double x, double y, double z) throws IOException;
+    }
+
+    /** offer one received position. emits zero or more positions to persist */
+    void offer(long receiveTS, long clientTS, long receiveNanos, double x, double y, double z, Output out) throws IOException;
+
+    /** emit everything that is still pending. called once when the session ends */
+    void finish(Output out) throws IOException;
+
+    /** short description for logs and the session summary */
+    String describe();
+
+}
@@ -0,0 +1,80 @@
+package it.cnr.isti.steplogger.core;
+
+import java.util.Locale;
+
+/**
+ * describes when a {@link LogSink} forces its records onto the storage device [fsync],
+ * so they survive a killed process or a crashed device, not only a killed app:
+ * - NONE: never, the kernel writes them back eventually
+ * - PERIODIC: when the last sync is older than a given interval
+ * - WAYPOINT: whenever a waypoint is logged
+ * - RECORD: after every single record
+ *
+ * syncing always includes flushing, independent of the {@link FlushPolicy}
+ */
+public class DurabilityPolicy {
+
+    public enum Mode {
+        NONE,
+        PERIODIC,
+        WAYPOINT,
+        RECORD;
+
+        /** the name used within the config.ini, e.g. "periodic" */
+        public String configName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        /** parse the name used within the config.ini */
+        public static Mode fromConfigName(final String name) {
+            for (final Mode mode : values()) {
+                if (mode.configName().equalsIgnoreCase(name.trim())) {return mode;}
+            }
+            throw new IllegalArgumentException("unknown durability mode: " + name);
+        }
+    }
+
+    /** never sync explicitly */
+    public static final DurabilityPolicy NONE = new DurabilityPolicy(Mode.NONE, 0);
+
+    /** sync after every record */
+    public static final DurabilityPolicy RECORD = new DurabilityPolicy(Mode.RECORD, 0);
+
+    public final Mode mode;
+
+    /** PERIODIC only: sync when the last sync is older than this [ms] */
+    public final long intervalMs;
+
+    /** ctor */
+    public DurabilityPolicy(final Mode mode, final long intervalMs) {
+        if (mode == Mode.PERIODIC && intervalMs <= 0) {throw new IllegalArgumentException("sync interval must be > 0: " + intervalMs);}
+        this.mode = mode;
+        this.intervalMs = intervalMs;
+    }
+
+    /** whether a writer holding the given number of unsynced records, last synced the given ms ago, must sync now */
+    public boolean shouldSync(final int unsyncedRecords, final long msSinceSync) {
+        if (unsyncedRecords == 0) {return false;}
+        switch (mode) {
+            case RECORD:    return true;
+            case PERIODIC:  return msSinceSync >= intervalMs;
+            default:        return false;
+        }
+    }
+
+    /** whether to sync when a waypoint is logged */
+    public boolean onWaypoint() {
+        return mode == Mode.WAYPOINT;
+    }
+
+    /** whether the log is synced before it is closed */
+    public boolean onClose() {
+        return mode != Mode.NONE;
+    }
+
+    @Override
+    public String toString() {
+        return (mode == Mode.PERIODIC) ? mode.configName() + " " + intervalMs + "ms" : mode.configName();
+    }
+
+}
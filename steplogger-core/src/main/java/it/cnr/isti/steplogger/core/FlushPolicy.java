@@ -0,0 +1,44 @@
+package it.cnr.isti.steplogger.core;
+
+/**
+ * describes when a {@link SessionLogWriter} pushes its buffered records to disk:
+ * - after a given number of records
+ * - when the last flush is older than a given interval
+ * - whenever a waypoint is logged
+ *
+ * every criterion can be disabled by using 0 [or false]
+ */
+public class FlushPolicy {
+
+    /** flush after every single record [the behavior of the old open/write/close logging] */
+    public static final FlushPolicy EVERY_RECORD = new FlushPolicy(1, 0, true);
+
+    /** flush after this many records [0 = disabled] */
+    public final int maxRecords;
+
+    /** flush when the last flush is older than this [ms, 0 = disabled] */
+    public final long maxIntervalMs;
+
+    /** flush whenever a waypoint is logged */
+    public final boolean onWaypoint;
+
+    /** ctor */
+    public FlushPolicy(final int maxRecords, final long maxIntervalMs, final boolean onWaypoint) {
+        this.maxRecords = maxRecords;
+        this.maxIntervalMs = maxIntervalMs;
+        this.onWaypoint = onWaypoint;
+    }
+
+    /** whether a writer holding the given number of unflushed records, last flushed the given ms ago, must flush now */
+    public boolean shouldFlush(final int pendingRecords, final long msSinceFlush) {
+        if (pendingRecords == 0) {return false;}
+        if (maxRecords > 0 && pendingRecords >= maxRecords) {return true;}
+        return maxIntervalMs > 0 && msSinceFlush >= maxIntervalMs;
+    }
+
+    @Override
+    public String toString() {
+        return "records=" + maxRecords + " interval=" + maxIntervalMs + "ms waypoint=" + onWaypoint;
+    }
+
+}
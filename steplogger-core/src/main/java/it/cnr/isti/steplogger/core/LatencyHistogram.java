@@ -0,0 +1,115 @@
+package it.cnr.isti.steplogger.core;
+
+import java.util.Arrays;
+
+/**
+ * streaming histogram of signed long values [e.g. latencies in ms or us] with constant memory.
+ *
+ * values below 32 [in magnitude] are counted exactly, larger ones within
+ * log-linear buckets: every power of two is split into 32 sub-buckets,
+ * which bounds the relative error of a reported percentile to about 3%.
+ *
+ * all methods are thread-safe.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+
+    /** exact buckets + 32 sub-buckets for every bit position from SUB_BITS to 62 */
+    static final int NUM_BUCKETS = SUB + (63 - SUB_BITS) * SUB;
+
+    /** counts of the values >= 0 and of the magnitudes of the values < 0 */
+    private final long[] positive = new long[NUM_BUCKETS];
+    private final long[] negative = new long[NUM_BUCKETS];
+
+    private long count = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+    private double sum = 0;
+
+
+    /** add one value */
+    public synchronized void record(final long value) {
+        if (value >= 0) {
+            ++positive[bucketOf(value)];
+        } else {
+            ++negative[bucketOf(value == Long.MIN_VALUE ? Long.MAX_VALUE : -value)];
+        }
+        ++count;
+        sum += value;
+        if (value < min) {min = value;}
+        if (value > max) {max = value;}
+    }
+
+    /** the number of recorded values */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /** the smallest recorded value [0 if empty] */
+    public synchronized long getMin() {
+        return (count == 0) ? 0 : min;
+    }
+
+    /** the largest recorded value [0 if empty] */
+    public synchronized long getMax() {
+        return (count == 0) ? 0 : max;
+    }
+
+    /** the mean of all recorded values [0 if empty] */
+    public synchronized double getMean() {
+        return (count == 0) ? 0 : sum / count;
+    }
+
+    /** the value below or at which the given fraction [0..1] of all values lies [0 if empty] */
+    public synchronized long percentile(final double p) {
+
+        if (count == 0) {return 0;}
+        final long rank = Math.max(1, (long) Math.ceil(p * count));
+
+        long seen = 0;
+        for (int i = NUM_BUCKETS - 1; i >= 0; --i) {
+            seen += negative[i];
+            if (seen >= rank) {return clamp(-valueOf(i));}
+        }
+        for (int i = 0; i < NUM_BUCKETS; ++i) {
+            seen += positive[i];
+            if (seen >= rank) {return clamp(valueOf(i));}
+        }
+        return max;
+
+    }
+
+    /** forget all values */
+    public synchronized void reset() {
+        Arrays.fill(positive, 0);
+        Arrays.fill(negative, 0);
+        count = 0;
+        min = Long.MAX_VALUE;
+        max = Long.MIN_VALUE;
+        sum = 0;
+    }
+
+    /** bucket midpoints may lie outside the recorded range */
+    private long clamp(final long value) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /** the bucket for the given non-negative value */
+    static int bucketOf(final long value) {
+        if (value < SUB) {return (int) value;}
+        final int msb = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = msb - SUB_BITS;
+        return SUB + shift * SUB + (int) ((value >>> shift) - SUB);
+    }
+
+    /** the midpoint of the given bucket */
+    static long valueOf(final int bucket) {
+        if (bucket < SUB) {return bucket;}
+        final int shift = (bucket - SUB) / SUB;
+        final long lower = ((long) (SUB + (bucket - SUB) % SUB)) << shift;
+        return lower + ((1L << shift) >> 1);
+    }
+
+}
@@ -0,0 +1,300 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * repairs the logs of a session that was not closed properly [the process was killed, the device crashed]:
+ * a torn last record is cut off, so every reader sees a clean log that ends with a complete record.
+ *
+ * - text logs end after their last complete line
+ * - binary position logs [{@link BinaryPositionFormat}] end after their last complete record or trailer
+ * - columnar position logs [{@link ColumnarPositionFormat}] end after their last complete chunk
+ * - the unfinished segment of a segmented log additionally loses its preallocated zero tail,
+ *   and gets its size, record count and time range within the manifest
+ * - a compressed log ends after its last complete block, and gets a complete block index
+ *   [the records of a block that was still being collected are lost]
+ *
+ * all methods return the number of bytes that were removed.
+ */
+public final class LogRecovery {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private LogRecovery() {}
+
+    /** what a scan found: where the valid data ends, the number of complete records and their time range */
+    private static class Scan {
+        long validEnd;
+        long records;
+        long firstTS = LogSink.NO_TIMESTAMP;
+        long lastTS = LogSink.NO_TIMESTAMP;
+
+        void onRecord(final long end, final long ts) {
+            validEnd = end;
+            ++records;
+            if (ts != LogSink.NO_TIMESTAMP) {
+                if (firstTS == LogSink.NO_TIMESTAMP) {firstTS = ts;}
+                lastTS = ts;
+            }
+        }
+    }
+
+    /** cut the given text log after its last complete line */
+    public static long truncateText(final File file) throws IOException {
+        if (!file.exists()) {return 0;}
+        try (InputStream in = new FileInputStream(file)) {
+            return truncate(file, scanText(in).validEnd);
+        }
+    }
+
+    /** cut the given binary position log after its last complete record or trailer. a torn header empties the file */
+    public static long truncateBinary(final File file) throws IOException {
+        if (!file.exists()) {return 0;}
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+            final ByteBuffer header = readHeader(in);
+            if (header == null) {return truncate(file, 0);}
+            if (header.getInt(0) != BinaryPositionFormat.MAGIC) {return 0;}
+            final Scan scan = scanBinary(in, header);
+            return truncate(file, BinaryPositionFormat.HEADER_SIZE + scan.validEnd);
+        }
+    }
+
+    /** cut the given columnar position log after its last complete chunk. a torn header empties the file */
+    public static long truncateColumnar(final File file) throws IOException {
+        if (!file.exists()) {return 0;}
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+            final byte[] header = new byte[ColumnarPositionFormat.HEADER_SIZE];
+            if (readFully(in, header, 0, header.length) < header.length) {return truncate(file, 0);}
+            if (ByteBuffer.wrap(header).getInt(0) != ColumnarPositionFormat.MAGIC) {return 0;}
+            final Scan scan = scanColumnar(in, new ColumnarState());
+            return truncate(file, ColumnarPositionFormat.HEADER_SIZE + scan.validEnd);
+        }
+    }
+
+    /** finish all unfinished segments of the segmented log with the given base name, see {@link SegmentedLogWriter} */
+    public static long recoverSegments(final File dir, final String baseName) throws IOException {
+
+        final File manifestFile = SegmentedLogWriter.getManifestFile(dir, baseName);
+        if (!manifestFile.exists()) {return 0;}
+        final SegmentManifest manifest = SegmentManifest.read(manifestFile);
+        if (manifest.getSegments().isEmpty()) {return 0;}
+
+        // binary and columnar segments are only described by the header at the start of the first one
+        ByteBuffer header = null;
+        boolean columnar = false;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(new File(dir, manifest.getSegments().get(0).name)))) {
+            final ByteBuffer bb = readHeader(in);
+            if (bb != null && bb.getInt(0) == BinaryPositionFormat.MAGIC) {header = bb;}
+            columnar = bb != null && bb.getInt(0) == ColumnarPositionFormat.MAGIC;
+        }
+        // columnar deltas continue across segments: complete segments are scanned, too
+        final ColumnarState columnarState = new ColumnarState();
+
+        long removed = 0;
+        boolean first = true;
+        for (final SegmentManifest.Segment segment : manifest.getSegments()) {
+            final boolean firstSegment = first;
+            first = false;
+            if (segment.isComplete() && !columnar) {continue;}
+            final File file = new File(dir, segment.name);
+            if (!file.exists()) {
+                if (!segment.isComplete()) {segment.bytes = 0;}
+                continue;
+            }
+            final Scan scan;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+                if (columnar) {
+                    if (firstSegment) {in.skipBytes(ColumnarPositionFormat.HEADER_SIZE);}
+                    scan = scanColumnar(in, columnarState);
+                    if (firstSegment) {scan.validEnd += ColumnarPositionFormat.HEADER_SIZE;}
+                } else if (header == null) {
+                    scan = scanText(in);
+                } else {
+                    if (firstSegment) {in.skipBytes(BinaryPositionFormat.HEADER_SIZE);}
+                    scan = scanBinary(in, header);
+                    if (firstSegment) {scan.validEnd += BinaryPositionFormat.HEADER_SIZE;}
+                }
+            }
+            if (segment.isComplete()) {continue;}
+            removed += truncate(file, scan.validEnd);
+            segment.bytes = scan.validEnd;
+            segment.records = scan.records;
+            segment.firstTS = scan.firstTS;
+            segment.lastTS = scan.lastTS;
+        }
+        manifest.write(manifestFile, true);
+        return removed;
+
+    }
+
+    /** cut the given compressed log after its last complete block and rebuild its index */
+    public static long recoverCompressed(final File file) throws IOException {
+        if (!file.exists()) {return 0;}
+        final CompressedLogReader reader = new CompressedLogReader(file);
+        final long validLength;
+        try {
+            validLength = reader.getValidLength();
+            reader.writeIndex();
+        } finally {
+            reader.close();
+        }
+        return truncate(file, validLength);
+    }
+
+    /** lines end with '\n'. a line starting with a number followed by a blank provides its timestamp */
+    private static Scan scanText(final InputStream is) throws IOException {
+        final InputStream in = new BufferedInputStream(is, BUFFER_SIZE);
+        final Scan scan = new Scan();
+        long pos = 0;
+        long ts = 0;
+        int digits = 0;
+        boolean leading = true;
+        int b;
+        while ((b = in.read()) >= 0) {
+            ++pos;
+            if (b == '\n') {
+                scan.onRecord(pos, (digits > 0 && !leading) ? ts : LogSink.NO_TIMESTAMP);
+                ts = 0;
+                digits = 0;
+                leading = true;
+            } else if (leading) {
+                if (b >= '0' && b <= '9' && digits < 18) {
+                    ts = ts * 10 + (b - '0');
+                    ++digits;
+                } else {
+                    // the number ends here. only a blank makes it a timestamp
+                    leading = false;
+                    if (b != ' ') {digits = 0;}
+                }
+            }
+        }
+        return scan;
+    }
+
+    /**
+     * records and trailers as described by the given header, until the end or a torn one.
+     * a zero where the next record or trailer should start also ends the log:
+     * that is the unused tail of a segment [no sane receive timestamp starts with 4 zero bytes]
+     */
+    private static Scan scanBinary(final DataInputStream in, final ByteBuffer header) throws IOException {
+        final int version = header.getShort(4);
+        final int recordSize = (version == 1) ? BinaryPositionFormat.RECORD_SIZE_V1 : BinaryPositionFormat.RECORD_SIZE;
+        final boolean checksums = (header.getShort(6) & BinaryPositionFormat.FLAG_CHECKSUM) != 0;
+        final byte[] buf = new byte[recordSize];
+        final ByteBuffer bb = ByteBuffer.wrap(buf);
+        final Scan scan = new Scan();
+        long pos = 0;
+        while (true) {
+            if (readFully(in, buf, 0, 4) < 4) {break;}
+            final int head = bb.getInt(0);
+            if (head == 0) {break;}
+            if (checksums && head == BinaryPositionFormat.BLOCK_MARKER) {
+                if (readFully(in, buf, 4, BinaryPositionFormat.TRAILER_SIZE - 4) < BinaryPositionFormat.TRAILER_SIZE - 4) {break;}
+                pos += BinaryPositionFormat.TRAILER_SIZE;
+                scan.validEnd = pos;
+                continue;
+            }
+            if (readFully(in, buf, 4, recordSize - 4) < recordSize - 4) {break;}
+            pos += recordSize;
+            scan.onRecord(pos, bb.getLong(0));
+        }
+        return scan;
+    }
+
+    /** the receive timestamp column's decoder state, continued from chunk to chunk */
+    private static class ColumnarState {
+        long n;
+        long prev;
+        long prevDelta;
+    }
+
+    /**
+     * chunks until the end or a torn one. every chunk counts as one record with the timestamp of its last position
+     * [as the encoder writes it]. decodes the receive timestamps only
+     */
+    private static Scan scanColumnar(final DataInputStream in, final ColumnarState state) throws IOException {
+        final Scan scan = new Scan();
+        final long[] len = new long[1];
+        byte[] payload = new byte[0];
+        long pos = 0;
+        while (true) {
+            final int tag = in.read();
+            if (tag <= 0 || (tag & ~ColumnarPositionFormat.FLAG_RESET) != ColumnarPositionFormat.CHUNK_TAG) {break;}
+            final long cnt = readVarLong(in, len);
+            final int cntLen = (int) len[0];
+            final long payloadLen = readVarLong(in, len);
+            if (cnt <= 0 || cnt > ColumnarPositionFormat.MAX_CHUNK_RECORDS || payloadLen < 0
+                    || payloadLen > cnt * ColumnarPositionFormat.COLUMNS * ColumnarPositionFormat.MAX_VARINT_SIZE) {break;}
+            final int headerLen = 1 + cntLen + (int) len[0];
+            if (payload.length < payloadLen) {payload = new byte[(int) payloadLen];}
+            if (readFully(in, payload, 0, (int) payloadLen) < payloadLen) {break;}
+
+            if ((tag & ColumnarPositionFormat.FLAG_RESET) != 0) {state.n = 0;}
+            int p = 0;
+            for (int i = 0; i < cnt; ++i, ++state.n) {
+                long raw = 0;
+                for (int shift = 0; p < payloadLen; shift += 7) {
+                    final byte b = payload[p++];
+                    raw |= (long) (b & 0x7F) << shift;
+                    if (b >= 0) {break;}
+                }
+                final long enc = ColumnarPositionFormat.unZigZag(raw);
+                final long v = (state.n == 0) ? enc : (state.n == 1) ? state.prev + enc : state.prev + state.prevDelta + enc;
+                if (state.n > 0) {state.prevDelta = v - state.prev;}
+                state.prev = v;
+            }
+            pos += headerLen + payloadLen;
+            scan.onRecord(pos, state.prev);
+        }
+        return scan;
+    }
+
+    /** a varint from the stream, -1 if the stream ends within it. len[0] receives its number of bytes */
+    private static long readVarLong(final InputStream in, final long[] len) throws IOException {
+        long v = 0;
+        len[0] = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.read();
+            if (b < 0) {return -1;}
+            ++len[0];
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {return v;}
+        }
+        return -1;
+    }
+
+    /** the binary header, null if the input is too short */
+    private static ByteBuffer readHeader(final DataInputStream in) throws IOException {
+        final byte[] buf = new byte[BinaryPositionFormat.HEADER_SIZE];
+        return (readFully(in, buf, 0, buf.length) < buf.length) ? null : ByteBuffer.wrap(buf);
+    }
+
+    private static int readFully(final InputStream in, final byte[] buf, final int off, final int len) throws IOException {
+        int total = 0;
+        while (total < len) {
+            final int cnt = in.read(buf, off + total, len - total);
+            if (cnt < 0) {break;}
+            total += cnt;
+        }
+        return total;
+    }
+
+    /** cut the given file at the given length and sync it. returns the number of removed bytes */
+    private static long truncate(final File file, final long length) throws IOException {
+        final long removed = file.length() - length;
+        if (removed <= 0) {return 0;}
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+            raf.getChannel().force(true);
+        }
+        return removed;
+    }
+
+}
@@ -0,0 +1,48 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * where a session's log records end up: one buffered file [{@link SessionLogWriter}]
+ * or a series of memory-mapped segments [{@link SegmentedLogWriter}].
+ */
+public interface LogSink {
+
+    /** record timestamp for records that do not have one [e.g. waypoint lines] */
+    long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    /** the file describing this log [the log-file itself, or the manifest of a segmented log] */
+    File getFile();
+
+    /** the number of bytes written since the log was opened */
+    long getBytesWritten();
+
+    /** append one record [usually one line] and flush if the policy says so */
+    void writeRecord(String record) throws IOException;
+
+    /** append one encoded record with the given [receive] timestamp and flush if the policy says so */
+    void writeRecord(long timestamp, byte[] buf, int off, int len) throws IOException;
+
+    /** append bytes that are not a record [file headers, checksums]. never triggers a flush */
+    void write(byte[] buf, int off, int len) throws IOException;
+
+    /** flush if the policy's interval has elapsed. lets an idle writer push its last records out */
+    void flushIfDue() throws IOException;
+
+    /** a waypoint was logged within this session. flush if the policy says so */
+    void onWaypoint() throws IOException;
+
+    /** push all pending records out */
+    void flush() throws IOException;
+
+    /** push all pending records out and force them onto the storage device */
+    void sync() throws IOException;
+
+    /** the number of syncs so far [explicit or by the durability policy] */
+    long getNumSyncs();
+
+    /** flush and close the log. it can not be used afterwards */
+    void close() throws IOException;
+
+}
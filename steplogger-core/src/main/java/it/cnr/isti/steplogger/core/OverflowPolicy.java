@@ -0,0 +1,35 @@
+package it.cnr.isti.steplogger.core;
+
+import java.util.Locale;
+
+/**
+ * what a {@link PositionQueue} does with new positions when the writer can not keep up
+ */
+public enum OverflowPolicy {
+
+    /** the producer waits until there is space again [no data loss, but stalls the client] */
+    BLOCK,
+
+    /** the oldest queued position is replaced by the new one */
+    DROP_OLDEST,
+
+    /** the new position is discarded */
+    DROP_NEWEST,
+
+    /** once the queue is half full, only every n-th new position is kept. when it is full, new positions are discarded */
+    DECIMATE;
+
+    /** the name used within the config.ini, e.g. "drop-oldest" */
+    public String configName() {
+        return name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+
+    /** parse the name used within the config.ini */
+    public static OverflowPolicy fromConfigName(final String name) {
+        for (final OverflowPolicy policy : values()) {
+            if (policy.configName().equalsIgnoreCase(name.trim())) {return policy;}
+        }
+        throw new IllegalArgumentException("unknown overflow policy: " + name);
+    }
+
+}
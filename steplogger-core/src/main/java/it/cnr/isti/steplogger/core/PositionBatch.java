@@ -0,0 +1,46 @@
+package it.cnr.isti.steplogger.core;
+
+/**
+ * preallocated chunk of position records, drained from a {@link PositionQueue}
+ * and owned by the writer thread.
+ */
+public class PositionBatch {
+
+    public final long[] clientTS;
+    public final long[] receiveTS;
+    public final long[] receiveNanos;
+    public final long[] enqueueNanos;
+    public final double[] x;
+    public final double[] y;
+    public final double[] z;
+
+    /** number of valid records */
+    public int size = 0;
+
+    /** ctor */
+    public PositionBatch(final int capacity) {
+        clientTS = new long[capacity];
+        receiveTS = new long[capacity];
+        receiveNanos = new long[capacity];
+        enqueueNanos = new long[capacity];
+        x = new double[capacity];
+        y = new double[capacity];
+        z = new double[capacity];
+    }
+
+    /** the maximum number of records within this batch */
+    public int capacity() {
+        return clientTS.length;
+    }
+
+    void set(final int i, final long clientTS, final long receiveTS, final long receiveNanos, final long enqueueNanos, final double x, final double y, final double z) {
+        this.clientTS[i] = clientTS;
+        this.receiveTS[i] = receiveTS;
+        this.receiveNanos[i] = receiveNanos;
+        this.enqueueNanos[i] = enqueueNanos;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.z[i] = z;
+    }
+
+}
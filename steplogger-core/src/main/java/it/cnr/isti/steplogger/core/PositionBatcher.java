@@ -0,0 +1,104 @@
+package it.cnr.isti.steplogger.core;
+
+import java.util.Arrays;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * client-side collector for position updates that are sent to the service in batches
+ * [see IStepLoggerService.logPositions] instead of one binder transaction per position.
+ *
+ * a batch is sent as soon as it holds maxRecords positions,
+ * or when its oldest position is older than maxAgeMs.
+ */
+public class PositionBatcher {
+
+    /** receives the collected batches. the arrays are owned by the receiver */
+    public interface Sink {
+        void send(long[] timestamps, double[] x, double[] y, double[] z);
+    }
+
+    private final Sink sink;
+    private final int maxRecords;
+    private final long maxAgeMs;
+
+    private final long[] timestamps;
+    private final double[] x;
+    private final double[] y;
+    private final double[] z;
+    private int size = 0;
+
+    /** sends a batch once it gets too old. created on first use */
+    private Timer timer;
+
+    /** the pending age-flush for the current batch [if any] */
+    private TimerTask ageFlush;
+
+
+    /** ctor */
+    public PositionBatcher(final Sink sink, final int maxRecords, final long maxAgeMs) {
+        if (maxRecords <= 0) {throw new IllegalArgumentException("maxRecords must be > 0: " + maxRecords);}
+        this.sink = sink;
+        this.maxRecords = maxRecords;
+        this.maxAgeMs = maxAgeMs;
+        this.timestamps = new long[maxRecords];
+        this.x = new double[maxRecords];
+        this.y = new double[maxRecords];
+        this.z = new double[maxRecords];
+    }
+
+    /** add one position to the current batch. sends the batch if it is full */
+    public synchronized void add(final long timestamp, final double x, final double y, final double z) {
+
+        this.timestamps[size] = timestamp;
+        this.x[size] = x;
+        this.y[size] = y;
+        this.z[size] = z;
+        ++size;
+
+        if (size == maxRecords) {
+            flush();
+        } else if (size == 1 && maxAgeMs > 0) {
+            scheduleAgeFlush();
+        }
+
+    }
+
+    /** send the current batch now [if it contains anything] */
+    public synchronized void flush() {
+
+        if (ageFlush != null) {
+            ageFlush.cancel();
+            ageFlush = null;
+        }
+        if (size == 0) {return;}
+
+        final int cnt = size;
+        size = 0;
+        sink.send(Arrays.copyOf(timestamps, cnt), Arrays.copyOf(x, cnt), Arrays.copyOf(y, cnt), Arrays.copyOf(z, cnt));
+
+    }
+
+    /** send the current batch and stop the age timer */
+    public synchronized void close() {
+        flush();
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    private void scheduleAgeFlush() {
+        if (timer == null) {timer = new Timer("PositionBatcher", true);}
+        ageFlush = new TimerTask() {
+            @Override public void run() {
+                synchronized (PositionBatcher.this) {
+                    // a newer batch may have been started meanwhile, it owns a new task
+                    if (ageFlush == this) {flush();}
+                }
+            }
+        };
+        timer.schedule(ageFlush, maxAgeMs);
+    }
+
+}
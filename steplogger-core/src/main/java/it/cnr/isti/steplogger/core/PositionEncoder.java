@@ -0,0 +1,31 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.IOException;
+
+/**
+ * turns position records into the bytes of a position log-file.
+ * used by the session's writer thread only, implementations need not be thread-safe.
+ */
+public interface PositionEncoder {
+
+    /** write the file header [if the format has one]. called once for a new, empty file */
+    void writeHeader(LogSink out) throws IOException;
+
+    /**
+     * encode and write one position record
+     * @param receiveTS wall-clock time the service received the position at [ms]
+     * @param clientTS the timestamp the client attached to the position
+     * @param receiveNanos monotonic time since boot the service received the position at [ns]
+     */
+    void encode(long receiveTS, long clientTS, long receiveNanos, double x, double y, double z, LogSink out) throws IOException;
+
+    /** write records the encoder holds back, if they are held back for too long. called regularly by the writer thread */
+    void flushIfDue(LogSink out) throws IOException;
+
+    /** write all held-back records now [a waypoint flushes or syncs the log]. more records may follow */
+    void flush(LogSink out) throws IOException;
+
+    /** write everything that is still pending [e.g. a checksum]. called once before the file is closed */
+    void finish(LogSink out) throws IOException;
+
+}
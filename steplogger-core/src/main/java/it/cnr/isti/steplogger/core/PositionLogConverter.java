@@ -0,0 +1,143 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.SequenceInputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+/**
+ * standalone converter [plain java, runs on any JVM] from the binary [or columnar] position log
+ * back to the classic text layout of positions.log:
+ *
+ *   java -cp steplogger-core.jar it.cnr.isti.steplogger.core.PositionLogConverter positions.bin [positions.log] [fromTS [toTS]]
+ *
+ * without an output file [use - for stdout], the text is written to stdout.
+ * a segmented binary log is converted by passing its manifest [positions.manifest],
+ * a compressed one by passing positions.bin.gz.
+ * with a time range, only the records received within it are converted. for a compressed binary log,
+ * the blocks before the range are skipped without decompressing them [a columnar log is always
+ * decoded from its start: its deltas continue across blocks].
+ * text logs are read, too [e.g. to cut a time range out of positions.log.gz].
+ */
+public class PositionLogConverter {
+
+    public static void main(final String[] args) throws IOException {
+
+        if (args.length < 1 || args.length > 4) {
+            System.err.println("usage: PositionLogConverter <positions.bin|positions.col|positions.manifest|positions.bin.gz> [<positions.log>|-] [<fromTS> [<toTS>]]");
+            System.exit(1);
+        }
+        final long fromTS = (args.length > 2) ? Long.parseLong(args[2]) : Long.MIN_VALUE;
+        final long toTS = (args.length > 3) ? Long.parseLong(args[3]) : Long.MAX_VALUE;
+
+        final Writer out = (args.length >= 2 && !args[1].equals("-"))
+                ? new BufferedWriter(new FileWriter(new File(args[1])))
+                : new BufferedWriter(new OutputStreamWriter(System.out));
+
+        try {
+            final long cnt = convert(new File(args[0]), out, fromTS, toTS);
+            System.err.println(cnt + " records converted");
+        } finally {
+            out.close();
+        }
+
+    }
+
+    /** the reader for the position log within the given stream, depending on its magic */
+    public static PositionReader openReader(final InputStream is) throws IOException {
+        final InputStream in = new BufferedInputStream(is);
+        in.mark(4);
+        final byte[] magic = new byte[4];
+        int cnt = 0;
+        while (cnt < 4) {
+            final int n = in.read(magic, cnt, 4 - cnt);
+            if (n < 0) {break;}
+            cnt += n;
+        }
+        in.reset();
+        final int value = (cnt == 4) ? ByteBuffer.wrap(magic).getInt() : 0;
+        if (value == ColumnarPositionFormat.MAGIC) {return new ColumnarPositionReader(in);}
+        if (value == BinaryPositionFormat.MAGIC) {return new BinaryPositionReader(in);}
+        return new TextPositionReader(in);
+    }
+
+    /** open the given position log [any format: plain, segment manifest or compressed] from its first record */
+    public static PositionReader open(final File log) throws IOException {
+        if (log.getName().endsWith(".manifest")) {
+            return openReader(SegmentManifest.read(log).openConcatenated(log.getParentFile()));
+        }
+        if (log.getName().endsWith(".gz")) {
+            final CompressedLogReader compressed = new CompressedLogReader(log);
+            return openReader(new FilterInputStream(compressed.openFrom(0)) {
+                @Override public void close() throws IOException {compressed.close();}
+            });
+        }
+        return openReader(new FileInputStream(log));
+    }
+
+    /** convert the given binary log [or segment manifest, or compressed log] into text lines written to out. returns the number of records */
+    public static long convert(final File binaryLog, final Writer out) throws IOException {
+        return convert(binaryLog, out, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * convert the records of the given binary log that were received within [fromTS, toTS] into text lines written to out.
+     * stops at the first record received after toTS. returns the number of converted records
+     */
+    public static long convert(final File binaryLog, final Writer out, final long fromTS, final long toTS) throws IOException {
+
+        final PositionReader reader;
+        CompressedLogReader compressed = null;
+        if (binaryLog.getName().endsWith(".manifest")) {
+            reader = openReader(SegmentManifest.read(binaryLog).openConcatenated(binaryLog.getParentFile()));
+        } else if (binaryLog.getName().endsWith(".gz")) {
+            // start at the block holding fromTS. the file header is within the first block only
+            compressed = new CompressedLogReader(binaryLog);
+            final int first = compressed.findBlock(fromTS);
+            if (first == 0 || compressed.getBlocks().isEmpty()
+                    || ByteBuffer.wrap(compressed.readBlock(0)).getInt(0) != BinaryPositionFormat.MAGIC) {
+                reader = openReader(compressed.openFrom(0));
+            } else {
+                final InputStream header = new ByteArrayInputStream(compressed.readBlock(0), 0, BinaryPositionFormat.HEADER_SIZE);
+                reader = new BinaryPositionReader(new SequenceInputStream(header, compressed.openFrom(first)), true);
+            }
+        } else {
+            reader = openReader(new FileInputStream(binaryLog));
+        }
+        long cnt = 0;
+        boolean stopped = false;
+        try {
+            while (reader.next()) {
+                if (reader.getTimestamp() < fromTS) {continue;}
+                if (reader.getTimestamp() > toTS) {stopped = true; break;}
+                ++cnt;
+                out.write(String.valueOf(reader.getTimestamp()) + " " + reader.getX() + " " + reader.getY() + " " + reader.getZ());
+                if (reader.hasClientTimestamps()) {
+                    out.write(" " + reader.getClientTimestamp() + " " + reader.getReceiveNanos());
+                }
+                out.write("\n");
+            }
+            if (reader.isTruncated() || (compressed != null && compressed.isTruncated())) {
+                System.err.println("warning: " + binaryLog + " ends with an incomplete record");
+            }
+            if (!stopped && reader.hasUnverifiedTail()) {
+                System.err.println("warning: the last block of " + binaryLog + " has no checksum");
+            }
+            return cnt;
+        } finally {
+            reader.close();
+            if (compressed != null) {compressed.close();}
+        }
+
+    }
+
+}
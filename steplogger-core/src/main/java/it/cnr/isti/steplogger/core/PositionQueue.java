@@ -0,0 +1,321 @@
+package it.cnr.isti.steplogger.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * bounded ring-buffer of position records between the binder threads [producers]
+ * and the session's writer thread [single consumer].
+ *
+ * all storage is preallocated as primitive arrays, so enqueueing a position
+ * does not allocate anything and memory stays bounded no matter how slow the writer is.
+ * what happens when the queue is full is defined by the {@link OverflowPolicy}.
+ * the number of dropped and delayed positions is counted.
+ */
+public class PositionQueue {
+
+    /** the timestamp provided by the client */
+    private final long[] clientTS;
+
+    /** the wall-clock time the position was received at [ms] */
+    private final long[] receiveTS;
+
+    /** the monotonic time since boot the position was received at [ns, elapsedRealtimeNanos] */
+    private final long[] receiveNanos;
+
+    /** the monotonic time the position was enqueued at [ns] to measure the pipeline latency */
+    private final long[] enqueueNanos;
+
+    private final double[] x;
+    private final double[] y;
+    private final double[] z;
+
+    private final int capacity;
+
+    private final OverflowPolicy policy;
+
+    /** DECIMATE only: keep every n-th position while the queue holds at least decimateFrom [half of it, at least 1] positions */
+    private final int decimation;
+    private final int decimateFrom;
+
+    /** index of the oldest record */
+    private int head = 0;
+
+    /** number of queued records */
+    private int size = 0;
+
+    private boolean closed = false;
+
+    /** positions that were discarded because of the overflow policy */
+    private long numDropped = 0;
+
+    /** positions whose producer had to wait for free space [BLOCK] */
+    private long numDelayed = 0;
+
+    /** total time producers waited for free space [ns] */
+    private long blockedNanos = 0;
+
+    /** the highest number of queued records seen */
+    private int maxSize = 0;
+
+    /** DECIMATE: positions offered while under pressure, to pick every n-th */
+    private long numDecimateOffers = 0;
+
+    /** set by wakeUp(): the waiting consumer returns early */
+    private boolean wakeUpRequested = false;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+
+    /** ctor. a queue that blocks producers when it is full */
+    public PositionQueue(final int capacity) {
+        this(capacity, OverflowPolicy.BLOCK, 1);
+    }
+
+    /** ctor. decimation is only used by OverflowPolicy.DECIMATE */
+    public PositionQueue(final int capacity, final OverflowPolicy policy, final int decimation) {
+        if (capacity <= 0) {throw new IllegalArgumentException("capacity must be > 0: " + capacity);}
+        if (decimation <= 0) {throw new IllegalArgumentException("decimation must be > 0: " + decimation);}
+        this.capacity = capacity;
+        this.policy = policy;
+        this.decimation = decimation;
+        this.decimateFrom = Math.max(1, capacity / 2);
+        this.clientTS = new long[capacity];
+        this.receiveTS = new long[capacity];
+        this.receiveNanos = new long[capacity];
+        this.enqueueNanos = new long[capacity];
+        this.x = new double[capacity];
+        this.y = new double[capacity];
+        this.z = new double[capacity];
+    }
+
+    /**
+     * enqueue one position, applying the overflow policy if the queue is full.
+     * @return false if the queue was closed and the position was not enqueued
+     */
+    public boolean put(final long clientTS, final long receiveTS, final long receiveNanos, final double x, final double y, final double z) throws InterruptedException {
+        lock.lock();
+        try {
+            if (!makeRoom()) {return !closed;}
+            store(clientTS, receiveTS, receiveNanos, System.nanoTime(), x, y, z);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * enqueue len positions, starting at offset off of the given arrays, that were all received at receiveTS [receiveNanos].
+     * takes the lock once for the whole batch [BLOCK: once per chunk of free space].
+     * @return the number of positions that were handled [enqueued or dropped by the policy]. less than len only if the queue was closed meanwhile
+     */
+    public int putAll(final long[] clientTS, final long receiveTS, final long receiveNanos, final double[] x, final double[] y, final double[] z, final int off, final int len) throws InterruptedException {
+        int done = 0;
+        lock.lock();
+        try {
+            final long now = System.nanoTime();
+            while (done < len) {
+                if (makeRoom()) {
+                    final int src = off + done;
+                    store(clientTS[src], receiveTS, receiveNanos, now, x[src], y[src], z[src]);
+                    notEmpty.signal();
+                } else if (closed) {
+                    break;
+                }
+                ++done;
+            }
+            return done;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * ensure there is space for one more position according to the policy. must hold the lock.
+     * @return false if the new position must not be stored [dropped or closed]
+     */
+    private boolean makeRoom() throws InterruptedException {
+
+        if (closed) {return false;}
+
+        switch (policy) {
+
+            case BLOCK:
+                if (size == capacity) {
+                    ++numDelayed;
+                    final long start = System.nanoTime();
+                    while (size == capacity && !closed) {notFull.await();}
+                    blockedNanos += System.nanoTime() - start;
+                }
+                return !closed;
+
+            case DROP_OLDEST:
+                if (size == capacity) {
+                    head = (head + 1) % capacity;
+                    --size;
+                    ++numDropped;
+                }
+                return true;
+
+            case DECIMATE:
+                if (size >= decimateFrom && size < capacity) {
+                    if (numDecimateOffers++ % decimation == 0) {return true;}
+                    ++numDropped;
+                    return false;
+                }
+                numDecimateOffers = 0;
+                // below half: keep. full: like DROP_NEWEST
+                return dropNewestIfFull();
+
+            case DROP_NEWEST:
+            default:
+                return dropNewestIfFull();
+
+        }
+
+    }
+
+    /** DROP_NEWEST: count the new position as dropped if the queue is full. must hold the lock */
+    private boolean dropNewestIfFull() {
+        if (size == capacity) {
+            ++numDropped;
+            return false;
+        }
+        return true;
+    }
+
+    /** append one record behind the newest one. must hold the lock and have room */
+    private void store(final long clientTS, final long receiveTS, final long receiveNanos, final long enqueueNanos, final double x, final double y, final double z) {
+        final int idx = (head + size) % capacity;
+        this.clientTS[idx] = clientTS;
+        this.receiveTS[idx] = receiveTS;
+        this.receiveNanos[idx] = receiveNanos;
+        this.enqueueNanos[idx] = enqueueNanos;
+        this.x[idx] = x;
+        this.y[idx] = y;
+        this.z[idx] = z;
+        ++size;
+        if (size > maxSize) {maxSize = size;}
+    }
+
+    /**
+     * move up to batch.capacity() queued records into the given batch.
+     * waits up to the given timeout for at least one record to arrive [or a wakeUp()].
+     * @return the number of records moved into the batch [0 on timeout or wake-up], -1 if the queue is closed and empty
+     */
+    public int drainTo(final PositionBatch batch, final long timeoutMs) throws InterruptedException {
+        lock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (size == 0) {
+                if (closed) {return -1;}
+                if (wakeUpRequested) {
+                    wakeUpRequested = false;
+                    return 0;
+                }
+                if (nanos <= 0) {return 0;}
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            final int cnt = Math.min(size, batch.capacity());
+            for (int i = 0; i < cnt; ++i) {
+                final int idx = (head + i) % capacity;
+                batch.set(i, clientTS[idx], receiveTS[idx], receiveNanos[idx], enqueueNanos[idx], x[idx], y[idx], z[idx]);
+            }
+            batch.size = cnt;
+            head = (head + cnt) % capacity;
+            size -= cnt;
+            notFull.signalAll();
+            return cnt;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** the number of currently queued records */
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** the maximum number of queued records */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** what happens when the queue is full */
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /** the highest number of queued records seen so far */
+    public int getMaxSize() {
+        lock.lock();
+        try {
+            return maxSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** the number of positions discarded because of the overflow policy */
+    public long getNumDropped() {
+        lock.lock();
+        try {
+            return numDropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** the number of positions whose producer had to wait for free space */
+    public long getNumDelayed() {
+        lock.lock();
+        try {
+            return numDelayed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** the total time producers waited for free space [ns] */
+    public long getBlockedNanos() {
+        lock.lock();
+        try {
+            return blockedNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** let the consumer's current [or next] drainTo() return without waiting, e.g. to handle a request of another thread */
+    public void wakeUp() {
+        lock.lock();
+        try {
+            wakeUpRequested = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** stop accepting new records. already queued records can still be drained */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * reads the records of a position log one by one, independent of its format
+ * [{@link TextPositionReader}, {@link BinaryPositionReader}, {@link ColumnarPositionReader}]
+ */
+public interface PositionReader extends Closeable {
+
+    /**
+     * advance to the next record.
+     * @return false at the end of the log
+     * @throws IOException on read errors and corrupt data
+     */
+    boolean next() throws IOException;
+
+    /** the wall-clock receive time of the current record [ms] */
+    long getTimestamp();
+    double getX();
+    double getY();
+    double getZ();
+    long getClientTimestamp();
+    long getReceiveNanos();
+
+    /** whether the records contain the client's timestamp and the monotonic receive time */
+    boolean hasClientTimestamps();
+
+    /** the number of records read so far */
+    long getNumRecords();
+
+    /** whether the log ended with an incomplete record */
+    boolean isTruncated();
+
+    /** whether the last records were not covered by a checksum */
+    boolean hasUnverifiedTail();
+
+}
@@ -0,0 +1,61 @@
+package it.cnr.isti.steplogger.core;
+
+/**
+ * layout of the position stream a client sends over a [local] socket. all values are big-endian.
+ *
+ * stream header [8 bytes, once]
+ *   int     MAGIC ["SLPS"]
+ *   short   VERSION
+ *   short   reserved [0]
+ *
+ * followed by frames:
+ *   int     length of the rest of the frame [type + payload], at most MAX_FRAME_LENGTH
+ *   byte    type
+ *   ...     payload
+ *
+ * HELLO      [must be the first frame]
+ *   ...     UTF-8 id of the session to log into
+ *
+ * POSITIONS
+ *   int     count [1 .. MAX_POSITIONS_PER_FRAME]
+ *   count x long timestamp [sent by the client], double x, y, z
+ *
+ * WAYPOINT
+ *   long    timestamp [sent by the client]
+ *   ...     UTF-8 label [no control characters and no " : ", see isValidLabel()]
+ *
+ * frames of unknown type are skipped, so newer clients can talk to older services.
+ */
+public final class PositionStreamFormat {
+
+    public static final int MAGIC = 0x534C5053;
+    public static final short VERSION = 1;
+
+    public static final int HEADER_SIZE = 8;
+
+    public static final byte TYPE_HELLO = 1;
+    public static final byte TYPE_POSITIONS = 2;
+    public static final byte TYPE_WAYPOINT = 3;
+
+    /** bytes per position within a POSITIONS frame */
+    public static final int POSITION_SIZE = 32;
+
+    public static final int MAX_POSITIONS_PER_FRAME = 4096;
+
+    /** the longest frame a reader accepts [a full POSITIONS frame] */
+    public static final int MAX_FRAME_LENGTH = 1 + 4 + MAX_POSITIONS_PER_FRAME * POSITION_SIZE;
+
+    /**
+     * whether the given waypoint label may be written into a waypoint log as is:
+     * control characters [line breaks] and the field separator " : " would forge waypoint lines
+     */
+    public static boolean isValidLabel(final String label) {
+        for (int i = 0; i < label.length(); ++i) {
+            if (Character.isISOControl(label.charAt(i))) {return false;}
+        }
+        return !label.contains(" : ");
+    }
+
+    private PositionStreamFormat() {}
+
+}
@@ -0,0 +1,141 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * decodes a position stream [see {@link PositionStreamFormat}] frame by frame.
+ * the position arrays handed to the handler are reused for every frame.
+ */
+public class PositionStreamReader implements Closeable {
+
+    /** receives the decoded frames */
+    public interface Handler {
+        void onPositions(long[] timestamps, double[] x, double[] y, double[] z, int count) throws IOException;
+        void onWaypoint(long timestamp, String label) throws IOException;
+    }
+
+    private final DataInputStream in;
+
+    /** the session id sent within the HELLO frame */
+    private final String sessionId;
+
+    private final long[] timestamps = new long[PositionStreamFormat.MAX_POSITIONS_PER_FRAME];
+    private final double[] x = new double[PositionStreamFormat.MAX_POSITIONS_PER_FRAME];
+    private final double[] y = new double[PositionStreamFormat.MAX_POSITIONS_PER_FRAME];
+    private final double[] z = new double[PositionStreamFormat.MAX_POSITIONS_PER_FRAME];
+
+    private long numPositions = 0;
+    private long numFrames = 0;
+
+
+    /** ctor. reads and checks the stream header and the HELLO frame */
+    public PositionStreamReader(final InputStream is) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(is, 8192));
+        if (in.readInt() != PositionStreamFormat.MAGIC) {throw new IOException("not a position stream: bad magic");}
+        final short version = in.readShort();
+        if (version != PositionStreamFormat.VERSION) {throw new IOException("unsupported position stream version " + version);}
+        in.readShort();
+        final int length = readLength();
+        if (in.readByte() != PositionStreamFormat.TYPE_HELLO) {throw new IOException("the first frame must be HELLO");}
+        sessionId = readString(length - 1);
+    }
+
+    /** the session id the client wants to log into */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /** decode the next frame. returns false when the stream ended cleanly between two frames */
+    public boolean next(final Handler handler) throws IOException {
+
+        final int length;
+        try {
+            length = readLength();
+        } catch (EOFException e) {
+            return false;
+        }
+        ++numFrames;
+
+        final byte type = in.readByte();
+        switch (type) {
+
+            case PositionStreamFormat.TYPE_POSITIONS: {
+                final int count = in.readInt();
+                if (count < 1 || count > PositionStreamFormat.MAX_POSITIONS_PER_FRAME || length != 1 + 4 + count * PositionStreamFormat.POSITION_SIZE) {
+                    throw new IOException("corrupt POSITIONS frame: " + count + " positions within " + length + " bytes");
+                }
+                for (int i = 0; i < count; ++i) {
+                    timestamps[i] = in.readLong();
+                    x[i] = in.readDouble();
+                    y[i] = in.readDouble();
+                    z[i] = in.readDouble();
+                }
+                numPositions += count;
+                handler.onPositions(timestamps, x, y, z, count);
+                return true;
+            }
+
+            case PositionStreamFormat.TYPE_WAYPOINT: {
+                if (length < 1 + 8) {throw new IOException("corrupt WAYPOINT frame: " + length + " bytes");}
+                final long timestamp = in.readLong();
+                final String label = readString(length - 1 - 8);
+                if (!PositionStreamFormat.isValidLabel(label)) {throw new IOException("corrupt WAYPOINT frame: invalid label");}
+                handler.onWaypoint(timestamp, label);
+                return true;
+            }
+
+            default:
+                // newer client: skip what we do not understand
+                skipFully(length - 1);
+                return true;
+
+        }
+
+    }
+
+    /** the number of positions decoded so far */
+    public long getNumPositions() {
+        return numPositions;
+    }
+
+    /** the number of frames decoded so far [without HELLO] */
+    public long getNumFrames() {
+        return numFrames;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private int readLength() throws IOException {
+        final int length = in.readInt();
+        if (length < 1 || length > PositionStreamFormat.MAX_FRAME_LENGTH) {throw new IOException("invalid frame length " + length);}
+        return length;
+    }
+
+    private void skipFully(int remaining) throws IOException {
+        while (remaining > 0) {
+            final int skipped = in.skipBytes(remaining);
+            if (skipped > 0) {
+                remaining -= skipped;
+            } else {
+                in.readByte();
+                --remaining;
+            }
+        }
+    }
+
+    private String readString(final int length) throws IOException {
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,106 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * reference client for the position stream [see {@link PositionStreamFormat}], usable on any JVM.
+ *
+ * positions are collected into one POSITIONS frame, that is sent once it holds
+ * maxPositionsPerFrame positions, or on flush(). waypoints are sent immediately.
+ * not thread-safe.
+ */
+public class PositionStreamWriter implements Closeable, Flushable {
+
+    private final DataOutputStream out;
+
+    private final int maxPositionsPerFrame;
+
+    private final long[] timestamps;
+    private final double[] x;
+    private final double[] y;
+    private final double[] z;
+    private int size = 0;
+
+
+    /** ctor. sends the stream header and the HELLO frame for the given session */
+    public PositionStreamWriter(final OutputStream os, final String sessionId, final int maxPositionsPerFrame) throws IOException {
+
+        if (maxPositionsPerFrame < 1 || maxPositionsPerFrame > PositionStreamFormat.MAX_POSITIONS_PER_FRAME) {
+            throw new IllegalArgumentException("positions per frame must be within 1.." + PositionStreamFormat.MAX_POSITIONS_PER_FRAME);
+        }
+        this.out = new DataOutputStream(new BufferedOutputStream(os, 8192));
+        this.maxPositionsPerFrame = maxPositionsPerFrame;
+        this.timestamps = new long[maxPositionsPerFrame];
+        this.x = new double[maxPositionsPerFrame];
+        this.y = new double[maxPositionsPerFrame];
+        this.z = new double[maxPositionsPerFrame];
+
+        out.writeInt(PositionStreamFormat.MAGIC);
+        out.writeShort(PositionStreamFormat.VERSION);
+        out.writeShort(0);
+        final byte[] id = sessionId.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(1 + id.length);
+        out.writeByte(PositionStreamFormat.TYPE_HELLO);
+        out.write(id);
+        out.flush();
+
+    }
+
+    /** add one position. sends the pending frame once it is full */
+    public void position(final long timestamp, final double x, final double y, final double z) throws IOException {
+        timestamps[size] = timestamp;
+        this.x[size] = x;
+        this.y[size] = y;
+        this.z[size] = z;
+        if (++size == maxPositionsPerFrame) {writePositions();}
+    }
+
+    /** send a waypoint. pending positions are sent first to keep the order */
+    public void waypoint(final long timestamp, final String label) throws IOException {
+        if (!PositionStreamFormat.isValidLabel(label)) {throw new IllegalArgumentException("invalid waypoint label: " + label);}
+        writePositions();
+        final byte[] bytes = label.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(1 + 8 + bytes.length);
+        out.writeByte(PositionStreamFormat.TYPE_WAYPOINT);
+        out.writeLong(timestamp);
+        out.write(bytes);
+        out.flush();
+    }
+
+    /** send all pending positions */
+    @Override
+    public void flush() throws IOException {
+        writePositions();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writePositions() throws IOException {
+        if (size == 0) {return;}
+        out.writeInt(1 + 4 + size * PositionStreamFormat.POSITION_SIZE);
+        out.writeByte(PositionStreamFormat.TYPE_POSITIONS);
+        out.writeInt(size);
+        for (int i = 0; i < size; ++i) {
+            out.writeLong(timestamps[i]);
+            out.writeDouble(x[i]);
+            out.writeDouble(y[i]);
+            out.writeDouble(z[i]);
+        }
+        size = 0;
+    }
+
+}
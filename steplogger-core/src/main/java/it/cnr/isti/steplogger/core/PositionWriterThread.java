@@ -0,0 +1,236 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * the single thread that drains a session's {@link PositionQueue} in batches
+ * and writes the records into the session's position log.
+ *
+ * this keeps all disk I/O away from the binder threads.
+ * an optional {@link Downsampler} decides which of the received records are persisted.
+ * an optional {@link SpscRingBuffer}, filled by a client within shared memory, is polled as second source.
+ * an optional {@link SessionIndex} is updated with every persisted record.
+ * waypoints logged by other threads are applied to the log here as well [flush/sync, see {@link #onWaypoint()}],
+ * so no other thread waits for the storage device.
+ * the writer is closed once the queue is closed and fully drained.
+ */
+public class PositionWriterThread extends Thread implements Downsampler.Output {
+
+    /** the maximum number of records to move from the queue per batch */
+    private static final int BATCH_SIZE = 64;
+
+    /** how long to wait for new records before checking the time-based flush */
+    private static final long IDLE_WAIT_MS = 100;
+
+    /** how often the ring buffer is polled while one is attached [the producer cannot wake us] */
+    private static final long RING_POLL_MS = 5;
+
+    /** informed about written batches and errors. called on the writer thread */
+    public interface Listener {
+        void onBatchWritten(int numRecords);
+        void onRingDrained(int numRecords);
+        /** after the log handled a waypoint handed over by {@link #onWaypoint()} */
+        void onWaypoint();
+        void onError(String message, Exception e);
+        /** the log is closed, the thread ends */
+        void onFinished();
+    }
+
+    private final PositionQueue queue;
+    private final LogSink writer;
+    private final PositionEncoder encoder;
+    private final Listener listener;
+    private final Downsampler downsampler;
+    private final PositionBatch batch = new PositionBatch(BATCH_SIZE);
+
+    /** updated with every persisted record [if any] */
+    private SessionIndex index;
+
+    /** shared-memory ring of a client [if any] and the clock to stamp its records with [elapsedRealtimeNanos] */
+    private volatile SpscRingBuffer ring;
+    private volatile LongSupplier ringClock;
+
+    /** delay between the client's timestamp and our receive time, per record */
+    private final DeliveryLatencyStats deliveryStats = new DeliveryLatencyStats();
+
+    /**
+     * queue latency between enqueueing a record and handing it to the encoder or the downsampler [us].
+     * the time spent waiting within the queue, not encoding or writing the record
+     */
+    private final LatencyHistogram queueLatencyUs = new LatencyHistogram();
+
+    /** queue latency between enqueueing a record and handing it to the encoder or the downsampler [ns] */
+    private volatile long lastQueueLatencyNanos = 0;
+    private volatile long maxQueueLatencyNanos = 0;
+    private volatile long sumQueueLatencyNanos = 0;
+    private volatile long numProcessed = 0;
+
+    /** the number of records handed to the encoder */
+    private volatile long numWritten = 0;
+
+    /** set by onWaypoint() on any thread, handled by the writer thread */
+    private final AtomicBoolean waypointPending = new AtomicBoolean();
+
+
+    /** ctor. persists every received record */
+    public PositionWriterThread(final PositionQueue queue, final LogSink writer, final PositionEncoder encoder, final Listener listener) {
+        this(queue, writer, encoder, null, listener);
+    }
+
+    /** ctor. the downsampler may be null to persist every received record */
+    public PositionWriterThread(final PositionQueue queue, final LogSink writer, final PositionEncoder encoder, final Downsampler downsampler, final Listener listener) {
+        super("PositionWriter");
+        this.queue = queue;
+        this.writer = writer;
+        this.encoder = encoder;
+        this.downsampler = downsampler;
+        this.listener = listener;
+    }
+
+    @Override
+    public void run() {
+
+        try {
+            while (true) {
+                final int cnt = queue.drainTo(batch, (ring == null) ? IDLE_WAIT_MS : RING_POLL_MS);
+                try {
+                    if (cnt > 0) {writeBatch();}
+                    drainRing();
+                    encoder.flushIfDue(writer);
+                    writer.flushIfDue();
+                    if (waypointPending.getAndSet(false)) {
+                        // records the encoder holds back must be within the log before it is flushed or synced
+                        encoder.flush(writer);
+                        writer.onWaypoint();
+                        listener.onWaypoint();
+                    }
+                } catch (IOException e) {
+                    // keep draining. a stuck writer would block the binder threads
+                    listener.onError("error writing " + writer.getFile(), e);
+                }
+                if (cnt < 0) {break;}
+            }
+        } catch (InterruptedException e) {
+            listener.onError("writer interrupted, " + queue.size() + " queued records are lost", e);
+        } finally {
+            try {
+                if (downsampler != null) {downsampler.finish(this);}
+                encoder.finish(writer);
+            } catch (IOException e) {
+                listener.onError("error finishing " + writer.getFile(), e);
+            }
+            try {
+                writer.close();
+            } catch (IOException e) {
+                listener.onError("error closing " + writer.getFile(), e);
+            }
+            listener.onFinished();
+        }
+
+    }
+
+    private void writeBatch() throws IOException {
+
+        for (int i = 0; i < batch.size; ++i) {
+            if (downsampler == null) {
+                emit(batch.receiveTS[i], batch.clientTS[i], batch.receiveNanos[i], batch.x[i], batch.y[i], batch.z[i]);
+            } else {
+                downsampler.offer(batch.receiveTS[i], batch.clientTS[i], batch.receiveNanos[i], batch.x[i], batch.y[i], batch.z[i], this);
+            }
+            deliveryStats.record(batch.clientTS[i], batch.receiveTS[i]);
+            final long latency = System.nanoTime() - batch.enqueueNanos[i];
+            queueLatencyUs.record(latency / 1000);
+            lastQueueLatencyNanos = latency;
+            if (latency > maxQueueLatencyNanos) {maxQueueLatencyNanos = latency;}
+            sumQueueLatencyNanos += latency;
+            ++numProcessed;
+        }
+
+        listener.onBatchWritten(batch.size);
+
+    }
+
+    /** write everything the ring's producer has published so far */
+    private void drainRing() throws IOException {
+        final SpscRingBuffer r = ring;
+        if (r == null) {return;}
+        try {
+            int cnt;
+            while ((cnt = r.drainTo(batch, System.currentTimeMillis(), ringClock.getAsLong())) > 0) {
+                listener.onRingDrained(cnt);
+                writeBatch();
+            }
+        } catch (IllegalStateException e) {
+            // a broken producer must not stop the binder-fed positions
+            ring = null;
+            listener.onError("ring buffer detached", e);
+        }
+    }
+
+    /** a waypoint was logged [any thread]. the writer thread flushes [or syncs] the log as its policies say, without delay */
+    public void onWaypoint() {
+        waypointPending.set(true);
+        queue.wakeUp();
+    }
+
+    /** update the given index with every persisted record. must be called before start() */
+    public void setIndex(final SessionIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * consume the given ring in addition to the queue, until the queue is closed.
+     * the ring's records are stamped with the wall clock and the given monotonic clock [ns] when drained.
+     */
+    public void attachRing(final SpscRingBuffer ring, final LongSupplier receiveNanosClock) {
+        this.ringClock = receiveNanosClock;
+        this.ring = ring;
+    }
+
+    /** persist one record. called directly, or by the downsampler */
+    @Override
+    public void emit(final long receiveTS, final long clientTS, final long receiveNanos, final double x, final double y, final double z) throws IOException {
+        if (index != null) {index.onRecord(receiveTS, x, y, z, writer.getBytesWritten());}
+        encoder.encode(receiveTS, clientTS, receiveNanos, x, y, z, writer);
+        ++numWritten;
+    }
+
+    /** client-to-service delivery latency and clock offset of all received records */
+    public DeliveryLatencyStats getDeliveryStats() {
+        return deliveryStats;
+    }
+
+    /** distribution of the queue latency between enqueueing a record and handing it to the encoder [us] */
+    public LatencyHistogram getQueueLatencyUs() {
+        return queueLatencyUs;
+    }
+
+    /** the number of records taken from the queue so far */
+    public long getNumProcessed() {
+        return numProcessed;
+    }
+
+    /** the number of records written so far. lower than {@link #getNumProcessed()} when downsampling */
+    public long getNumWritten() {
+        return numWritten;
+    }
+
+    /** queue latency of the most recently processed record [ns] */
+    public long getLastQueueLatencyNanos() {
+        return lastQueueLatencyNanos;
+    }
+
+    /** the highest queue latency seen so far [ns] */
+    public long getMaxQueueLatencyNanos() {
+        return maxQueueLatencyNanos;
+    }
+
+    /** the average queue latency of all processed records [ns] */
+    public long getMeanQueueLatencyNanos() {
+        final long num = numProcessed;
+        return (num == 0) ? 0 : sumQueueLatencyNanos / num;
+    }
+
+}
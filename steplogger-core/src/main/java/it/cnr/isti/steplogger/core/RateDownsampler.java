@@ -0,0 +1,42 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.IOException;
+
+/**
+ * persists at most targetHz positions per second:
+ * a position is kept if it is at least 1/targetHz newer than the last kept one
+ */
+public class RateDownsampler implements Downsampler {
+
+    private final double targetHz;
+    private final long minIntervalMs;
+    private boolean hasLast = false;
+    private long lastKeptTS;
+
+    /** ctor */
+    public RateDownsampler(final double targetHz) {
+        if (!(targetHz > 0)) {throw new IllegalArgumentException("target rate must be > 0: " + targetHz);}
+        this.targetHz = targetHz;
+        this.minIntervalMs = Math.round(1000 / targetHz);
+    }
+
+    @Override
+    public void offer(final long receiveTS, final long clientTS, final long receiveNanos, final double x, final double y, final double z, final Output out) throws IOException {
+        // clients may restart their clock: a jump backwards always keeps the position
+        if (hasLast && clientTS >= lastKeptTS && clientTS - lastKeptTS < minIntervalMs) {return;}
+        hasLast = true;
+        lastKeptTS = clientTS;
+        out.emit(receiveTS, clientTS, receiveNanos, x, y, z);
+    }
+
+    @Override
+    public void finish(final Output out) {
+        // nothing pending
+    }
+
+    @Override
+    public String describe() {
+        return "rate " + targetHz + " Hz";
+    }
+
+}
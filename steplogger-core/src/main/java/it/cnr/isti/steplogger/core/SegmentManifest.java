@@ -0,0 +1,177 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * the list of segment files of a segmented log [see {@link SegmentedLogWriter}], one line per segment:
+ *
+ *   file bytes records firstTS lastTS
+ *
+ * bytes is -1 for the segment that is currently written [or was, when the session crashed].
+ * such a segment still has its preallocated size, its unused tail is zero.
+ * firstTS and lastTS are the receive timestamps of the segment's first and last record, "-" if it has none.
+ * lines starting with # are comments.
+ */
+public class SegmentManifest {
+
+    /** one segment file */
+    public static class Segment {
+        public final String name;
+        public long bytes;
+        public long records;
+        public long firstTS = LogSink.NO_TIMESTAMP;
+        public long lastTS = LogSink.NO_TIMESTAMP;
+
+        /** ctor */
+        public Segment(final String name) {
+            this.name = name;
+        }
+
+        /** whether the segment was closed properly and its size is known */
+        public boolean isComplete() {
+            return bytes >= 0;
+        }
+    }
+
+    private final List<Segment> segments = new ArrayList<>();
+
+
+    /** the segments in write order */
+    public List<Segment> getSegments() {
+        return Collections.unmodifiableList(segments);
+    }
+
+    /** append a segment */
+    public void add(final Segment segment) {
+        segments.add(segment);
+    }
+
+    /** read the given manifest */
+    public static SegmentManifest read(final File file) throws IOException {
+        final SegmentManifest manifest = new SegmentManifest();
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            String line;
+            int lineNr = 0;
+            while ((line = br.readLine()) != null) {
+                ++lineNr;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {continue;}
+                final String[] parts = line.split("\\s+");
+                if (parts.length != 5) {throw new IOException(file + ":" + lineNr + ": expected 5 columns, found " + parts.length);}
+                try {
+                    final Segment segment = new Segment(parts[0]);
+                    segment.bytes = Long.parseLong(parts[1]);
+                    segment.records = Long.parseLong(parts[2]);
+                    segment.firstTS = parseTS(parts[3]);
+                    segment.lastTS = parseTS(parts[4]);
+                    manifest.add(segment);
+                } catch (NumberFormatException e) {
+                    throw new IOException(file + ":" + lineNr + ": " + e.getMessage());
+                }
+            }
+        }
+        return manifest;
+    }
+
+    /** write this manifest into the given file [via a temporary file, so readers never see a partial manifest] */
+    public void write(final File file) throws IOException {
+        write(file, false);
+    }
+
+    /** write this manifest into the given file. with sync, the new manifest is on the storage device before it replaces the old one */
+    public void write(final File file, final boolean sync) throws IOException {
+        final File tmp = new File(file.getPath() + ".tmp");
+        final FileOutputStream fos = new FileOutputStream(tmp);
+        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(fos, Charset.forName("UTF-8")))) {
+            bw.write("# file bytes records firstTS lastTS\n");
+            for (final Segment s : segments) {
+                bw.write(s.name + " " + s.bytes + " " + s.records + " " + formatTS(s.firstTS) + " " + formatTS(s.lastTS) + "\n");
+            }
+            if (sync) {
+                bw.flush();
+                fos.getFD().sync();
+            }
+        }
+        if (!tmp.renameTo(file)) {throw new IOException("could not replace " + file);}
+    }
+
+    /**
+     * all segments within the given folder as one stream, in write order. complete segments are read up to their size,
+     * an incomplete one up to its end [zeros included].
+     */
+    public InputStream openConcatenated(final File dir) throws IOException {
+        final List<InputStream> streams = new ArrayList<>();
+        for (final Segment s : segments) {
+            final InputStream is = new FileInputStream(new File(dir, s.name));
+            streams.add(s.isComplete() ? new LimitedInputStream(is, s.bytes) : is);
+        }
+        if (streams.isEmpty()) {return new ByteArrayInputStream(new byte[0]);}
+        final Enumeration<InputStream> e = Collections.enumeration(streams);
+        return new SequenceInputStream(e);
+    }
+
+    private static long parseTS(final String str) {
+        return str.equals("-") ? LogSink.NO_TIMESTAMP : Long.parseLong(str);
+    }
+
+    private static String formatTS(final long ts) {
+        return (ts == LogSink.NO_TIMESTAMP) ? "-" : String.valueOf(ts);
+    }
+
+    /** reads at most the given number of bytes */
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        LimitedInputStream(final InputStream in, final long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {return -1;}
+            final int b = super.read();
+            if (b >= 0) {--remaining;}
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (remaining <= 0) {return -1;}
+            final int cnt = super.read(b, off, (int) Math.min(len, remaining));
+            if (cnt > 0) {remaining -= cnt;}
+            return cnt;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final long cnt = super.skip(Math.min(n, remaining));
+            remaining -= cnt;
+            return cnt;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+    }
+
+}
@@ -0,0 +1,232 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * append-only log, split into segment files of a fixed size:
+ *
+ *   [base].0000.[ext], [base].0001.[ext], ... and [base].manifest
+ *
+ * every segment is preallocated in full and written through a memory-mapped buffer,
+ * so appending a record is a memory copy without any system call.
+ * a record never spans two segments: if it does not fit, the segment is truncated to its
+ * used size and the next one is started. the {@link SegmentManifest} lists all segments with
+ * their sizes and time ranges and is rewritten whenever a segment is started or finished.
+ *
+ * concatenating all segments in manifest order yields the same bytes as a single log-file.
+ *
+ * written records are visible to other readers immediately, flushing is not needed.
+ * pushing them to the storage is left to the kernel's writeback, unless the {@link DurabilityPolicy}
+ * asks for syncs [msync of the current segment]. then finished segments and the manifest are synced, too.
+ *
+ * may be used from several threads.
+ */
+public class SegmentedLogWriter implements LogSink {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /** reserves the disk space of a new segment */
+    public interface Preallocator {
+        void preallocate(RandomAccessFile file, long size) throws IOException;
+    }
+
+    /** sets the file length only. most file systems create a sparse file */
+    public static final Preallocator SET_LENGTH = new Preallocator() {
+        @Override public void preallocate(RandomAccessFile file, long size) throws IOException {
+            file.setLength(size);
+        }
+    };
+
+    private final File dir;
+    private final String baseName;
+    private final String extension;
+    private final long segmentSize;
+    private final Preallocator preallocator;
+    private final DurabilityPolicy durability;
+
+    private final File manifestFile;
+    private final SegmentManifest manifest;
+
+    /** the segment currently written. null after close() */
+    private SegmentManifest.Segment segment;
+    private RandomAccessFile segmentFile;
+    private MappedByteBuffer map;
+
+    private long bytesWritten = 0;
+
+    /** number of records written since the last sync, when it happened and how often */
+    private int unsyncedRecords = 0;
+    private long lastSyncTS = System.currentTimeMillis();
+    private long numSyncs = 0;
+
+
+    /** ctor. continues an existing segmented log within the given folder, or starts a new one. never syncs */
+    public SegmentedLogWriter(final File dir, final String baseName, final String extension, final long segmentSize, final Preallocator preallocator) throws IOException {
+        this(dir, baseName, extension, segmentSize, preallocator, DurabilityPolicy.NONE);
+    }
+
+    /** ctor. continues an existing segmented log within the given folder, or starts a new one */
+    public SegmentedLogWriter(final File dir, final String baseName, final String extension, final long segmentSize, final Preallocator preallocator, final DurabilityPolicy durability) throws IOException {
+
+        if (segmentSize <= 0 || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("segment size must be within 1.." + Integer.MAX_VALUE + ": " + segmentSize);
+        }
+        this.dir = dir;
+        this.baseName = baseName;
+        this.extension = extension;
+        this.segmentSize = segmentSize;
+        this.preallocator = preallocator;
+        this.durability = durability;
+        this.manifestFile = getManifestFile(dir, baseName);
+        this.manifest = manifestFile.exists() ? SegmentManifest.read(manifestFile) : new SegmentManifest();
+
+        startSegment();
+
+    }
+
+    /** the manifest of the segmented log with the given base name */
+    public static File getManifestFile(final File dir, final String baseName) {
+        return new File(dir, baseName + ".manifest");
+    }
+
+    /** the manifest */
+    @Override
+    public File getFile() {
+        return manifestFile;
+    }
+
+    @Override
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /** the number of segments started so far [including those of an earlier writer] */
+    public synchronized int getNumSegments() {
+        return manifest.getSegments().size();
+    }
+
+    @Override
+    public synchronized void writeRecord(final String record) throws IOException {
+        final byte[] bytes = record.getBytes(CHARSET);
+        writeRecord(NO_TIMESTAMP, bytes, 0, bytes.length);
+    }
+
+    @Override
+    public synchronized void writeRecord(final long timestamp, final byte[] buf, final int off, final int len) throws IOException {
+        write(buf, off, len);
+        ++segment.records;
+        if (timestamp != NO_TIMESTAMP) {
+            if (segment.firstTS == NO_TIMESTAMP) {segment.firstTS = timestamp;}
+            segment.lastTS = timestamp;
+        }
+        ++unsyncedRecords;
+        if (durability.shouldSync(unsyncedRecords, System.currentTimeMillis() - lastSyncTS)) {sync();}
+    }
+
+    @Override
+    public synchronized void write(final byte[] buf, final int off, final int len) throws IOException {
+        ensureOpen();
+        if (len > map.remaining()) {
+            if (len > segmentSize) {throw new IOException("record of " + len + " bytes exceeds the segment size " + segmentSize);}
+            finishSegment();
+            startSegment();
+        }
+        map.put(buf, off, len);
+        bytesWritten += len;
+    }
+
+    /** records are visible as soon as they are written. syncs if the durability policy's interval has elapsed */
+    @Override
+    public synchronized void flushIfDue() throws IOException {
+        if (segment != null && durability.shouldSync(unsyncedRecords, System.currentTimeMillis() - lastSyncTS)) {sync();}
+    }
+
+    /** records are visible as soon as they are written. syncs if the durability policy says so */
+    @Override
+    public synchronized void onWaypoint() throws IOException {
+        if (segment != null && durability.onWaypoint()) {sync();}
+    }
+
+    @Override
+    public void flush() {
+        // records are visible as soon as they are written
+    }
+
+    /** force the current segment's written pages onto the storage device [msync] */
+    @Override
+    public synchronized void sync() throws IOException {
+        ensureOpen();
+        map.force();
+        unsyncedRecords = 0;
+        lastSyncTS = System.currentTimeMillis();
+        ++numSyncs;
+    }
+
+    @Override
+    public synchronized long getNumSyncs() {
+        return numSyncs;
+    }
+
+    /** truncate the last segment to its used size and finish the manifest */
+    @Override
+    public synchronized void close() throws IOException {
+        if (segment == null) {return;}
+        finishSegment();
+    }
+
+    private void startSegment() throws IOException {
+
+        final String name = String.format(Locale.US, "%s.%04d.%s", baseName, manifest.getSegments().size(), extension);
+        final File file = new File(dir, name);
+        segmentFile = new RandomAccessFile(file, "rw");
+        try {
+            preallocator.preallocate(segmentFile, segmentSize);
+            map = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } catch (IOException e) {
+            segmentFile.close();
+            segmentFile = null;
+            throw e;
+        }
+
+        segment = new SegmentManifest.Segment(name);
+        segment.bytes = -1;
+        manifest.add(segment);
+        manifest.write(manifestFile, durability.onClose());
+
+    }
+
+    private void finishSegment() throws IOException {
+
+        final long used = map.position();
+        try {
+            if (durability.onClose()) {
+                map.force();
+                ++numSyncs;
+            }
+            map = null;
+            // the mapping is not accessed anymore: dropping the unused tail is safe
+            segmentFile.setLength(used);
+            if (durability.onClose()) {segmentFile.getChannel().force(true);}
+        } finally {
+            map = null;
+            segmentFile.close();
+            segmentFile = null;
+        }
+
+        segment.bytes = used;
+        segment = null;
+        manifest.write(manifestFile, durability.onClose());
+
+    }
+
+    private void ensureOpen() throws IOException {
+        if (segment == null) {throw new IOException("segmented log already closed: " + manifestFile);}
+    }
+
+}
@@ -0,0 +1,230 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * one line per session folder of a log folder [catalog.log], aggregated from the sessions' {@link SessionIndex}:
+ *
+ *   indexModified complete records firstTS lastTS minX maxX minY maxY minZ maxZ waypoints folder
+ *
+ * updating the catalog only reads the indexes that changed since the last update [by modification time],
+ * and listing or filtering it never touches a position log. folders without an index [older sessions] are skipped.
+ * the folder comes last, it may contain blanks. lines starting with # are comments.
+ */
+public class SessionCatalog {
+
+    /** the name of the catalog within the log folder */
+    public static final String FILE_NAME = "catalog.log";
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /** one session */
+    public static class Entry {
+        public final String folder;
+        public long indexModified;
+        public boolean complete;
+        public long records;
+        public long firstTS = LogSink.NO_TIMESTAMP;
+        public long lastTS = LogSink.NO_TIMESTAMP;
+        public final double[] bounds = new double[] {Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN};
+        public int waypoints;
+
+        /** ctor */
+        public Entry(final String folder) {
+            this.folder = folder;
+        }
+
+        /** whether the session has records within the given time range [inclusive] */
+        public boolean overlaps(final long fromTS, final long toTS) {
+            return records > 0 && firstTS <= toTS && lastTS >= fromTS;
+        }
+
+        /** whether the session has records within the given rectangle [inclusive] */
+        public boolean intersects(final double minX, final double minY, final double maxX, final double maxY) {
+            return records > 0 && bounds[0] <= maxX && bounds[1] >= minX && bounds[2] <= maxY && bounds[3] >= minY;
+        }
+    }
+
+    /** all sessions, ordered by folder name [= start time] */
+    private final List<Entry> entries = new ArrayList<>();
+
+    /** the number of indexes read by the last update, and of those that could not be read */
+    private int numIndexesRead = 0;
+    private int numSkipped = 0;
+
+
+    /** the sessions, ordered by folder name */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /** the number of session indexes the last {@link #update(File)} had to read */
+    public int getNumIndexesRead() {
+        return numIndexesRead;
+    }
+
+    /** the number of session indexes the last {@link #update(File)} could not read [left out of the catalog] */
+    public int getNumSkipped() {
+        return numSkipped;
+    }
+
+    /**
+     * bring the catalog of the given log folder up to date and write it.
+     * only indexes whose modification time differs from the catalog's are read
+     */
+    public static SessionCatalog update(final File logFolder) throws IOException {
+
+        final File file = new File(logFolder, FILE_NAME);
+        final Map<String, Entry> known = new HashMap<>();
+        if (file.exists()) {
+            try {
+                for (final Entry e : read(file).entries) {known.put(e.folder, e);}
+            } catch (IOException e) {
+                // rebuild from the indexes
+            }
+        }
+
+        final SessionCatalog catalog = new SessionCatalog();
+        final File[] dirs = logFolder.listFiles();
+        if (dirs != null) {
+            Arrays.sort(dirs);
+            for (final File dir : dirs) {
+                final File indexFile = new File(dir, SessionIndex.FILE_NAME);
+                final long modified = indexFile.lastModified();
+                if (modified == 0) {continue;}
+                final Entry cached = known.get(dir.getName());
+                if (cached != null && cached.indexModified == modified) {
+                    catalog.entries.add(cached);
+                    continue;
+                }
+                try {
+                    catalog.entries.add(toEntry(dir.getName(), modified, SessionIndex.read(indexFile)));
+                    ++catalog.numIndexesRead;
+                } catch (IOException e) {
+                    // e.g. a session index of a newer version. retried by the next update
+                    ++catalog.numSkipped;
+                }
+            }
+        }
+
+        catalog.write(file);
+        return catalog;
+
+    }
+
+    private static Entry toEntry(final String folder, final long modified, final SessionIndex index) {
+        final Entry e = new Entry(folder);
+        e.indexModified = modified;
+        e.complete = index.isComplete();
+        e.records = index.getRecords();
+        e.firstTS = index.getFirstTS();
+        e.lastTS = index.getLastTS();
+        System.arraycopy(index.getBounds(), 0, e.bounds, 0, 6);
+        e.waypoints = index.getWaypoints().size();
+        return e;
+    }
+
+    /** read the given catalog */
+    public static SessionCatalog read(final File file) throws IOException {
+        final SessionCatalog catalog = new SessionCatalog();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET))) {
+            String line;
+            int lineNr = 0;
+            while ((line = br.readLine()) != null) {
+                ++lineNr;
+                if (line.trim().isEmpty() || line.startsWith("#")) {continue;}
+                final String[] parts = line.split(" ", 13);
+                if (parts.length != 13) {throw new IOException(file + ":" + lineNr + ": expected 13 columns, found " + parts.length);}
+                try {
+                    final Entry e = new Entry(parts[12]);
+                    e.indexModified = Long.parseLong(parts[0]);
+                    e.complete = Boolean.parseBoolean(parts[1]);
+                    e.records = Long.parseLong(parts[2]);
+                    e.firstTS = CompressedLogReader.parseTS(parts[3]);
+                    e.lastTS = CompressedLogReader.parseTS(parts[4]);
+                    for (int i = 0; i < 6; ++i) {e.bounds[i] = SessionIndex.parseCoordinate(parts[5 + i]);}
+                    e.waypoints = Integer.parseInt(parts[11]);
+                    catalog.entries.add(e);
+                } catch (NumberFormatException ex) {
+                    throw new IOException(file + ":" + lineNr + ": malformed number");
+                }
+            }
+        }
+        return catalog;
+    }
+
+    /** write the catalog into the given file, replacing it atomically */
+    public void write(final File file) throws IOException {
+        final File tmp = new File(file.getPath() + ".tmp");
+        final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), CHARSET));
+        try {
+            out.write("# indexModified complete records firstTS lastTS minX maxX minY maxY minZ maxZ waypoints folder\n");
+            for (final Entry e : entries) {
+                out.write(e.indexModified + " " + e.complete + ' ' + e.records + ' ' +
+                        SessionIndex.formatTS(e.firstTS) + ' ' + SessionIndex.formatTS(e.lastTS));
+                for (final double b : e.bounds) {out.write(' ' + SessionIndex.formatCoordinate(b));}
+                out.write(" " + e.waypoints + " " + e.folder + "\n");
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("could not replace " + file);
+        }
+    }
+
+    /** print the given entries as table */
+    public static void print(final List<Entry> entries, final PrintStream out) {
+        out.println("folder\trecords\tfirstTS\tlastTS\tduration.s\tminX\tmaxX\tminY\tmaxY\tminZ\tmaxZ\twaypoints\tcomplete");
+        for (final Entry e : entries) {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(e.folder).append('\t').append(e.records)
+                    .append('\t').append(SessionIndex.formatTS(e.firstTS))
+                    .append('\t').append(SessionIndex.formatTS(e.lastTS))
+                    .append('\t').append((e.records > 0) ? (e.lastTS - e.firstTS) / 1000 : 0);
+            for (final double b : e.bounds) {sb.append('\t').append(SessionIndex.formatCoordinate(b));}
+            sb.append('\t').append(e.waypoints).append('\t').append(e.complete);
+            out.println(sb);
+        }
+    }
+
+    public static void main(final String[] args) throws IOException {
+
+        if (args.length != 1 && args.length != 3 && args.length != 7) {
+            System.err.println("usage: SessionCatalog <logFolder> [<fromTS> <toTS> [<minX> <minY> <maxX> <maxY>]]");
+            System.exit(1);
+        }
+        final long fromTS = (args.length > 1) ? Long.parseLong(args[1]) : Long.MIN_VALUE;
+        final long toTS = (args.length > 2) ? Long.parseLong(args[2]) : Long.MAX_VALUE;
+
+        final SessionCatalog catalog = update(new File(args[0]));
+        final List<Entry> matches = new ArrayList<>();
+        for (final Entry e : catalog.entries) {
+            if (args.length > 1 && !e.overlaps(fromTS, toTS)) {continue;}
+            if (args.length > 3 && !e.intersects(Double.parseDouble(args[3]), Double.parseDouble(args[4]), Double.parseDouble(args[5]), Double.parseDouble(args[6]))) {continue;}
+            matches.add(e);
+        }
+        print(matches, System.out);
+        System.err.println(matches.size() + " of " + catalog.entries.size() + " sessions, " + catalog.numIndexesRead + " indexes read" +
+                ((catalog.numSkipped > 0) ? ", " + catalog.numSkipped + " unreadable indexes skipped" : ""));
+
+    }
+
+}
@@ -0,0 +1,437 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * standalone positioning-error evaluator [plain java, runs on any JVM] over session folders:
+ *
+ *   java -cp steplogger-core.jar it.cnr.isti.steplogger.core.SessionEvaluator logFolder... [-gap ms] [-threads n] [-details file]
+ *
+ * the ground truth of a session are the waypoint lines of its buttonsPressed.log [timestamp : label : x : y : z].
+ * the estimate at a waypoint's timestamp is interpolated linearly between the two position records around it
+ * [by receive time]. waypoints without a record on both sides within the gap, and waypoints after the log's end,
+ * are counted as unmatched.
+ *
+ * both files are streamed: the position log is read once, in step with the sorted waypoints, and only the
+ * per-waypoint errors are kept. the sessions are evaluated in parallel on a fork/join pool, so at most
+ * [threads] position logs are open at once. any position log format is read [see {@link PositionLogConverter#open(File)}].
+ *
+ * a folder holding a buttonsPressed.log is a session, any other folder is a log folder of sessions.
+ * errors are horizontal [x, y] distances in the coordinates' unit, the height error is reported separately.
+ */
+public class SessionEvaluator {
+
+    /** the name of the waypoint log within the session folder */
+    public static final String WAYPOINT_LOG_NAME = "buttonsPressed.log";
+
+    /** the position logs looked for within a session folder without index, in this order */
+    private static final String[] POSITION_LOG_NAMES = {
+            "positions.manifest",
+            "positions.log.gz", "positions.bin.gz", "positions.col.gz",
+            "positions.col", "positions.bin", "positions.log"};
+
+    /** the longest time between two records to interpolate between [ms] */
+    public static final long DEFAULT_MAX_GAP_MS = 2000;
+
+    /** the step of the printed error CDF */
+    private static final double CDF_STEP = 0.5;
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /** one ground-truth waypoint and the estimate at its timestamp */
+    public static class Match {
+        public final long timestamp;
+        public final String label;
+        public final double x, y, z;
+
+        /** the interpolated estimate, NaN if the waypoint is unmatched */
+        public double estX = Double.NaN, estY = Double.NaN, estZ = Double.NaN;
+
+        /** ctor */
+        public Match(final long timestamp, final String label, final double x, final double y, final double z) {
+            this.timestamp = timestamp;
+            this.label = label;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        public boolean isMatched() {
+            return !Double.isNaN(estX);
+        }
+
+        /** the horizontal error, NaN if unmatched */
+        public double getError() {
+            return Math.hypot(estX - x, estY - y);
+        }
+
+        /** the absolute height error, NaN if unmatched or without height */
+        public double getErrorZ() {
+            return Math.abs(estZ - z);
+        }
+    }
+
+    /** the evaluation of one session */
+    public static class Result {
+        public final String folder;
+        public final List<Match> matches = new ArrayList<>();
+        public String logName;
+        public long records = 0;
+        public boolean truncated = false;
+
+        /** why the session could not be evaluated, null if it was */
+        public String error;
+
+        /** ctor */
+        public Result(final String folder) {
+            this.folder = folder;
+        }
+
+        /** the horizontal errors of the matched waypoints, sorted */
+        public double[] getErrors() {
+            return errors(matches);
+        }
+
+        public int getNumMatched() {
+            int cnt = 0;
+            for (final Match m : matches) {if (m.isMatched()) {++cnt;}}
+            return cnt;
+        }
+    }
+
+    private final long maxGapMs;
+
+
+    /** ctor. records more than maxGapMs apart are not interpolated between */
+    public SessionEvaluator(final long maxGapMs) {
+        if (maxGapMs < 0) {throw new IllegalArgumentException("gap must not be negative: " + maxGapMs);}
+        this.maxGapMs = maxGapMs;
+    }
+
+    /** the session folders of the given folders [the folder itself, or its sub-folders], ordered by name */
+    public static List<File> findSessions(final File... folders) {
+        final List<File> sessions = new ArrayList<>();
+        for (final File folder : folders) {
+            if (new File(folder, WAYPOINT_LOG_NAME).exists()) {
+                sessions.add(folder);
+                continue;
+            }
+            final File[] dirs = folder.listFiles();
+            if (dirs == null) {continue;}
+            Arrays.sort(dirs);
+            for (final File dir : dirs) {
+                if (new File(dir, WAYPOINT_LOG_NAME).exists()) {sessions.add(dir);}
+            }
+        }
+        return sessions;
+    }
+
+    /** the position log of the given session folder, null if there is none */
+    public static File findPositionLog(final File sessionDir) {
+        final File indexFile = new File(sessionDir, SessionIndex.FILE_NAME);
+        if (indexFile.exists()) {
+            try {
+                final File log = new File(sessionDir, SessionIndex.read(indexFile).getLogName());
+                if (log.exists()) {return log;}
+            } catch (IOException e) {
+                // look for the known names
+            }
+        }
+        for (final String name : POSITION_LOG_NAMES) {
+            final File log = new File(sessionDir, name);
+            if (log.exists()) {return log;}
+        }
+        return null;
+    }
+
+    /** the waypoints with coordinates of the given waypoint log, ordered by timestamp. other lines are skipped */
+    public static List<Match> readWaypoints(final File file) throws IOException {
+        final List<Match> waypoints = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                final String[] parts = line.split(" : ");
+                if (parts.length != 5) {continue;}
+                try {
+                    waypoints.add(new Match(Long.parseLong(parts[0].trim()), parts[1].trim(),
+                            Double.parseDouble(parts[2]), Double.parseDouble(parts[3]), Double.parseDouble(parts[4])));
+                } catch (NumberFormatException e) {
+                    // a label-only line [e.g. from a socket client]
+                }
+            }
+        }
+        Collections.sort(waypoints, new Comparator<Match>() {
+            @Override public int compare(final Match a, final Match b) {return Long.compare(a.timestamp, b.timestamp);}
+        });
+        return waypoints;
+    }
+
+    /** evaluate the given session folder. never throws: a failure is reported within the result */
+    public Result evaluate(final File sessionDir) {
+
+        final Result result = new Result(sessionDir.getName());
+        try {
+
+            result.matches.addAll(readWaypoints(new File(sessionDir, WAYPOINT_LOG_NAME)));
+            final File log = findPositionLog(sessionDir);
+            if (log == null) {throw new IOException("no position log");}
+            result.logName = log.getName();
+
+            try (PositionReader in = PositionLogConverter.open(log)) {
+                match(in, result.matches);
+                result.records = in.getNumRecords();
+                result.truncated = in.isTruncated();
+            }
+
+        } catch (IOException e) {
+            result.error = e.getMessage();
+        } catch (RuntimeException e) {
+            // a log the readers do not expect [e.g. corrupted beyond the torn tail] must not stop the other sessions
+            result.error = e.toString();
+        }
+        return result;
+
+    }
+
+    /** interpolate the estimates of the given waypoints [ordered by timestamp] from the given log. stops after the last waypoint */
+    void match(final PositionReader in, final List<Match> waypoints) throws IOException {
+
+        int next = 0;
+        boolean hasPrev = false;
+        long prevTS = 0;
+        double prevX = 0, prevY = 0, prevZ = 0;
+
+        while (next < waypoints.size() && in.next()) {
+
+            final long ts = in.getTimestamp();
+            final double x = in.getX(), y = in.getY(), z = in.getZ();
+            if (Double.isNaN(x) || Double.isNaN(y)) {continue;}
+            if (hasPrev && ts < prevTS) {hasPrev = false;}   // the clock was set back
+
+            for (; next < waypoints.size() && waypoints.get(next).timestamp <= ts; ++next) {
+                final Match m = waypoints.get(next);
+                if (m.timestamp == ts) {
+                    m.estX = x; m.estY = y; m.estZ = z;
+                } else if (hasPrev && m.timestamp >= prevTS && ts - prevTS <= maxGapMs) {
+                    final double f = (double) (m.timestamp - prevTS) / (ts - prevTS);
+                    m.estX = prevX + f * (x - prevX);
+                    m.estY = prevY + f * (y - prevY);
+                    m.estZ = prevZ + f * (z - prevZ);
+                }
+            }
+
+            hasPrev = true;
+            prevTS = ts;
+            prevX = x; prevY = y; prevZ = z;
+
+        }
+
+    }
+
+    /** evaluate the given session folders on the given pool. the results are in the order of the folders */
+    public Result[] evaluate(final List<File> sessionDirs, final ForkJoinPool pool) {
+        final Result[] results = new Result[sessionDirs.size()];
+        pool.invoke(new EvaluateTask(sessionDirs, results, 0, results.length));
+        return results;
+    }
+
+    /** evaluates the sessions [from, to) by splitting the range in halves down to single sessions */
+    private class EvaluateTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<File> sessionDirs;
+        private final Result[] results;
+        private final int from, to;
+
+        EvaluateTask(final List<File> sessionDirs, final Result[] results, final int from, final int to) {
+            this.sessionDirs = sessionDirs;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) {results[from] = evaluate(sessionDirs.get(from));}
+                return;
+            }
+            final int mid = (from + to) >>> 1;
+            invokeAll(new EvaluateTask(sessionDirs, results, from, mid), new EvaluateTask(sessionDirs, results, mid, to));
+        }
+
+    }
+
+    /** the horizontal errors of the matched waypoints, sorted */
+    private static double[] errors(final List<Match> matches) {
+        final double[] errors = new double[matches.size()];
+        int n = 0;
+        for (final Match m : matches) {if (m.isMatched()) {errors[n++] = m.getError();}}
+        final double[] sorted = Arrays.copyOf(errors, n);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /** the p-quantile [nearest rank] of the given sorted values, NaN if there are none */
+    public static double percentile(final double[] sorted, final double p) {
+        if (sorted.length == 0) {return Double.NaN;}
+        final int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.min(Math.max(rank, 1), sorted.length) - 1];
+    }
+
+    /** the mean of the given values, NaN if there are none */
+    public static double mean(final double[] values) {
+        double sum = 0;
+        for (final double v : values) {sum += v;}
+        return (values.length == 0) ? Double.NaN : sum / values.length;
+    }
+
+    private static String format(final double value) {
+        return Double.isNaN(value) ? "-" : String.format(Locale.US, "%.3f", value);
+    }
+
+    /** print the per-session, overall, per-waypoint and CDF tables of the given results */
+    public static void print(final Result[] results, final PrintStream out) {
+
+        final List<Match> all = new ArrayList<>();
+        out.println("folder\tlog\trecords.read\twaypoints\tmatched\tmean\tp50\tp90\tmax");
+        for (final Result r : results) {
+            if (r.error != null) {
+                out.println(r.folder + "\t-\t0\t" + r.matches.size() + "\t0\t-\t-\t-\t-");
+                continue;
+            }
+            final double[] e = r.getErrors();
+            out.println(r.folder + '\t' + r.logName + (r.truncated ? " [truncated]" : "") + '\t' + r.records +
+                    '\t' + r.matches.size() + '\t' + e.length + '\t' + format(mean(e)) + '\t' + format(percentile(e, 0.5)) +
+                    '\t' + format(percentile(e, 0.9)) + '\t' + format(percentile(e, 1)));
+            all.addAll(r.matches);
+        }
+
+        final double[] e = errors(all);
+        double sumSq = 0, sumZ = 0;
+        int numZ = 0;
+        for (final double v : e) {sumSq += v * v;}
+        for (final Match m : all) {
+            final double dz = m.getErrorZ();
+            if (!Double.isNaN(dz)) {sumZ += dz; ++numZ;}
+        }
+        out.println();
+        out.println("waypoints\tmatched\tmean\trmse\tp50\tp75\tp90\tp95\tmax\tmean.z");
+        out.println(all.size() + "\t" + e.length + '\t' + format(mean(e)) + '\t' + format(e.length == 0 ? Double.NaN : Math.sqrt(sumSq / e.length)) +
+                '\t' + format(percentile(e, 0.5)) + '\t' + format(percentile(e, 0.75)) + '\t' + format(percentile(e, 0.9)) +
+                '\t' + format(percentile(e, 0.95)) + '\t' + format(percentile(e, 1)) + '\t' + format(numZ == 0 ? Double.NaN : sumZ / numZ));
+
+        final Map<String, List<Match>> byLabel = new LinkedHashMap<>();
+        for (final Match m : all) {
+            List<Match> list = byLabel.get(m.label);
+            if (list == null) {byLabel.put(m.label, list = new ArrayList<>());}
+            list.add(m);
+        }
+        out.println();
+        out.println("label\twaypoints\tmatched\tmean\tp50\tmax");
+        for (final Map.Entry<String, List<Match>> entry : byLabel.entrySet()) {
+            final double[] le = errors(entry.getValue());
+            out.println(entry.getKey() + '\t' + entry.getValue().size() + '\t' + le.length + '\t' + format(mean(le)) +
+                    '\t' + format(percentile(le, 0.5)) + '\t' + format(percentile(le, 1)));
+        }
+
+        out.println();
+        out.println("error\tcdf");
+        int below = 0;
+        for (int step = 1; e.length > 0; ++step) {
+            final double limit = step * CDF_STEP;
+            while (below < e.length && e[below] <= limit) {++below;}
+            out.println(format(limit) + '\t' + String.format(Locale.US, "%.3f", (double) below / e.length));
+            if (below == e.length) {break;}
+        }
+
+    }
+
+    /** write one line per waypoint of the given results into the given file */
+    public static void writeDetails(final Result[] results, final File file) throws IOException {
+        final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), CHARSET));
+        try {
+            out.write("# folder timestamp label x y z estX estY estZ error errorZ\n");
+            for (final Result r : results) {
+                for (final Match m : r.matches) {
+                    out.write(r.folder.replace(' ', '_') + ' ' + m.timestamp + ' ' + m.label.replace(' ', '_') + ' ' +
+                            format(m.x) + ' ' + format(m.y) + ' ' + format(m.z) + ' ' +
+                            format(m.estX) + ' ' + format(m.estY) + ' ' + format(m.estZ) + ' ' +
+                            format(m.getError()) + ' ' + format(m.getErrorZ()) + '\n');
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public static void main(final String[] args) throws IOException {
+
+        final List<File> folders = new ArrayList<>();
+        long gap = DEFAULT_MAX_GAP_MS;
+        int threads = Runtime.getRuntime().availableProcessors();
+        File details = null;
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                switch (args[i]) {
+                    case "-gap":     gap = Long.parseLong(args[++i]); break;
+                    case "-threads": threads = Integer.parseInt(args[++i]); break;
+                    case "-details": details = new File(args[++i]); break;
+                    default:         folders.add(new File(args[i])); break;
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            folders.clear();
+        }
+        if (folders.isEmpty() || threads < 1 || gap < 0) {
+            System.err.println("usage: SessionEvaluator <logFolder|sessionFolder>... [-gap <ms>] [-threads <n>] [-details <file>]");
+            System.exit(1);
+        }
+
+        final long startNanos = System.nanoTime();
+        final List<File> sessions = findSessions(folders.toArray(new File[0]));
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        final Result[] results;
+        try {
+            results = new SessionEvaluator(gap).evaluate(sessions, pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        print(results, System.out);
+        if (details != null) {writeDetails(results, details);}
+
+        int failed = 0;
+        for (final Result r : results) {
+            if (r.error != null) {
+                System.err.println(r.folder + ": " + r.error);
+                ++failed;
+            }
+        }
+        System.err.println(results.length + " sessions evaluated in " + (System.nanoTime() - startNanos) / 1000000 + " ms on " + threads + " threads" +
+                ((failed > 0) ? ", " + failed + " failed" : ""));
+
+    }
+
+}
@@ -0,0 +1,377 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * small summary of a session's position log, kept up to date while the session runs [index.log]:
+ *
+ *   key = value lines: log name, records, time range, bounding box, number of waypoints, whether the session was closed
+ *   waypoint [timestamp] [label]
+ *
+ * and its checkpoints, within a file next to it [index.log.checkpoints]:
+ *
+ *   checkpoint [records] [timestamp] [offset]
+ *
+ * a checkpoint is taken every n records: the number of records before it, the receive timestamp of the next record,
+ * and the position log's size when that record was encoded. there, a text or binary log continues with the record,
+ * a compressed log with the block that holds it. [columnar chunks depend on each other: only records and time are useful]
+ *
+ * the index is replaced atomically, so readers [e.g. the {@link SessionCatalog}] never see a partial index.
+ * the checkpoints grow with the log: new ones are appended, so a write costs the same no matter how long the session runs.
+ * a torn last checkpoint [killed process] is ignored when reading. version 1 indexes hold their checkpoints inline.
+ * updated by the writer thread [records] and the main thread [waypoints].
+ */
+public class SessionIndex {
+
+    /** the name of the index within the session folder */
+    public static final String FILE_NAME = "index.log";
+
+    /** appended to the index's name for the file holding the checkpoints */
+    public static final String CHECKPOINTS_SUFFIX = ".checkpoints";
+
+    public static final int VERSION = 2;
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /** one waypoint reached */
+    public static class Waypoint {
+        public final long timestamp;
+        public final String label;
+
+        /** ctor */
+        public Waypoint(final long timestamp, final String label) {
+            this.timestamp = timestamp;
+            this.label = label;
+        }
+    }
+
+    /** the position of every n-th record */
+    public static class Checkpoint {
+        public final long records;
+        public final long timestamp;
+        public final long offset;
+
+        /** ctor */
+        public Checkpoint(final long records, final long timestamp, final long offset) {
+            this.records = records;
+            this.timestamp = timestamp;
+            this.offset = offset;
+        }
+    }
+
+    /** the name of the position log within the session folder */
+    private final String logName;
+
+    /** records between two checkpoints */
+    private final int checkpointInterval;
+
+    private long records = 0;
+    private long firstTS = LogSink.NO_TIMESTAMP;
+    private long lastTS = LogSink.NO_TIMESTAMP;
+
+    /** the bounding box of all non-NaN coordinates. NaN while there is none */
+    private double minX = Double.NaN, maxX = Double.NaN;
+    private double minY = Double.NaN, maxY = Double.NaN;
+    private double minZ = Double.NaN, maxZ = Double.NaN;
+
+    private final List<Waypoint> waypoints = new ArrayList<>();
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+
+    /** whether the session was closed properly */
+    private boolean complete = false;
+
+    /** whether anything changed since the last write, and when that was */
+    private boolean dirty = true;
+    private long lastWriteTS = 0;
+
+    /** the number of checkpoints within the checkpoint file [-1 = not created yet]. guarded by fileLock */
+    private int numCheckpointsWritten = -1;
+
+    /** serializes the writes of the files [held without the lock on this, so records are not delayed by the I/O] */
+    private final Object fileLock = new Object();
+
+
+    /** ctor. a checkpoint is taken every checkpointInterval records */
+    public SessionIndex(final String logName, final int checkpointInterval) {
+        if (checkpointInterval <= 0) {throw new IllegalArgumentException("checkpoint interval must be positive: " + checkpointInterval);}
+        this.logName = logName;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /** a record with the given receive timestamp and position is encoded, the log has the given size [writer thread] */
+    public synchronized void onRecord(final long timestamp, final double x, final double y, final double z, final long offset) {
+        if (records % checkpointInterval == 0) {checkpoints.add(new Checkpoint(records, timestamp, offset));}
+        ++records;
+        if (firstTS == LogSink.NO_TIMESTAMP) {firstTS = timestamp;}
+        lastTS = timestamp;
+        if (!Double.isNaN(x)) {minX = min(minX, x); maxX = max(maxX, x);}
+        if (!Double.isNaN(y)) {minY = min(minY, y); maxY = max(maxY, y);}
+        if (!Double.isNaN(z)) {minZ = min(minZ, z); maxZ = max(maxZ, z);}
+        dirty = true;
+    }
+
+    /** the waypoint with the given label was reached */
+    public synchronized void onWaypoint(final long timestamp, final String label) {
+        waypoints.add(new Waypoint(timestamp, label));
+        dirty = true;
+    }
+
+    /** the session was closed properly */
+    public synchronized void onComplete() {
+        complete = true;
+        dirty = true;
+    }
+
+    private static double min(final double cur, final double v) {
+        return (Double.isNaN(cur) || v < cur) ? v : cur;
+    }
+
+    private static double max(final double cur, final double v) {
+        return (Double.isNaN(cur) || v > cur) ? v : cur;
+    }
+
+    /** write the index if it changed and the last write is at least minIntervalMs old. returns true if it was written */
+    public boolean writeIfDue(final File file, final long minIntervalMs) throws IOException {
+        synchronized (this) {
+            if (!dirty || System.currentTimeMillis() - lastWriteTS < minIntervalMs) {return false;}
+        }
+        write(file);
+        return true;
+    }
+
+    /** the file holding the checkpoints of the given index */
+    public static File getCheckpointFile(final File file) {
+        return new File(file.getPath() + CHECKPOINTS_SUFFIX);
+    }
+
+    /** write the index into the given file, replacing it atomically, and append the new checkpoints to its checkpoint file */
+    public void write(final File file) throws IOException {
+
+        synchronized (fileLock) {
+
+            final StringBuilder sb = new StringBuilder(256);
+            final List<Checkpoint> newCheckpoints;
+            synchronized (this) {
+                sb.append("# steplogger session index\n");
+                sb.append("version = ").append(VERSION).append('\n');
+                sb.append("log = ").append(logName).append('\n');
+                sb.append("complete = ").append(complete).append('\n');
+                sb.append("records = ").append(records).append('\n');
+                sb.append("time.first = ").append(formatTS(firstTS)).append('\n');
+                sb.append("time.last = ").append(formatTS(lastTS)).append('\n');
+                sb.append("x.min = ").append(formatCoordinate(minX)).append('\n');
+                sb.append("x.max = ").append(formatCoordinate(maxX)).append('\n');
+                sb.append("y.min = ").append(formatCoordinate(minY)).append('\n');
+                sb.append("y.max = ").append(formatCoordinate(maxY)).append('\n');
+                sb.append("z.min = ").append(formatCoordinate(minZ)).append('\n');
+                sb.append("z.max = ").append(formatCoordinate(maxZ)).append('\n');
+                sb.append("waypoints = ").append(waypoints.size()).append('\n');
+                sb.append("checkpoints = ").append(checkpoints.size()).append('\n');
+                sb.append("checkpoint.interval = ").append(checkpointInterval).append('\n');
+                for (final Waypoint w : waypoints) {
+                    sb.append("waypoint ").append(w.timestamp).append(' ').append(w.label).append('\n');
+                }
+                newCheckpoints = new ArrayList<>(checkpoints.subList(Math.max(0, numCheckpointsWritten), checkpoints.size()));
+                dirty = false;
+                lastWriteTS = System.currentTimeMillis();
+            }
+
+            // checkpoints first: the index never counts more than the file holds. the first write starts a new file
+            final boolean append = numCheckpointsWritten >= 0;
+            if (!append || !newCheckpoints.isEmpty()) {
+                final StringBuilder cb = new StringBuilder(newCheckpoints.size() * 32);
+                for (final Checkpoint c : newCheckpoints) {
+                    cb.append("checkpoint ").append(c.records).append(' ').append(c.timestamp).append(' ').append(c.offset).append('\n');
+                }
+                try (Writer out = new OutputStreamWriter(new FileOutputStream(getCheckpointFile(file), append), CHARSET)) {
+                    out.write(cb.toString());
+                }
+                numCheckpointsWritten = Math.max(0, numCheckpointsWritten) + newCheckpoints.size();
+            }
+
+            // a tmp file of its own for every write
+            final File tmp = File.createTempFile(file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(tmp), CHARSET)) {
+                out.write(sb.toString());
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("could not replace " + file);
+            }
+
+        }
+
+    }
+
+    /** read the given index and its checkpoints */
+    public static SessionIndex read(final File file) throws IOException {
+
+        final List<String> lines = new ArrayList<>();
+        String logName = null;
+        int interval = 1;
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith("log = ")) {logName = line.substring(6);}
+                if (line.startsWith("checkpoint.interval = ")) {interval = parseInt(file, line.substring(22));}
+                lines.add(line);
+            }
+        }
+        if (logName == null) {throw new IOException(file + ": not a session index");}
+
+        final SessionIndex index = new SessionIndex(logName, interval);
+        for (final String line : lines) {
+            if (line.isEmpty() || line.startsWith("#")) {continue;}
+            try {
+                if (line.startsWith("waypoint ")) {
+                    final int sep = line.indexOf(' ', 9);
+                    index.waypoints.add(new Waypoint(Long.parseLong(line.substring(9, (sep < 0) ? line.length() : sep)), (sep < 0) ? "" : line.substring(sep + 1)));
+                } else if (line.startsWith("checkpoint ")) {
+                    // version 1: inline
+                    index.addCheckpoint(file, line);
+                } else {
+                    final int sep = line.indexOf(" = ");
+                    if (sep < 0) {throw new IOException(file + ": malformed line: " + line);}
+                    index.set(line.substring(0, sep), line.substring(sep + 3));
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException(file + ": malformed line: " + line);
+            }
+        }
+        final File checkpointFile = getCheckpointFile(file);
+        if (checkpointFile.exists()) {
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(checkpointFile), CHARSET))) {
+                String line = br.readLine();
+                while (line != null) {
+                    final String next = br.readLine();
+                    try {
+                        index.addCheckpoint(checkpointFile, line);
+                    } catch (IOException | NumberFormatException e) {
+                        // the last line may be torn
+                        if (next != null) {throw new IOException(checkpointFile + ": malformed line: " + line);}
+                    }
+                    line = next;
+                }
+            }
+        }
+
+        index.dirty = false;
+        return index;
+
+    }
+
+    /** parse the given checkpoint line. a checkpoint that does not follow the previous one is a repeated append and skipped */
+    private void addCheckpoint(final File file, final String line) throws IOException {
+        final String[] parts = line.split(" ");
+        if (parts.length != 4 || !parts[0].equals("checkpoint")) {throw new IOException(file + ": malformed checkpoint: " + line);}
+        final Checkpoint c = new Checkpoint(Long.parseLong(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+        if (checkpoints.isEmpty() || c.records > checkpoints.get(checkpoints.size() - 1).records) {checkpoints.add(c);}
+    }
+
+    private void set(final String key, final String value) {
+        switch (key) {
+            case "complete":    complete = Boolean.parseBoolean(value); break;
+            case "records":     records = Long.parseLong(value); break;
+            case "time.first":  firstTS = CompressedLogReader.parseTS(value); break;
+            case "time.last":   lastTS = CompressedLogReader.parseTS(value); break;
+            case "x.min":       minX = parseCoordinate(value); break;
+            case "x.max":       maxX = parseCoordinate(value); break;
+            case "y.min":       minY = parseCoordinate(value); break;
+            case "y.max":       maxY = parseCoordinate(value); break;
+            case "z.min":       minZ = parseCoordinate(value); break;
+            case "z.max":       maxZ = parseCoordinate(value); break;
+            default:            break;  // version, log, counts: derived or read above. unknown keys: newer versions
+        }
+    }
+
+    private static int parseInt(final File file, final String str) throws IOException {
+        try {
+            return Integer.parseInt(str);
+        } catch (NumberFormatException e) {
+            throw new IOException(file + ": malformed number: " + str);
+        }
+    }
+
+    static String formatTS(final long ts) {
+        return CompressedLogReader.formatTS(ts);
+    }
+
+    static String formatCoordinate(final double value) {
+        return Double.isNaN(value) ? "-" : String.format(Locale.US, "%.3f", value);
+    }
+
+    static double parseCoordinate(final String str) {
+        return str.equals("-") ? Double.NaN : Double.parseDouble(str);
+    }
+
+    /** the name of the position log within the session folder */
+    public String getLogName() {
+        return logName;
+    }
+
+    /** records between two checkpoints */
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    /** receive timestamp of the first record, NO_TIMESTAMP if there is none */
+    public synchronized long getFirstTS() {
+        return firstTS;
+    }
+
+    /** receive timestamp of the last record, NO_TIMESTAMP if there is none */
+    public synchronized long getLastTS() {
+        return lastTS;
+    }
+
+    /** the bounding box of all records [NaN if there are none]: minX, maxX, minY, maxY, minZ, maxZ */
+    public synchronized double[] getBounds() {
+        return new double[] {minX, maxX, minY, maxY, minZ, maxZ};
+    }
+
+    public synchronized List<Waypoint> getWaypoints() {
+        return Collections.unmodifiableList(new ArrayList<>(waypoints));
+    }
+
+    public synchronized List<Checkpoint> getCheckpoints() {
+        return Collections.unmodifiableList(new ArrayList<>(checkpoints));
+    }
+
+    /** the last checkpoint at or before the given receive timestamp, null if there is none */
+    public synchronized Checkpoint findCheckpoint(final long timestamp) {
+        Checkpoint found = null;
+        int lo = 0, hi = checkpoints.size() - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (checkpoints.get(mid).timestamp <= timestamp) {
+                found = checkpoints.get(mid);
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /** whether the session was closed properly */
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+}
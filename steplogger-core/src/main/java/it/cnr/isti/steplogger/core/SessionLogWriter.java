@@ -0,0 +1,184 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * one log-file of a logging session.
+ *
+ * the file is opened [in append mode] once when the session starts and stays open
+ * until the session is destroyed. written records are buffered and pushed to the kernel
+ * according to the given {@link FlushPolicy}, and forced onto the storage device
+ * according to the given {@link DurabilityPolicy}.
+ *
+ * may be used from several threads.
+ */
+public class SessionLogWriter implements LogSink {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /** the file this writer appends to */
+    private final File file;
+
+    /** when to flush */
+    private final FlushPolicy policy;
+
+    /** when to sync */
+    private final DurabilityPolicy durability;
+
+    /** the file stream [to sync] and its buffer. null after close() */
+    private FileOutputStream fos;
+    private OutputStream out;
+
+    /** number of bytes written so far [including headers] */
+    private long bytesWritten = 0;
+
+    /** number of records written since the last flush */
+    private int pendingRecords = 0;
+
+    /** timestamp of the last flush */
+    private long lastFlushTS = System.currentTimeMillis();
+
+    /** number of records written since the last sync */
+    private int unsyncedRecords = 0;
+
+    /** timestamp of the last sync */
+    private long lastSyncTS = lastFlushTS;
+
+    /** number of syncs so far */
+    private long numSyncs = 0;
+
+
+    /** ctor. opens the given file for appending, never syncs */
+    public SessionLogWriter(final File file, final FlushPolicy policy) throws IOException {
+        this(file, policy, DurabilityPolicy.NONE);
+    }
+
+    /** ctor. opens the given file for appending */
+    public SessionLogWriter(final File file, final FlushPolicy policy, final DurabilityPolicy durability) throws IOException {
+        this.file = file;
+        this.policy = policy;
+        this.durability = durability;
+        this.fos = new FileOutputStream(file, true);
+        this.out = new BufferedOutputStream(fos, BUFFER_SIZE);
+    }
+
+    /** the file this writer appends to */
+    @Override
+    public File getFile() {
+        return file;
+    }
+
+    /** the number of bytes written [buffered or not] since the file was opened */
+    @Override
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /** append one record [usually one line] and flush if the policy says so */
+    @Override
+    public synchronized void writeRecord(final String record) throws IOException {
+        final byte[] bytes = record.getBytes(CHARSET);
+        writeRecord(bytes, 0, bytes.length);
+    }
+
+    /** append one encoded record. the timestamp is not needed for a single file */
+    @Override
+    public void writeRecord(final long timestamp, final byte[] buf, final int off, final int len) throws IOException {
+        writeRecord(buf, off, len);
+    }
+
+    /** append one encoded record and flush [or sync] if the policies say so */
+    public synchronized void writeRecord(final byte[] buf, final int off, final int len) throws IOException {
+        ensureOpen();
+        out.write(buf, off, len);
+        bytesWritten += len;
+        ++pendingRecords;
+        ++unsyncedRecords;
+        final long now = System.currentTimeMillis();
+        if (durability.shouldSync(unsyncedRecords, now - lastSyncTS)) {
+            sync();
+        } else if (policy.shouldFlush(pendingRecords, now - lastFlushTS)) {
+            flush();
+        }
+    }
+
+    /** append bytes that are not a record [file headers, checksums]. never triggers a flush */
+    @Override
+    public synchronized void write(final byte[] buf, final int off, final int len) throws IOException {
+        ensureOpen();
+        out.write(buf, off, len);
+        bytesWritten += len;
+    }
+
+    /** flush [or sync] if the policies' interval has elapsed. lets an idle writer push its last records to disk */
+    @Override
+    public synchronized void flushIfDue() throws IOException {
+        if (out == null) {return;}
+        final long now = System.currentTimeMillis();
+        if (durability.shouldSync(unsyncedRecords, now - lastSyncTS)) {
+            sync();
+        } else if (policy.shouldFlush(pendingRecords, now - lastFlushTS)) {
+            flush();
+        }
+    }
+
+    /** a waypoint was logged within this session. flush [or sync] if the policies say so */
+    @Override
+    public synchronized void onWaypoint() throws IOException {
+        if (out == null) {return;}
+        if (durability.onWaypoint()) {
+            sync();
+        } else if (policy.onWaypoint) {
+            flush();
+        }
+    }
+
+    /** push all buffered records to disk */
+    @Override
+    public synchronized void flush() throws IOException {
+        ensureOpen();
+        out.flush();
+        pendingRecords = 0;
+        lastFlushTS = System.currentTimeMillis();
+    }
+
+    /** flush and force all written records onto the storage device [fdatasync] */
+    @Override
+    public synchronized void sync() throws IOException {
+        flush();
+        fos.getChannel().force(false);
+        unsyncedRecords = 0;
+        lastSyncTS = lastFlushTS;
+        ++numSyncs;
+    }
+
+    @Override
+    public synchronized long getNumSyncs() {
+        return numSyncs;
+    }
+
+    /** flush [and sync, if the durability policy says so] and close the file. the writer can not be used afterwards */
+    @Override
+    public synchronized void close() throws IOException {
+        if (out == null) {return;}
+        try {
+            if (durability.onClose()) {sync();} else {out.flush();}
+        } finally {
+            out.close();
+            out = null;
+            fos = null;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (out == null) {throw new IOException("log file already closed: " + file);}
+    }
+
+}
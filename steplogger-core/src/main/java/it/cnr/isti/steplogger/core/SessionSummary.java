@@ -0,0 +1,45 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * human- and machine-readable summary of a logging session [one "key = value" per line],
+ * written into the session folder when the session ends
+ */
+public class SessionSummary {
+
+    private final List<String> lines = new ArrayList<>();
+
+    /** add one entry. entries are written in the order they were added */
+    public SessionSummary put(final String key, final Object value) {
+        lines.add(key + " = " + value);
+        return this;
+    }
+
+    /** add one entry with the given number of decimal places */
+    public SessionSummary put(final String key, final double value, final int decimals) {
+        return put(key, String.format(Locale.US, "%." + decimals + "f", value));
+    }
+
+    /** write all entries into the given file [replacing it] */
+    public void write(final File file) throws IOException {
+        final Writer out = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"));
+        try {
+            for (final String line : lines) {
+                out.write(line);
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+}
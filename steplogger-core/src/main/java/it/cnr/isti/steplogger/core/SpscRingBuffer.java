@@ -0,0 +1,183 @@
+package it.cnr.isti.steplogger.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * single-producer/single-consumer ring of fixed-size position records within a {@link ByteBuffer}.
+ *
+ * the buffer may be shared between two processes [e.g. an android SharedMemory region]:
+ * the client app is the only producer, the service's writer thread the only consumer.
+ * both sides create their own instance over the same memory, so all state lives within the buffer:
+ *
+ * <pre>
+ *   0: magic "SLRB" [int], version [short], reserved [short], capacity [int], record size [int]
+ *  64: head, the number of records ever written [long, written by the producer only]
+ * 128: tail, the number of records ever read [long, written by the consumer only]
+ * 192: capacity records of: clientTS [long], x, y, z [double]
+ * </pre>
+ *
+ * head and tail use separate cache lines, so producer and consumer do not invalidate each other's line.
+ * each side caches the other side's index and only re-reads it when the ring seems full/empty.
+ *
+ * [java 8 has no ordered access to buffer memory. a volatile write followed by a volatile read
+ *  acts as full fence on all common JVMs and ART, and is placed between writing the records
+ *  and publishing the index, and between reading the index and reading the records]
+ */
+public class SpscRingBuffer {
+
+    /** "SLRB" */
+    public static final int MAGIC = 0x534C5242;
+
+    public static final short VERSION = 1;
+
+    /** bytes per record */
+    public static final int RECORD_SIZE = 32;
+
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_CAPACITY = 8;
+    private static final int OFFSET_RECORD_SIZE = 12;
+    private static final int OFFSET_HEAD = 64;
+    private static final int OFFSET_TAIL = 128;
+
+    /** where the first record starts */
+    public static final int HEADER_SIZE = 192;
+
+    private final ByteBuffer buf;
+    private final int capacity;
+    private final int mask;
+
+    /** producer: the next record to write. consumer: the last head that was read */
+    private long head;
+
+    /** consumer: the next record to read. producer: the last tail that was read */
+    private long tail;
+
+    /** only used to create memory fences. static: the JIT may drop the barriers of a non-escaping instance */
+    private static volatile int fence;
+
+
+    private SpscRingBuffer(final ByteBuffer buf, final int capacity) {
+        this.buf = buf;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.head = buf.getLong(OFFSET_HEAD);
+        this.tail = buf.getLong(OFFSET_TAIL);
+    }
+
+    /** the number of bytes a ring with the given capacity needs */
+    public static int getRequiredBytes(final int capacity) {
+        return HEADER_SIZE + capacity * RECORD_SIZE;
+    }
+
+    /** initialize a new, empty ring within the given buffer. capacity must be a power of two */
+    public static SpscRingBuffer create(final ByteBuffer buffer, final int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        if (buffer.capacity() < getRequiredBytes(capacity)) {
+            throw new IllegalArgumentException("buffer too small for " + capacity + " records: " + buffer.capacity() + " bytes");
+        }
+        final ByteBuffer buf = buffer.duplicate().order(ByteOrder.nativeOrder());
+        buf.putInt(OFFSET_MAGIC, MAGIC);
+        buf.putShort(OFFSET_VERSION, VERSION);
+        buf.putInt(OFFSET_CAPACITY, capacity);
+        buf.putInt(OFFSET_RECORD_SIZE, RECORD_SIZE);
+        buf.putLong(OFFSET_HEAD, 0);
+        buf.putLong(OFFSET_TAIL, 0);
+        final SpscRingBuffer ring = new SpscRingBuffer(buf, capacity);
+        SpscRingBuffer.fullFence();
+        return ring;
+    }
+
+    /** attach to a ring that was initialized by {@link #create(ByteBuffer, int)}, e.g. within another process */
+    public static SpscRingBuffer attach(final ByteBuffer buffer) {
+        final ByteBuffer buf = buffer.duplicate().order(ByteOrder.nativeOrder());
+        if (buf.capacity() < HEADER_SIZE || buf.getInt(OFFSET_MAGIC) != MAGIC) {
+            throw new IllegalArgumentException("not a position ring buffer");
+        }
+        if (buf.getShort(OFFSET_VERSION) != VERSION || buf.getInt(OFFSET_RECORD_SIZE) != RECORD_SIZE) {
+            throw new IllegalArgumentException("unsupported ring buffer version " + buf.getShort(OFFSET_VERSION));
+        }
+        final int capacity = buf.getInt(OFFSET_CAPACITY);
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1 || buf.capacity() < getRequiredBytes(capacity)) {
+            throw new IllegalArgumentException("corrupt ring buffer capacity: " + capacity);
+        }
+        return new SpscRingBuffer(buf, capacity);
+    }
+
+    /** the maximum number of records within the ring */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** producer only: append one position. returns false if the ring is full */
+    public boolean offer(final long clientTS, final double x, final double y, final double z) {
+
+        if (head - tail >= capacity) {
+            // re-read the consumer's progress
+            tail = buf.getLong(OFFSET_TAIL);
+            fullFence();
+            if (head - tail >= capacity) {return false;}
+        }
+
+        final int pos = HEADER_SIZE + (int) (head & mask) * RECORD_SIZE;
+        buf.putLong(pos, clientTS);
+        buf.putDouble(pos + 8, x);
+        buf.putDouble(pos + 16, y);
+        buf.putDouble(pos + 24, z);
+
+        // the record must be visible before the new head
+        fullFence();
+        buf.putLong(OFFSET_HEAD, ++head);
+        return true;
+
+    }
+
+    /**
+     * consumer only: move up to batch.capacity() records into the given batch, all stamped with the given receive times.
+     * returns the number of records [0 if the ring is empty].
+     * throws an IllegalStateException if the producer wrote an impossible head.
+     */
+    public int drainTo(final PositionBatch batch, final long receiveTS, final long receiveNanos) {
+
+        batch.size = 0;
+        if (head == tail) {
+            head = buf.getLong(OFFSET_HEAD);
+            // the records must not be read before the head
+            fullFence();
+            if (head == tail) {return 0;}
+            if (head - tail < 0 || head - tail > capacity) {
+                throw new IllegalStateException("corrupt ring buffer: head " + head + " tail " + tail);
+            }
+        }
+
+        final long enqueueNanos = System.nanoTime();
+        final int cnt = (int) Math.min(head - tail, batch.capacity());
+        for (int i = 0; i < cnt; ++i) {
+            final int pos = HEADER_SIZE + (int) ((tail + i) & mask) * RECORD_SIZE;
+            batch.set(i, buf.getLong(pos), receiveTS, receiveNanos, enqueueNanos,
+                    buf.getDouble(pos + 8), buf.getDouble(pos + 16), buf.getDouble(pos + 24));
+        }
+        batch.size = cnt;
+
+        // the records must be read before their slots are released
+        fullFence();
+        tail += cnt;
+        buf.putLong(OFFSET_TAIL, tail);
+        return cnt;
+
+    }
+
+    /** the number of records that are waiting for the consumer [approximate when called concurrently] */
+    public int size() {
+        return (int) (buf.getLong(OFFSET_HEAD) - buf.getLong(OFFSET_TAIL));
+    }
+
+    private static void fullFence() {
+        fence = 1;
+        if (fence != 1) {throw new AssertionError();}
+    }
+
+}
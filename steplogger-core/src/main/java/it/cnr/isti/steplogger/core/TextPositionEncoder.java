@@ -0,0 +1,146 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * the classic positions.log layout, extended by two columns. one line per position:
+ * timestamp x y z clientTimestamp receiveNanos
+ *
+ * timestamp is the wall-clock receive time [ms], clientTimestamp the value sent by the client
+ * and receiveNanos the monotonic receive time since boot [ns, elapsedRealtimeNanos].
+ *
+ * coordinates are written with a fixed number of decimal places.
+ * all digits are formatted directly into one reused byte buffer,
+ * so encoding a record does not allocate anything in steady state.
+ */
+public class TextPositionEncoder implements PositionEncoder {
+
+    private static final Charset CHARSET = Charset.forName("US-ASCII");
+
+    /** the largest supported number of decimal places. keeps |value| * 10^decimals within a long for sane coordinates */
+    public static final int MAX_DECIMALS = 9;
+
+    private static final long[] POW10 = new long[MAX_DECIMALS + 1];
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i <= MAX_DECIMALS; ++i) {POW10[i] = POW10[i - 1] * 10;}
+    }
+
+    /** one line: three longs [20 chars each], three doubles [at most 24 chars each, incl. the Double.toString() fallback], separators */
+    private static final int MAX_LINE = 20 + 3 * (1 + 24) + 2 * (1 + 20) + 1;
+
+    /** number of decimal places, negative = full Double.toString() precision [allocates] */
+    private final int decimals;
+
+    private final byte[] buf = new byte[MAX_LINE];
+
+    /** scratch space for the digits of one number, written right to left */
+    private final byte[] digits = new byte[20];
+
+    private int pos;
+
+
+    /** ctor. decimals is the number of decimal places, negative for the full Double.toString() precision */
+    public TextPositionEncoder(final int decimals) {
+        if (decimals > MAX_DECIMALS) {throw new IllegalArgumentException("at most " + MAX_DECIMALS + " decimals are supported: " + decimals);}
+        this.decimals = decimals;
+    }
+
+    @Override
+    public void writeHeader(final LogSink out) {
+        // plain text has no header
+    }
+
+    @Override
+    public void encode(final long receiveTS, final long clientTS, final long receiveNanos, final double x, final double y, final double z, final LogSink out) throws IOException {
+
+        if (decimals < 0) {
+            final byte[] line = (String.valueOf(receiveTS) + " " + x + " " + y + " " + z + " " + clientTS + " " + receiveNanos + "\n").getBytes(CHARSET);
+            out.writeRecord(receiveTS, line, 0, line.length);
+            return;
+        }
+
+        pos = 0;
+        appendLong(receiveTS);
+        buf[pos++] = ' ';
+        appendDouble(x);
+        buf[pos++] = ' ';
+        appendDouble(y);
+        buf[pos++] = ' ';
+        appendDouble(z);
+        buf[pos++] = ' ';
+        appendLong(clientTS);
+        buf[pos++] = ' ';
+        appendLong(receiveNanos);
+        buf[pos++] = '\n';
+        out.writeRecord(receiveTS, buf, 0, pos);
+
+    }
+
+    @Override
+    public void flushIfDue(final LogSink out) {
+        // every record is written immediately
+    }
+
+    @Override
+    public void flush(final LogSink out) {
+        // every record is written immediately
+    }
+
+    @Override
+    public void finish(final LogSink out) {
+        // nothing pending
+    }
+
+    private void appendLong(final long value) {
+
+        if (value == Long.MIN_VALUE) {appendString(String.valueOf(value)); return;}
+
+        long v = value;
+        if (v < 0) {
+            buf[pos++] = '-';
+            v = -v;
+        }
+
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        while (n > 0) {buf[pos++] = digits[--n];}
+
+    }
+
+    /** append the value with exactly the configured number of decimal places [rounded half-up, away from zero] */
+    private void appendDouble(final double value) {
+
+        final double scaled = Math.abs(value) * POW10[decimals];
+
+        // NaN, infinity or too large for a long: rare, fall back to the allocating variant
+        if (!(scaled < Long.MAX_VALUE)) {appendString(String.valueOf(value)); return;}
+
+        long v = Math.round(scaled);
+        if (value < 0 && v != 0) {buf[pos++] = '-';}
+
+        int n = 0;
+        for (int i = 0; i < decimals; ++i) {
+            digits[n++] = (byte) ('0' + (v % 10));
+            v /= 10;
+        }
+        if (decimals > 0) {digits[n++] = '.';}
+        do {
+            digits[n++] = (byte) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        while (n > 0) {buf[pos++] = digits[--n];}
+
+    }
+
+    private void appendString(final String str) {
+        final byte[] bytes = str.getBytes(CHARSET);
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        pos += bytes.length;
+    }
+
+}
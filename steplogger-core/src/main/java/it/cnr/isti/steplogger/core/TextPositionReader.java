@@ -0,0 +1,111 @@
+package it.cnr.isti.steplogger.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+/**
+ * reads a text position log [see {@link TextPositionEncoder}] line by line:
+ * timestamp x y z [clientTimestamp receiveNanos]
+ *
+ * the original four-column lines are read, too. a malformed line ends the log [it is reported as truncated],
+ * as does the zero-filled tail of an unfinished log segment.
+ */
+public class TextPositionReader implements PositionReader {
+
+    private static final Charset CHARSET = Charset.forName("US-ASCII");
+
+    private final BufferedReader in;
+
+    private long timestamp;
+    private double x, y, z;
+    private long clientTimestamp;
+    private long receiveNanos;
+    private boolean hasClientTimestamps;
+
+    private long numRecords = 0;
+    private boolean truncated = false;
+
+
+    /** ctor */
+    public TextPositionReader(final InputStream in) {
+        this.in = new BufferedReader(new InputStreamReader(in, CHARSET), 64 * 1024);
+    }
+
+    @Override
+    public boolean next() throws IOException {
+
+        final String line = in.readLine();
+        if (line == null) {return false;}
+        if (line.isEmpty() || line.charAt(0) == 0) {
+            truncated = true;
+            return false;
+        }
+
+        try {
+            int start = 0;
+            int end = line.indexOf(' ');
+            timestamp = Long.parseLong(line.substring(start, end));
+            start = end + 1; end = line.indexOf(' ', start);
+            x = Double.parseDouble(line.substring(start, end));
+            start = end + 1; end = line.indexOf(' ', start);
+            y = Double.parseDouble(line.substring(start, end));
+            start = end + 1; end = line.indexOf(' ', start);
+            if (end < 0) {
+                z = Double.parseDouble(line.substring(start));
+                hasClientTimestamps = false;
+                clientTimestamp = timestamp;
+                receiveNanos = 0;
+            } else {
+                z = Double.parseDouble(line.substring(start, end));
+                start = end + 1; end = line.indexOf(' ', start);
+                clientTimestamp = Long.parseLong(line.substring(start, end));
+                receiveNanos = Long.parseLong(line.substring(end + 1));
+                hasClientTimestamps = true;
+            }
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            truncated = true;
+            return false;
+        }
+
+        ++numRecords;
+        return true;
+
+    }
+
+    @Override public long getTimestamp() {return timestamp;}
+    @Override public double getX() {return x;}
+    @Override public double getY() {return y;}
+    @Override public double getZ() {return z;}
+    @Override public long getClientTimestamp() {return clientTimestamp;}
+    @Override public long getReceiveNanos() {return receiveNanos;}
+
+    @Override
+    public boolean hasClientTimestamps() {
+        return hasClientTimestamps;
+    }
+
+    @Override
+    public long getNumRecords() {
+        return numRecords;
+    }
+
+    @Override
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /** text logs have no checksums */
+    @Override
+    public boolean hasUnverifiedTail() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+}
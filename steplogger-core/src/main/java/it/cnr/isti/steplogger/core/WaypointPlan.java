@@ -0,0 +1,111 @@
+package it.cnr.isti.steplogger.core;
+
+/**
+ * the waypoints of one walk, as configured within the "counter" property of the config.ini:
+ * comma-separated entries, each entry colon-separated as label:x:y:z
+ * [further fields are accepted and ignored, like the original app did]
+ *
+ * the plan is parsed and validated once. every waypoint keeps its log line without the timestamp,
+ * so logging a waypoint click only prepends the time.
+ */
+public class WaypointPlan {
+
+    /** the config.ini property that holds the plan */
+    public static final String PROPERTY = "counter";
+
+    /** one entry of the plan */
+    public static final class Waypoint {
+
+        /** the label [shown on the overlay button] */
+        public final String label;
+
+        /** the ground-truth position [z: height or floor, as used by the positioning system] */
+        public final double x;
+        public final double y;
+        public final double z;
+
+        /** the raw config entry */
+        private final String entry;
+
+        /** " : label : x : y : z\n", the log line after the timestamp. fields as configured, further fields left out */
+        private final String lineSuffix;
+
+        private Waypoint(final String entry, final String[] fields, final double x, final double y, final double z) {
+            this.entry = entry;
+            this.label = fields[0];
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.lineSuffix = " : " + fields[0] + " : " + fields[1] + " : " + fields[2] + " : " + fields[3] + "\n";
+        }
+
+    }
+
+    private final Waypoint[] waypoints;
+
+
+    private WaypointPlan(final Waypoint[] waypoints) {
+        this.waypoints = waypoints;
+    }
+
+    /** parse and validate the value of the "counter" property. throws an IllegalArgumentException describing the first bad entry */
+    public static WaypointPlan parse(final String counter) {
+        if (counter == null) {throw new IllegalArgumentException("no waypoint plan configured");}
+        final String[] entries = counter.split(",");
+        final Waypoint[] waypoints = new Waypoint[entries.length];
+        for (int i = 0; i < entries.length; ++i) {
+            waypoints[i] = parseEntry(i, entries[i]);
+        }
+        return new WaypointPlan(waypoints);
+    }
+
+    private static Waypoint parseEntry(final int index, final String entry) {
+        final String[] fields = entry.split(":", -1);
+        if (fields.length < 4) {
+            throw new IllegalArgumentException("waypoint " + (index + 1) + " is not label:x:y:z: '" + entry + "'");
+        }
+        if (fields[0].trim().isEmpty()) {
+            throw new IllegalArgumentException("waypoint " + (index + 1) + " has no label: '" + entry + "'");
+        }
+        return new Waypoint(entry, fields,
+                parseCoordinate(index, entry, fields[1]),
+                parseCoordinate(index, entry, fields[2]),
+                parseCoordinate(index, entry, fields[3]));
+    }
+
+    private static double parseCoordinate(final int index, final String entry, final String field) {
+        try {
+            final double value = Double.parseDouble(field);
+            if (Double.isNaN(value) || Double.isInfinite(value)) {throw new NumberFormatException();}
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("waypoint " + (index + 1) + " has a bad coordinate '" + field + "': '" + entry + "'");
+        }
+    }
+
+    /** the number of waypoints */
+    public int size() {
+        return waypoints.length;
+    }
+
+    /** the given waypoint */
+    public Waypoint get(final int index) {
+        return waypoints[index];
+    }
+
+    /** the raw config entry of the given waypoint */
+    public String getEntry(final int index) {
+        return waypoints[index].entry;
+    }
+
+    /** the label of the given waypoint [shown on the overlay button] */
+    public String getLabel(final int index) {
+        return waypoints[index].label;
+    }
+
+    /** the line to write into the waypoint log when the given waypoint is reached at the given time */
+    public String formatLogLine(final int index, final long timestamp) {
+        return timestamp + waypoints[index].lineSuffix;
+    }
+
+}
@@ -0,0 +1,94 @@
+package it.cnr.isti.steplogger.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * window and whole-session values, and arrivals from several threads at once
+ */
+public class ArrivalStatsTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void windowAndSession() {
+        final ArrivalStats stats = new ArrivalStats(10000, 500, 64);
+        // 2 Hz for 60 s, then silence
+        for (int i = 0; i <= 120; ++i) {stats.onArrival(i * 500 * MS, 1);}
+        // one gap of 2 s
+        stats.onArrival(62000 * MS, 1);
+
+        final ArrivalStats.Snapshot s = new ArrivalStats.Snapshot();
+        stats.snapshot(62000 * MS, s);
+        assertEquals(122, s.numTotal);
+        // window: 52..60 s, 62 s
+        assertEquals(17 + 1, s.numWindow);
+        assertEquals(500, s.p50IntervalMs, 0);
+        assertEquals(2000, s.maxIntervalMs, 0);
+        assertEquals(1, s.numGaps);
+        assertEquals(4, s.numMissedDeadlines);
+        assertEquals(2000, s.maxGapMs, 0);
+        // session: 121 positions after the first one within 62 s
+        assertEquals(121 / 62.0, s.sessionRateHz, 1e-9);
+        assertEquals(62000 / 121.0, s.sessionMeanIntervalMs, 1e-9);
+        assertEquals(500, s.sessionMinIntervalMs, 0);
+        assertEquals(500, s.sessionP50IntervalMs, 500 * 0.04);
+        assertEquals(500, s.sessionP99IntervalMs, 500 * 0.04);
+
+        // a quiet session: the window is empty, the session values remain
+        stats.snapshot(3600000 * MS, s);
+        assertEquals(0, s.numWindow);
+        assertEquals(0, s.rateHz, 0);
+        assertEquals(121 / 62.0, s.sessionRateHz, 1e-9);
+    }
+
+    @Test
+    public void batchedArrivals() {
+        final ArrivalStats stats = new ArrivalStats(10000, 500, 64);
+        for (int i = 0; i < 11; ++i) {stats.onArrival(i * 1000 * MS, 20);}
+        final ArrivalStats.Snapshot s = new ArrivalStats.Snapshot();
+        stats.snapshot(10000 * MS, s);
+        assertEquals(220, s.numTotal);
+        assertEquals(11, s.numArrivals);
+        assertEquals(20, s.rateHz, 1e-9);
+        assertEquals(20, s.sessionRateHz, 1e-9);
+        // gaps are measured between the batches
+        assertEquals(10, s.numGaps);
+        assertEquals(20, s.numMissedDeadlines);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroDeadlineRejected() {
+        new ArrivalStats(10000, 0, 64);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroWindowRejected() {
+        new ArrivalStats(0, 500, 64);
+    }
+
+    @Test
+    public void concurrentArrivals() throws InterruptedException {
+        final ArrivalStats stats = new ArrivalStats(60000, 500, 4096);
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t] = new Thread(new Runnable() {
+                @Override public void run() {
+                    for (int i = 0; i < 100000; ++i) {stats.onArrival(System.nanoTime(), 1);}
+                }
+            });
+            threads[t].start();
+        }
+        final ArrivalStats.Snapshot s = new ArrivalStats.Snapshot();
+        // snapshots while the arrivals run
+        for (int i = 0; i < 100; ++i) {stats.snapshot(System.nanoTime(), s);}
+        for (final Thread thread : threads) {thread.join();}
+        stats.snapshot(System.nanoTime(), s);
+        assertEquals(400000, s.numTotal);
+        // the window holds the last 4096 arrivals. a slot whose older arrival was published last [preempted thread] is skipped
+        assertTrue("window " + s.numWindow, s.numWindow > 4000 && s.numWindow <= 4096);
+    }
+
+}
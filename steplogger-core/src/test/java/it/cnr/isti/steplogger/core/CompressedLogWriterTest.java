@@ -0,0 +1,40 @@
+package it.cnr.isti.steplogger.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * record durability syncs once per compressed block, not once per record
+ */
+public class CompressedLogWriterTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final int BLOCK_SIZE = 1024;
+
+    @Test
+    public void recordDurabilitySyncsPerBlock() throws IOException {
+        final File file = tmp.newFile("positions.log.gz");
+        final CompressedLogWriter writer = new CompressedLogWriter(file, BLOCK_SIZE, 6, new FlushPolicy(1, 0, true), DurabilityPolicy.RECORD);
+        // 32 bytes per record: a block is full after 32 records
+        final String record = "1700000000000 1.000000 2.000000\n";
+        for (int i = 0; i < 1000; ++i) {writer.writeRecord(1700000000000L + i, record.getBytes("UTF-8"), 0, record.length());}
+        assertEquals(1000 / (BLOCK_SIZE / record.length()), writer.getNumSyncs());
+
+        // a requested waypoint sync finishes the partial block
+        writer.onWaypoint();
+        writer.flushIfDue();
+        assertEquals(1000 / (BLOCK_SIZE / record.length()) + 1, writer.getNumSyncs());
+        writer.close();
+        assertTrue(file.length() < 1000L * record.length() / 2);
+    }
+
+}
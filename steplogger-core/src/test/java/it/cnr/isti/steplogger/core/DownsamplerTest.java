@@ -0,0 +1,93 @@
+package it.cnr.isti.steplogger.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * keep/drop decisions of the rate, distance and averaging downsamplers, and what finish() flushes
+ */
+public class DownsamplerTest {
+
+    /** collects the emitted positions as {clientTS, receiveTS, x, y, z} */
+    private static class Collector implements Downsampler.Output {
+        final List<double[]> emitted = new ArrayList<>();
+        @Override public void emit(long receiveTS, long clientTS, long receiveNanos, double x, double y, double z) {
+            emitted.add(new double[] {clientTS, receiveTS, x, y, z});
+        }
+    }
+
+    @Test
+    public void rateKeepsOnePerInterval() throws IOException {
+        final Downsampler downsampler = new RateDownsampler(10);
+        final Collector out = new Collector();
+        // 50 Hz for one second: one position every 100 ms is kept
+        for (int i = 0; i < 50; ++i) {downsampler.offer(5000 + i, 1000 + i * 20, 0, i, 0, 0, out);}
+        assertEquals(10, out.emitted.size());
+        assertEquals(1000, out.emitted.get(0)[0], 0);
+        assertEquals(1100, out.emitted.get(1)[0], 0);
+
+        // a client clock restart keeps the position and restarts the intervals from there
+        downsampler.offer(6000, 10, 0, 0, 0, 0, out);
+        downsampler.offer(6001, 50, 0, 0, 0, 0, out);
+        assertEquals(11, out.emitted.size());
+        assertEquals(10, out.emitted.get(10)[0], 0);
+
+        downsampler.finish(out);
+        assertEquals(11, out.emitted.size());
+    }
+
+    @Test
+    public void distanceKeepsMovedPositions() throws IOException {
+        final Downsampler downsampler = new DistanceDownsampler(1.0);
+        final Collector out = new Collector();
+        downsampler.offer(0, 0, 0, 0, 0, 0, out);
+        // standing still, then within 1 m of the last kept position
+        downsampler.offer(1, 1, 0, 0, 0, 0, out);
+        downsampler.offer(2, 2, 0, 0.5, 0.5, 0.5, out);
+        // more than 1 m away [in 3d], then close to that one
+        downsampler.offer(3, 3, 0, 0.6, 0.8, 0.1, out);
+        downsampler.offer(4, 4, 0, 1.0, 1.0, 0, out);
+        assertEquals(2, out.emitted.size());
+        assertEquals(3, out.emitted.get(1)[0], 0);
+
+        downsampler.finish(out);
+        assertEquals(2, out.emitted.size());
+    }
+
+    @Test
+    public void averagingEmitsOnePerBucket() throws IOException {
+        final Downsampler downsampler = new AveragingDownsampler(1000);
+        final Collector out = new Collector();
+        downsampler.offer(5100, 1000, 0, 0, 0, 0, out);
+        downsampler.offer(5200, 1500, 0, 2, 4, 6, out);
+        assertEquals(0, out.emitted.size());
+
+        // the next bucket closes the first one: mean position and client time, receive time of its last position
+        downsampler.offer(5300, 2200, 0, 10, 10, 10, out);
+        assertEquals(1, out.emitted.size());
+        final double[] first = out.emitted.get(0);
+        assertEquals(1250, first[0], 0);
+        assertEquals(5200, first[1], 0);
+        assertEquals(1, first[2], 0);
+        assertEquals(2, first[3], 0);
+        assertEquals(3, first[4], 0);
+
+        // finish() flushes the open bucket, once
+        downsampler.finish(out);
+        downsampler.finish(out);
+        assertEquals(2, out.emitted.size());
+        assertEquals(2200, out.emitted.get(1)[0], 0);
+        assertEquals(10, out.emitted.get(1)[2], 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroRateRejected() {
+        new RateDownsampler(0);
+    }
+
+}
@@ -0,0 +1,148 @@
+package it.cnr.isti.steplogger.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * a log torn within its last record is cut back to a clean end, and recovering it again changes nothing
+ */
+public class LogRecoveryTest {
+
+    private static final int RECORDS = 200;
+
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    private File write(final String name, final PositionEncoder encoder) throws IOException {
+        final File file = tmp.newFile(name);
+        final SessionLogWriter out = new SessionLogWriter(file, new FlushPolicy(0, 0, false));
+        encoder.writeHeader(out);
+        for (int i = 0; i < RECORDS; ++i) {
+            encoder.encode(1700000000000L + 500L * i, 1700000000000L + 500L * i, i, 0.25 * i, -0.5 * i, 1, out);
+        }
+        encoder.finish(out);
+        out.close();
+        return file;
+    }
+
+    /** cut the given number of bytes off the end of the file, as a crash within the last write would */
+    private static void tear(final File file, final int bytes) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - bytes);
+        }
+    }
+
+    /** the records of the recovered log are the first ones written, and the log ends cleanly */
+    private static long verify(final File file) throws IOException {
+        try (PositionReader in = PositionLogConverter.open(file)) {
+            while (in.next()) {
+                final long i = in.getNumRecords() - 1;
+                assertEquals(1700000000000L + 500L * i, in.getTimestamp());
+                assertEquals(0.25 * i, in.getX(), 1e-3);
+            }
+            assertFalse(in.isTruncated());
+            return in.getNumRecords();
+        }
+    }
+
+    @Test
+    public void truncateText() throws IOException {
+        final File file = write("positions.log", new TextPositionEncoder(3));
+        final long length = file.length();
+        tear(file, 7);
+        assertTrue(LogRecovery.truncateText(file) > 0);
+        assertEquals(0, LogRecovery.truncateText(file));
+        assertTrue(file.length() < length);
+        assertEquals(RECORDS - 1, verify(file));
+    }
+
+    @Test
+    public void truncateTextPartialLine() throws IOException {
+        final File file = write("positions.log", new TextPositionEncoder(3));
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write("1700000100000 1.0".getBytes("US-ASCII"));
+        }
+        assertEquals(17, LogRecovery.truncateText(file));
+        assertEquals(RECORDS, verify(file));
+    }
+
+    @Test
+    public void truncateBinary() throws IOException {
+        final File file = write("positions.bin", new BinaryPositionEncoder(16));
+        tear(file, 5);
+        assertTrue(LogRecovery.truncateBinary(file) > 0);
+        assertEquals(0, LogRecovery.truncateBinary(file));
+        // at most the last checksum block is lost
+        final long records = verify(file);
+        assertTrue("records " + records, records >= RECORDS - 16 && records <= RECORDS);
+    }
+
+    @Test
+    public void truncateBinaryHeader() throws IOException {
+        final File file = write("positions.bin", new BinaryPositionEncoder(16));
+        tear(file, (int) file.length() - 3);
+        assertEquals(3, LogRecovery.truncateBinary(file));
+        assertEquals(0, file.length());
+    }
+
+    @Test
+    public void truncateColumnar() throws IOException {
+        final File file = write("positions.col", new ColumnarPositionEncoder(0.001, 32, 0));
+        tear(file, 3);
+        assertTrue(LogRecovery.truncateColumnar(file) > 0);
+        assertEquals(0, LogRecovery.truncateColumnar(file));
+        // the last chunk is lost as a whole
+        assertEquals(RECORDS - RECORDS % 32, verify(file));
+    }
+
+    @Test
+    public void recoverSegments() throws IOException {
+        final File dir = tmp.newFolder();
+        final SegmentedLogWriter writer = new SegmentedLogWriter(dir, "positions", "log", 100, SegmentedLogWriter.SET_LENGTH);
+        SegmentedLogWriterTest.writeRecords(writer, 12);
+        writer.close();
+
+        // as a crash leaves it: the last segment is unfinished within the manifest, preallocated and torn within a record
+        final File manifestFile = SegmentedLogWriter.getManifestFile(dir, "positions");
+        final SegmentManifest written = SegmentManifest.read(manifestFile);
+        final SegmentManifest crashed = new SegmentManifest();
+        for (final SegmentManifest.Segment s : written.getSegments()) {crashed.add(s);}
+        final SegmentManifest.Segment last = written.getSegments().get(2);
+        assertEquals(2, last.records);
+        last.bytes = -1;
+        last.records = 0;
+        last.firstTS = last.lastTS = LogSink.NO_TIMESTAMP;
+        crashed.write(manifestFile);
+        final File lastFile = new File(dir, last.name);
+        try (FileOutputStream out = new FileOutputStream(lastFile, true)) {
+            out.write("1700000012000 01".getBytes("US-ASCII"));
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(lastFile, "rw")) {
+            raf.setLength(100);
+        }
+
+        assertEquals(100 - 2 * 18, LogRecovery.recoverSegments(dir, "positions"));
+        assertEquals(0, LogRecovery.recoverSegments(dir, "positions"));
+        final SegmentManifest recovered = SegmentManifest.read(manifestFile);
+        final SegmentManifest.Segment s = recovered.getSegments().get(2);
+        assertEquals(2 * 18, s.bytes);
+        assertEquals(2, s.records);
+        assertEquals(1700000010000L, s.firstTS);
+        assertEquals(1700000011000L, s.lastTS);
+        assertEquals(2 * 18, lastFile.length());
+        // the complete segments are untouched
+        assertEquals(5, recovered.getSegments().get(0).records);
+        assertEquals(SegmentedLogWriterTest.expected(12), SegmentedLogWriterTest.concatenated(recovered, dir));
+    }
+
+}
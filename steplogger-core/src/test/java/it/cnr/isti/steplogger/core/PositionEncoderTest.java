@@ -0,0 +1,121 @@
+package it.cnr.isti.steplogger.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * every encoder's log is read back by its reader [format detected by {@link PositionLogConverter#open(File)}]
+ */
+public class PositionEncoderTest {
+
+    private static final int RECORDS = 1000;
+
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    /** write RECORDS positions of a walk with the given encoder */
+    private File write(final String name, final PositionEncoder encoder) throws IOException {
+        return write(name, encoder, 0);
+    }
+
+    /** write RECORDS positions of a walk with the given encoder, flushing it every flushEvery records [0 = never] */
+    private File write(final String name, final PositionEncoder encoder, final int flushEvery) throws IOException {
+        final File file = tmp.newFile(name);
+        final SessionLogWriter out = new SessionLogWriter(file, new FlushPolicy(0, 0, false));
+        encoder.writeHeader(out);
+        for (int i = 0; i < RECORDS; ++i) {
+            encoder.encode(receiveTS(i), receiveTS(i) - 3, 1000000L * i + 17, x(i), y(i), z(i), out);
+            if (flushEvery > 0 && i % flushEvery == 0) {encoder.flush(out);}
+        }
+        encoder.finish(out);
+        out.close();
+        return file;
+    }
+
+    private static long receiveTS(final int i) {return 1700000000000L + 500L * i;}
+    private static double x(final int i) {return -12.5 + 0.123456 * i;}
+    private static double y(final int i) {return 3.0 - 0.0375 * i;}
+    private static double z(final int i) {return (i / 100) * 3.5;}
+
+    /** read the given log back and compare every record, coordinates within delta */
+    private static void verify(final File file, final double delta) throws IOException {
+        try (PositionReader in = PositionLogConverter.open(file)) {
+            for (int i = 0; i < RECORDS; ++i) {
+                assertTrue("record " + i, in.next());
+                assertEquals(receiveTS(i), in.getTimestamp());
+                assertEquals(receiveTS(i) - 3, in.getClientTimestamp());
+                assertEquals(1000000L * i + 17, in.getReceiveNanos());
+                assertEquals(x(i), in.getX(), delta);
+                assertEquals(y(i), in.getY(), delta);
+                assertEquals(z(i), in.getZ(), delta);
+            }
+            assertFalse(in.next());
+            assertTrue(in.hasClientTimestamps());
+            assertEquals(RECORDS, in.getNumRecords());
+            assertFalse(in.isTruncated());
+        }
+    }
+
+    @Test
+    public void textRoundTrip() throws IOException {
+        verify(write("positions.log", new TextPositionEncoder(6)), 0.5e-6);
+    }
+
+    @Test
+    public void textFullPrecisionRoundTrip() throws IOException {
+        verify(write("positions.log", new TextPositionEncoder(-1)), 0);
+    }
+
+    @Test
+    public void binaryRoundTrip() throws IOException {
+        verify(write("positions.bin", new BinaryPositionEncoder(64)), 0);
+    }
+
+    @Test
+    public void columnarRoundTrip() throws IOException {
+        verify(write("positions.col", new ColumnarPositionEncoder(0.001, 37, 0)), 0.0005 + 1e-9);
+    }
+
+    @Test
+    public void columnarFlushWritesShorterChunks() throws IOException {
+        // as on waypoints: the deltas continue across the shorter chunks
+        verify(write("positions.col", new ColumnarPositionEncoder(0.001, 37, 0), 23), 0.0005 + 1e-9);
+
+        final SessionLogWriter out = new SessionLogWriter(tmp.newFile("held.col"), new FlushPolicy(0, 0, false));
+        final ColumnarPositionEncoder encoder = new ColumnarPositionEncoder(0.001, 37, 0);
+        encoder.writeHeader(out);
+        final long header = out.getBytesWritten();
+        encoder.encode(receiveTS(0), receiveTS(0), 17, x(0), y(0), z(0), out);
+        assertEquals(header, out.getBytesWritten());
+        encoder.flush(out);
+        assertTrue(out.getBytesWritten() > header);
+        out.close();
+    }
+
+    @Test
+    public void textFormatsFixedDecimals() throws IOException {
+        final TextPositionEncoder encoder = new TextPositionEncoder(3);
+        final File file = tmp.newFile("positions.log");
+        final SessionLogWriter out = new SessionLogWriter(file, new FlushPolicy(0, 0, false));
+        encoder.encode(1700000000000L, 1699999999999L, 42, -0.0004, 1.0006, -2.5, out);
+        out.close();
+        try (PositionReader in = PositionLogConverter.open(file)) {
+            assertTrue(in.next());
+            assertEquals(0.0, in.getX(), 0);
+            assertEquals(1.001, in.getY(), 0);
+            assertEquals(-2.5, in.getZ(), 0);
+        }
+        assertEquals(1700000000000L + " 0.000 1.001 -2.500 1699999999999 42\n",
+                new String(Files.readAllBytes(file.toPath()), "US-ASCII"));
+    }
+
+}
@@ -0,0 +1,140 @@
+package it.cnr.isti.steplogger.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * what each overflow policy keeps and counts when the queue is full
+ */
+public class PositionQueueTest {
+
+    /** offer the client timestamps 0..count-1 */
+    private static void put(final PositionQueue queue, final int count) throws InterruptedException {
+        for (int i = 0; i < count; ++i) {queue.put(i, 1000 + i, i, i, 2 * i, 3 * i);}
+    }
+
+    /** the client timestamps of all queued records, oldest first */
+    private static long[] drain(final PositionQueue queue) throws InterruptedException {
+        final PositionBatch batch = new PositionBatch(64);
+        final int cnt = queue.drainTo(batch, 0);
+        final long[] ts = new long[Math.max(cnt, 0)];
+        for (int i = 0; i < ts.length; ++i) {
+            ts[i] = batch.clientTS[i];
+            assertEquals(1000 + ts[i], batch.receiveTS[i]);
+            assertEquals(2.0 * ts[i], batch.y[i], 0);
+        }
+        return ts;
+    }
+
+    @Test
+    public void blockWaitsForTheWriter() throws InterruptedException {
+        final PositionQueue queue = new PositionQueue(2, OverflowPolicy.BLOCK, 1);
+        put(queue, 2);
+        final CountDownLatch done = new CountDownLatch(1);
+        final Thread producer = new Thread(new Runnable() {
+            @Override public void run() {
+                try {
+                    queue.put(2, 1002, 2, 2, 4, 6);
+                    done.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        producer.start();
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        assertArrayEquals(new long[] {0, 1}, drain(queue));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertArrayEquals(new long[] {2}, drain(queue));
+        assertEquals(0, queue.getNumDropped());
+        assertEquals(1, queue.getNumDelayed());
+        assertTrue(queue.getBlockedNanos() > 0);
+    }
+
+    @Test
+    public void dropOldestKeepsTheNewest() throws InterruptedException {
+        final PositionQueue queue = new PositionQueue(3, OverflowPolicy.DROP_OLDEST, 1);
+        put(queue, 5);
+        assertArrayEquals(new long[] {2, 3, 4}, drain(queue));
+        assertEquals(2, queue.getNumDropped());
+        assertEquals(0, queue.getNumDelayed());
+        assertEquals(3, queue.getMaxSize());
+    }
+
+    @Test
+    public void dropNewestKeepsTheOldest() throws InterruptedException {
+        final PositionQueue queue = new PositionQueue(3, OverflowPolicy.DROP_NEWEST, 1);
+        put(queue, 5);
+        assertArrayEquals(new long[] {0, 1, 2}, drain(queue));
+        assertEquals(2, queue.getNumDropped());
+    }
+
+    @Test
+    public void decimateKeepsEveryNthWhileHalfFull() throws InterruptedException {
+        final PositionQueue queue = new PositionQueue(4, OverflowPolicy.DECIMATE, 2);
+        put(queue, 8);
+        // 0, 1 below half; 2 kept, 3 dropped, 4 kept; full: 5..7 dropped
+        assertArrayEquals(new long[] {0, 1, 2, 4}, drain(queue));
+        assertEquals(4, queue.getNumDropped());
+    }
+
+    @Test
+    public void decimateWithCapacityOne() throws InterruptedException {
+        // half of 1 is 0: an empty queue must not decimate
+        final PositionQueue queue = new PositionQueue(1, OverflowPolicy.DECIMATE, 4);
+        put(queue, 1);
+        assertArrayEquals(new long[] {0}, drain(queue));
+        put(queue, 3);
+        assertArrayEquals(new long[] {0}, drain(queue));
+        assertEquals(2, queue.getNumDropped());
+    }
+
+    @Test
+    public void configNames() {
+        assertEquals("drop-oldest", OverflowPolicy.DROP_OLDEST.configName());
+        assertEquals(OverflowPolicy.DECIMATE, OverflowPolicy.fromConfigName(" Decimate "));
+    }
+
+    @Test
+    public void putAllAppliesThePolicyPerPosition() throws InterruptedException {
+        final PositionQueue queue = new PositionQueue(3, OverflowPolicy.DROP_OLDEST, 1);
+        final long[] ts = {0, 1, 2, 3, 4};
+        final double[] x = {0, 1, 2, 3, 4};
+        final double[] y = {0, 2, 4, 6, 8};
+        assertEquals(4, queue.putAll(ts, 1000, 0, x, y, x, 1, 4));
+        final PositionBatch batch = new PositionBatch(8);
+        assertEquals(3, queue.drainTo(batch, 0));
+        assertEquals(2, batch.clientTS[0]);
+        assertEquals(4, batch.clientTS[2]);
+        assertEquals(1, queue.getNumDropped());
+    }
+
+    @Test
+    public void wakeUpEndsTheWait() throws InterruptedException {
+        final PositionQueue queue = new PositionQueue(4, OverflowPolicy.DROP_OLDEST, 1);
+        queue.wakeUp();
+        final long start = System.nanoTime();
+        assertEquals(0, queue.drainTo(new PositionBatch(4), 10000));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        // the request is consumed
+        assertEquals(0, queue.drainTo(new PositionBatch(4), 50));
+    }
+
+    @Test
+    public void closedQueueRejectsAndDrains() throws InterruptedException {
+        final PositionQueue queue = new PositionQueue(4, OverflowPolicy.BLOCK, 1);
+        put(queue, 2);
+        queue.close();
+        assertFalse(queue.put(9, 1009, 9, 9, 18, 27));
+        assertArrayEquals(new long[] {0, 1}, drain(queue));
+        assertEquals(-1, queue.drainTo(new PositionBatch(4), 0));
+    }
+
+}
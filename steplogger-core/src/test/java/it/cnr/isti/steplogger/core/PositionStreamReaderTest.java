@@ -0,0 +1,87 @@
+package it.cnr.isti.steplogger.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * positions and waypoints survive the stream, labels that would forge waypoint lines do not
+ */
+public class PositionStreamReaderTest {
+
+    /** collects what the reader decodes */
+    private static class Collector implements PositionStreamReader.Handler {
+        long numPositions = 0;
+        final List<String> waypoints = new ArrayList<>();
+        @Override public void onPositions(long[] timestamps, double[] x, double[] y, double[] z, int count) {numPositions += count;}
+        @Override public void onWaypoint(long timestamp, String label) {waypoints.add(timestamp + " : " + label);}
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final PositionStreamWriter writer = new PositionStreamWriter(bytes, "walk-1", 16);
+        for (int i = 0; i < 40; ++i) {writer.position(1000 + i, i, 2 * i, 0);}
+        writer.waypoint(2000, "corner A");
+        writer.close();
+
+        final PositionStreamReader reader = new PositionStreamReader(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals("walk-1", reader.getSessionId());
+        final Collector collector = new Collector();
+        while (reader.next(collector)) {}
+        assertEquals(40, collector.numPositions);
+        assertEquals(1, collector.waypoints.size());
+        assertEquals("2000 : corner A", collector.waypoints.get(0));
+    }
+
+    @Test
+    public void forgedLabelsRejected() throws IOException {
+        for (final String label : new String[] {"a\n3000 : fake", "a : b", "tab\there"}) {
+            assertFalse(label, PositionStreamFormat.isValidLabel(label));
+            final PositionStreamReader reader = new PositionStreamReader(new ByteArrayInputStream(rawWaypointStream(label)));
+            try {
+                reader.next(new Collector());
+                fail("accepted " + label);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("WAYPOINT"));
+            }
+        }
+        assertTrue(PositionStreamFormat.isValidLabel("a:b"));
+        assertTrue(PositionStreamFormat.isValidLabel(""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void writerRefusesForgedLabels() throws IOException {
+        new PositionStreamWriter(new ByteArrayOutputStream(), "walk-1", 16).waypoint(1000, "x\n");
+    }
+
+    /** a stream holding one WAYPOINT frame with the given label, as a client not using PositionStreamWriter may send it */
+    private static byte[] rawWaypointStream(final String label) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(PositionStreamFormat.MAGIC);
+        out.writeShort(PositionStreamFormat.VERSION);
+        out.writeShort(0);
+        out.writeInt(1 + 1);
+        out.writeByte(PositionStreamFormat.TYPE_HELLO);
+        out.writeByte('s');
+        final byte[] text = label.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(1 + 8 + text.length);
+        out.writeByte(PositionStreamFormat.TYPE_WAYPOINT);
+        out.writeLong(1000);
+        out.write(text);
+        return bytes.toByteArray();
+    }
+
+}
@@ -0,0 +1,113 @@
+package it.cnr.isti.steplogger.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * records never span two segments, the manifest knows every segment's size and time range,
+ * and the concatenated segments are the log
+ */
+public class SegmentedLogWriterTest {
+
+    /** 18 bytes per record: 5 records fit into a segment */
+    private static final long SEGMENT_SIZE = 100;
+    private static final int RECORD_SIZE = 18;
+
+    private static final long BASE_TS = 1700000000000L;
+
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    static String record(final int i) {
+        return String.format(Locale.US, "%d %03d\n", BASE_TS + 1000L * i, i);
+    }
+
+    /** write the given number of records into a new segmented log within dir */
+    static void writeRecords(final SegmentedLogWriter writer, final int num) throws IOException {
+        for (int i = 0; i < num; ++i) {
+            final byte[] bytes = record(i).getBytes("UTF-8");
+            writer.writeRecord(BASE_TS + 1000L * i, bytes, 0, bytes.length);
+        }
+    }
+
+    @Test
+    public void rotation() throws IOException {
+        final File dir = tmp.newFolder();
+        final SegmentedLogWriter writer = new SegmentedLogWriter(dir, "positions", "log", SEGMENT_SIZE, SegmentedLogWriter.SET_LENGTH);
+        writeRecords(writer, 23);
+        assertEquals(5, writer.getNumSegments());
+        assertEquals(23L * RECORD_SIZE, writer.getBytesWritten());
+        writer.close();
+
+        final SegmentManifest manifest = SegmentManifest.read(SegmentedLogWriter.getManifestFile(dir, "positions"));
+        final List<SegmentManifest.Segment> segments = manifest.getSegments();
+        assertEquals(5, segments.size());
+        for (int k = 0; k < segments.size(); ++k) {
+            final SegmentManifest.Segment s = segments.get(k);
+            final int records = (k < 4) ? 5 : 3;
+            assertEquals(String.format(Locale.US, "positions.%04d.log", k), s.name);
+            assertTrue(s.isComplete());
+            assertEquals(records, s.records);
+            assertEquals((long) records * RECORD_SIZE, s.bytes);
+            // the unused tail is cut off
+            assertEquals(s.bytes, new File(dir, s.name).length());
+            assertEquals(BASE_TS + 1000L * 5 * k, s.firstTS);
+            assertEquals(BASE_TS + 1000L * (5 * k + records - 1), s.lastTS);
+        }
+
+        assertEquals(expected(23), concatenated(manifest, dir));
+    }
+
+    @Test
+    public void continuesExistingLog() throws IOException {
+        final File dir = tmp.newFolder();
+        final SegmentedLogWriter first = new SegmentedLogWriter(dir, "positions", "log", SEGMENT_SIZE, SegmentedLogWriter.SET_LENGTH);
+        writeRecords(first, 7);
+        first.close();
+
+        // a second writer starts a new segment after the existing ones
+        final SegmentedLogWriter second = new SegmentedLogWriter(dir, "positions", "log", SEGMENT_SIZE, SegmentedLogWriter.SET_LENGTH);
+        assertEquals(3, second.getNumSegments());
+        second.writeRecord("tail\n");
+        second.close();
+
+        final SegmentManifest manifest = SegmentManifest.read(SegmentedLogWriter.getManifestFile(dir, "positions"));
+        assertEquals(3, manifest.getSegments().size());
+        assertEquals(LogSink.NO_TIMESTAMP, manifest.getSegments().get(2).firstTS);
+        assertEquals(expected(7) + "tail\n", concatenated(manifest, dir));
+    }
+
+    @Test(expected = IOException.class)
+    public void recordLargerThanSegmentRejected() throws IOException {
+        final SegmentedLogWriter writer = new SegmentedLogWriter(tmp.newFolder(), "positions", "log", 16, SegmentedLogWriter.SET_LENGTH);
+        writer.writeRecord(record(0));
+    }
+
+    static String expected(final int num) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < num; ++i) {sb.append(record(i));}
+        return sb.toString();
+    }
+
+    static String concatenated(final SegmentManifest manifest, final File dir) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = manifest.openConcatenated(dir)) {
+            final byte[] buf = new byte[256];
+            int cnt;
+            while ((cnt = in.read(buf)) > 0) {bytes.write(buf, 0, cnt);}
+        }
+        return bytes.toString("UTF-8");
+    }
+
+}
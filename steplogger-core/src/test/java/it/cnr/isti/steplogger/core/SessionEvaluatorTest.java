@@ -0,0 +1,89 @@
+package it.cnr.isti.steplogger.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * estimates at the waypoints are interpolated between the records around them, but not across gaps
+ */
+public class SessionEvaluatorTest {
+
+    /** a text position log with the given "ts x y z" lines */
+    private static PositionReader log(final String... lines) {
+        final StringBuilder sb = new StringBuilder();
+        for (final String line : lines) {sb.append(line).append('\n');}
+        return new TextPositionReader(new ByteArrayInputStream(sb.toString().getBytes()));
+    }
+
+    private static List<SessionEvaluator.Match> waypoints(final long... timestamps) {
+        final List<SessionEvaluator.Match> list = new ArrayList<>();
+        for (final long ts : timestamps) {list.add(new SessionEvaluator.Match(ts, "WP" + ts, 0, 0, 0));}
+        return list;
+    }
+
+    @Test
+    public void interpolatesBetweenRecords() throws IOException {
+        final List<SessionEvaluator.Match> w = waypoints(1000, 1250, 2000);
+        new SessionEvaluator(2000).match(log("1000 0 0 0", "2000 4 -2 1", "3000 4 -2 1"), w);
+        // exactly on a record
+        assertEquals(0, w.get(0).estX, 0);
+        // a quarter of the way
+        assertEquals(1, w.get(1).estX, 1e-12);
+        assertEquals(-0.5, w.get(1).estY, 1e-12);
+        assertEquals(0.25, w.get(1).estZ, 1e-12);
+        assertEquals(Math.hypot(1, -0.5), w.get(1).getError(), 1e-12);
+        assertEquals(0.25, w.get(1).getErrorZ(), 1e-12);
+        assertEquals(4, w.get(2).estX, 0);
+    }
+
+    @Test
+    public void gapLimit() throws IOException {
+        final List<SessionEvaluator.Match> w = waypoints(1500, 4000);
+        // 1000 -> 3000: 2 s apart, within the gap. 3000 -> 5500: 2.5 s, too far apart
+        new SessionEvaluator(2000).match(log("1000 0 0 0", "3000 2 0 0", "5500 5 0 0"), w);
+        assertTrue(w.get(0).isMatched());
+        assertEquals(0.5, w.get(0).estX, 1e-12);
+        assertFalse(w.get(1).isMatched());
+        assertTrue(Double.isNaN(w.get(1).getError()));
+
+        final List<SessionEvaluator.Match> w2 = waypoints(4000);
+        new SessionEvaluator(3000).match(log("1000 0 0 0", "3000 2 0 0", "5500 5 0 0"), w2);
+        assertEquals(3.2, w2.get(0).estX, 1e-12);
+    }
+
+    @Test
+    public void unmatchedBeforeFirstAndAfterLastRecord() throws IOException {
+        final List<SessionEvaluator.Match> w = waypoints(500, 1500, 9000);
+        new SessionEvaluator(2000).match(log("1000 0 0 0", "2000 1 0 0"), w);
+        assertFalse(w.get(0).isMatched());
+        assertTrue(w.get(1).isMatched());
+        assertFalse(w.get(2).isMatched());
+    }
+
+    @Test
+    public void skipsNaNRecords() throws IOException {
+        final List<SessionEvaluator.Match> w = waypoints(1500);
+        // 1500 lies between 1000 and 2000, the NaN record in between is no position
+        new SessionEvaluator(2000).match(log("1000 0 0 0", "1400 NaN NaN NaN", "2000 2 0 0"), w);
+        assertEquals(1, w.get(0).estX, 1e-12);
+    }
+
+    @Test
+    public void percentiles() {
+        final double[] sorted = {1, 2, 3, 4};
+        assertEquals(2, SessionEvaluator.percentile(sorted, 0.5), 0);
+        assertEquals(4, SessionEvaluator.percentile(sorted, 0.9), 0);
+        assertEquals(1, SessionEvaluator.percentile(sorted, 0), 0);
+        assertTrue(Double.isNaN(SessionEvaluator.percentile(new double[0], 0.5)));
+        assertEquals(2.5, SessionEvaluator.mean(sorted), 0);
+    }
+
+}
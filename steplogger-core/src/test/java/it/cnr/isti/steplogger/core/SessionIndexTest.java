@@ -0,0 +1,128 @@
+package it.cnr.isti.steplogger.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * an index reads back as written, its checkpoints are appended and found by time
+ */
+public class SessionIndexTest {
+
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void writeAndRead() throws IOException {
+        final SessionIndex index = new SessionIndex("positions.bin", 10);
+        for (int i = 0; i < 35; ++i) {
+            index.onRecord(1000 + 100 * i, (i == 3) ? Double.NaN : i, -i, 0.5, 64 + 48 * i);
+        }
+        index.onWaypoint(1500, "WP 1");
+        index.onWaypoint(2500, "WP2");
+        index.onComplete();
+
+        final File file = new File(tmp.getRoot(), SessionIndex.FILE_NAME);
+        index.write(file);
+        assertEquals(2, tmp.getRoot().list().length);
+
+        final SessionIndex read = SessionIndex.read(file);
+        assertEquals("positions.bin", read.getLogName());
+        assertEquals(10, read.getCheckpointInterval());
+        assertEquals(35, read.getRecords());
+        assertEquals(1000, read.getFirstTS());
+        assertEquals(4400, read.getLastTS());
+        assertArrayEquals(new double[] {0, 34, -34, 0, 0.5, 0.5}, read.getBounds(), 0);
+        assertTrue(read.isComplete());
+
+        assertEquals(2, read.getWaypoints().size());
+        assertEquals(1500, read.getWaypoints().get(0).timestamp);
+        assertEquals("WP 1", read.getWaypoints().get(0).label);
+
+        assertEquals(4, read.getCheckpoints().size());
+        final SessionIndex.Checkpoint c = read.getCheckpoints().get(2);
+        assertEquals(20, c.records);
+        assertEquals(3000, c.timestamp);
+        assertEquals(64 + 48 * 20, c.offset);
+    }
+
+    @Test
+    public void emptyIndex() throws IOException {
+        final File file = new File(tmp.getRoot(), SessionIndex.FILE_NAME);
+        new SessionIndex("positions.log", 1000).write(file);
+        final SessionIndex read = SessionIndex.read(file);
+        assertEquals(0, read.getRecords());
+        assertEquals(LogSink.NO_TIMESTAMP, read.getFirstTS());
+        assertTrue(Double.isNaN(read.getBounds()[0]));
+        assertFalse(read.isComplete());
+    }
+
+    @Test
+    public void checkpointsAreAppended() throws IOException {
+        final File file = new File(tmp.getRoot(), SessionIndex.FILE_NAME);
+        final File checkpointFile = SessionIndex.getCheckpointFile(file);
+        final SessionIndex index = new SessionIndex("positions.log", 10);
+        index.write(file);
+        assertEquals(0, checkpointFile.length());
+
+        for (int i = 0; i < 25; ++i) {index.onRecord(1000 + 100 * i, i, i, 0, 70L * i);}
+        index.write(file);
+        final long length = checkpointFile.length();
+        assertEquals(3, Files.readAllLines(checkpointFile.toPath()).size());
+
+        // only the new checkpoint is appended, the index stays the same size
+        final long indexLength = file.length();
+        for (int i = 25; i < 35; ++i) {index.onRecord(1000 + 100 * i, i, i, 0, 70L * i);}
+        index.write(file);
+        assertEquals("checkpoint 30 4000 2100", Files.readAllLines(checkpointFile.toPath()).get(3));
+        assertTrue(checkpointFile.length() - length < 32);
+        assertEquals(indexLength, file.length());
+        assertEquals(4, SessionIndex.read(file).getCheckpoints().size());
+
+        // a torn last line [killed process] and a repeated append are skipped
+        try (FileOutputStream out = new FileOutputStream(checkpointFile, true)) {
+            out.write("checkpoint 30 4000 2100\ncheckpoint 40 50".getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(4, SessionIndex.read(file).getCheckpoints().size());
+    }
+
+    @Test
+    public void version1InlineCheckpoints() throws IOException {
+        final File file = new File(tmp.getRoot(), SessionIndex.FILE_NAME);
+        Files.write(file.toPath(), ("version = 1\nlog = positions.log\nrecords = 20\ncheckpoint.interval = 10\n" +
+                "checkpoint 0 1000 0\ncheckpoint 10 2000 700\n").getBytes(StandardCharsets.UTF_8));
+        final SessionIndex read = SessionIndex.read(file);
+        assertEquals(20, read.getRecords());
+        assertEquals(700, read.findCheckpoint(2500).offset);
+    }
+
+    @Test
+    public void findCheckpoint() {
+        final SessionIndex index = new SessionIndex("positions.log", 10);
+        for (int i = 0; i < 50; ++i) {index.onRecord(1000 + 100 * i, i, i, 0, 70L * i);}
+        assertNull(index.findCheckpoint(999));
+        assertEquals(0, index.findCheckpoint(1000).records);
+        assertEquals(10, index.findCheckpoint(2999).records);
+        assertEquals(20, index.findCheckpoint(3000).records);
+        assertEquals(40, index.findCheckpoint(100000).records);
+    }
+
+    @Test(expected = IOException.class)
+    public void notAnIndex() throws IOException {
+        final File file = tmp.newFile("other.log");
+        SessionIndex.read(file);
+    }
+
+}
@@ -0,0 +1,75 @@
+package it.cnr.isti.steplogger.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * records survive the ring's wrap-around in order, with producer and consumer on separate instances [as across processes]
+ */
+public class SpscRingBufferTest {
+
+    @Test
+    public void wrapAround() {
+        final ByteBuffer memory = ByteBuffer.allocateDirect(SpscRingBuffer.getRequiredBytes(8));
+        final SpscRingBuffer consumer = SpscRingBuffer.create(memory, 8);
+        final SpscRingBuffer producer = SpscRingBuffer.attach(memory);
+        final PositionBatch batch = new PositionBatch(5);
+
+        long written = 0;
+        long read = 0;
+        // 5 in, 5 out: the indexes wrap every 8 records, and batches straddle the end of the ring
+        for (int round = 0; round < 20; ++round) {
+            for (int i = 0; i < 5; ++i, ++written) {
+                assertTrue(producer.offer(written, written * 0.5, -written, 3));
+            }
+            assertEquals(5, producer.size());
+            assertEquals(5, consumer.drainTo(batch, 1000 + round, round));
+            for (int i = 0; i < batch.size; ++i, ++read) {
+                assertEquals(read, batch.clientTS[i]);
+                assertEquals(read * 0.5, batch.x[i], 0);
+                assertEquals(-read, batch.y[i], 0);
+                assertEquals(1000 + round, batch.receiveTS[i]);
+            }
+        }
+        assertEquals(100, read);
+        assertEquals(0, consumer.drainTo(batch, 0, 0));
+    }
+
+    @Test
+    public void fullRingRejects() {
+        final ByteBuffer memory = ByteBuffer.allocateDirect(SpscRingBuffer.getRequiredBytes(4));
+        final SpscRingBuffer consumer = SpscRingBuffer.create(memory, 4);
+        final SpscRingBuffer producer = SpscRingBuffer.attach(memory);
+        for (int i = 0; i < 4; ++i) {assertTrue(producer.offer(i, i, i, i));}
+        assertFalse(producer.offer(4, 4, 4, 4));
+
+        final PositionBatch batch = new PositionBatch(3);
+        assertEquals(3, consumer.drainTo(batch, 0, 0));
+        assertTrue(producer.offer(4, 4, 4, 4));
+        // the consumer reads the records up to the head it has seen, then the new head
+        assertEquals(1, consumer.drainTo(batch, 0, 0));
+        assertEquals(3, batch.clientTS[0]);
+        assertEquals(1, consumer.drainTo(batch, 0, 0));
+        assertEquals(4, batch.clientTS[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBeAPowerOfTwo() {
+        SpscRingBuffer.create(ByteBuffer.allocate(SpscRingBuffer.getRequiredBytes(6)), 6);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void corruptHeadIsDetected() {
+        final ByteBuffer memory = ByteBuffer.allocate(SpscRingBuffer.getRequiredBytes(4));
+        final SpscRingBuffer consumer = SpscRingBuffer.create(memory, 4);
+        memory.duplicate().order(ByteOrder.nativeOrder()).putLong(64, 100);
+        consumer.drainTo(new PositionBatch(4), 0, 0);
+    }
+
+}
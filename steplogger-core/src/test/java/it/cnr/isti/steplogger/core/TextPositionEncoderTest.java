@@ -0,0 +1,74 @@
+package it.cnr.isti.steplogger.core;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * encoding text records with fixed decimals does not allocate in steady state
+ */
+public class TextPositionEncoderTest {
+
+    private static final int RECORDS = 200000;
+
+    /** counts the encoded bytes and discards them */
+    private static class NullSink implements LogSink {
+        long bytes = 0;
+        @Override public File getFile() {return null;}
+        @Override public long getBytesWritten() {return bytes;}
+        @Override public void writeRecord(final String record) {bytes += record.length();}
+        @Override public void writeRecord(final long timestamp, final byte[] buf, final int off, final int len) {bytes += len;}
+        @Override public void write(final byte[] buf, final int off, final int len) {bytes += len;}
+        @Override public void flushIfDue() {}
+        @Override public void onWaypoint() {}
+        @Override public void flush() {}
+        @Override public void sync() {}
+        @Override public long getNumSyncs() {return 0;}
+        @Override public void close() {}
+    }
+
+    private static void encode(final TextPositionEncoder encoder, final NullSink sink, final int count) throws Exception {
+        long ts = 1700000000000L;
+        for (int i = 0; i < count; ++i) {
+            ts += 500;
+            encoder.encode(ts, ts - 3, 1000000L * i, -12.5 + 0.001 * i, 3.25 - 0.002 * i, (i / 1000) * 3.5, sink);
+        }
+    }
+
+    @Test
+    public void noAllocationsPerRecord() throws Exception {
+
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        final long thread = Thread.currentThread().getId();
+
+        final TextPositionEncoder encoder = new TextPositionEncoder(6);
+        final NullSink sink = new NullSink();
+        // warm-up: class loading, interpreter and JIT
+        encode(encoder, sink, RECORDS);
+
+        final long before = threads.getThreadAllocatedBytes(thread);
+        encode(encoder, sink, RECORDS);
+        final long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        // flat: a few bytes for the measurement itself, nothing per record
+        assertTrue(allocated + " bytes for " + RECORDS + " records", allocated < 1024);
+        assertTrue(sink.bytes > 2L * RECORDS * 50);
+
+    }
+
+    @Test
+    public void fullPrecisionKeepsDoubleToString() throws Exception {
+        final NullSink sink = new NullSink();
+        new TextPositionEncoder(-1).encode(1, 2, 3, 0.1, -2.5E-5, 1.0, sink);
+        assertEquals(("1 " + 0.1 + " " + -2.5E-5 + " " + 1.0 + " 2 3\n").length(), sink.bytes);
+    }
+
+}
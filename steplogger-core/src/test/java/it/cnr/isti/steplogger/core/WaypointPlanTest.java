@@ -0,0 +1,58 @@
+package it.cnr.isti.steplogger.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * well-formed plans and their log lines, malformed and non-finite entries are rejected with the entry's number
+ */
+public class WaypointPlanTest {
+
+    @Test
+    public void parse() {
+        final WaypointPlan plan = WaypointPlan.parse("A:1.5:2:0,B:-3:4e1:1");
+        assertEquals(2, plan.size());
+        assertEquals("B", plan.getLabel(1));
+        assertEquals("B:-3:4e1:1", plan.getEntry(1));
+        assertEquals(40, plan.get(1).y, 0);
+        // the coordinates are logged as configured
+        assertEquals("1000 : A : 1.5 : 2 : 0\n", plan.formatLogLine(0, 1000));
+    }
+
+    @Test
+    public void extraFieldsIgnored() {
+        final WaypointPlan plan = WaypointPlan.parse("A:1:2:3:lobby,B:4:5:6:");
+        assertEquals(2, plan.size());
+        assertEquals("1000 : A : 1 : 2 : 3\n", plan.formatLogLine(0, 1000));
+        assertEquals("A:1:2:3:lobby", plan.getEntry(0));
+    }
+
+    @Test
+    public void malformedEntriesRejected() {
+        assertRejected(null, "no waypoint plan");
+        assertRejected("A:1:2", "waypoint 1 is not label:x:y:z");
+        assertRejected("A:1:2:3,B", "waypoint 2 is not label:x:y:z");
+        assertRejected("A:1:2:3, :1:2:3", "waypoint 2 has no label");
+        assertRejected("A:1:x:3", "waypoint 1 has a bad coordinate 'x'");
+        assertRejected("A:1::3", "waypoint 1 has a bad coordinate ''");
+    }
+
+    @Test
+    public void nonFiniteCoordinatesRejected() {
+        assertRejected("A:NaN:2:3", "waypoint 1 has a bad coordinate 'NaN'");
+        assertRejected("A:1:Infinity:3", "waypoint 1 has a bad coordinate 'Infinity'");
+        assertRejected("A:1:2:3,B:1:2:-Infinity", "waypoint 2 has a bad coordinate '-Infinity'");
+    }
+
+    private static void assertRejected(final String counter, final String message) {
+        try {
+            WaypointPlan.parse(counter);
+            fail("accepted " + counter);
+        } catch (IllegalArgumentException e) {
+            if (!e.getMessage().startsWith(message)) {fail("'" + e.getMessage() + "' does not start with '" + message + "'");}
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+package it.cnr.isti.steplogger.jmh;
+
+import it.cnr.isti.steplogger.core.OverflowPolicy;
+import it.cnr.isti.steplogger.core.PositionBatch;
+import it.cnr.isti.steplogger.core.PositionBatcher;
+import it.cnr.isti.steplogger.core.PositionQueue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * positions/sec from a client through one "transaction" into the service's {@link PositionQueue},
+ * drained by a writer thread: one logPosition call per position [batch = 1]
+ * vs. the client-side {@link PositionBatcher} sending logPositions batches [copied arrays, putAll].
+ *
+ * the binder transaction itself only exists on a device. the score is the JVM part of the path,
+ * the transactions per second are the position score divided by the batch size.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchIngestBenchmark {
+
+    private static final int CAPACITY = 4096;
+
+    @State(Scope.Group)
+    public static class Service {
+
+        /** positions per transaction. 1 = logPosition */
+        @Param({"1", "20", "64"})
+        public int batch;
+
+        PositionQueue queue;
+        PositionBatcher batcher;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            // drop-newest: a slow consumer never blocks the client
+            queue = new PositionQueue(CAPACITY, OverflowPolicy.DROP_NEWEST, 1);
+            batcher = new PositionBatcher(new PositionBatcher.Sink() {
+                @Override public void send(final long[] timestamps, final double[] x, final double[] y, final double[] z) {
+                    try {
+                        queue.putAll(timestamps, timestamps[0], 0, x, y, z, 0, timestamps.length);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, batch, 0);
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() {
+            batcher.close();
+            queue.close();
+        }
+    }
+
+    /** per-thread cursor within the walk and the consumer's batch */
+    @State(Scope.Thread)
+    public static class Cursor {
+        final SyntheticWalk walk = new SyntheticWalk();
+        final PositionBatch drained = new PositionBatch(64);
+        int next = 0;
+        int next() {
+            final int i = next;
+            next = (i + 1) % SyntheticWalk.SIZE;
+            return i;
+        }
+    }
+
+    @Benchmark
+    @Group("ingest")
+    @GroupThreads(1)
+    public void position(final Service s, final Cursor c) throws InterruptedException {
+        final int i = c.next();
+        if (s.batch == 1) {
+            s.queue.put(c.walk.clientTS[i], c.walk.receiveTS[i], 0, c.walk.x[i], c.walk.y[i], c.walk.z[i]);
+        } else {
+            s.batcher.add(c.walk.clientTS[i], c.walk.x[i], c.walk.y[i], c.walk.z[i]);
+        }
+    }
+
+    @Benchmark
+    @Group("ingest")
+    @GroupThreads(1)
+    public int drain(final Service s, final Cursor c) throws InterruptedException {
+        return s.queue.drainTo(c.drained, 0);
+    }
+
+}
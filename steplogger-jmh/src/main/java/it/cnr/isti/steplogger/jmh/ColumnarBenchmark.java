@@ -0,0 +1,137 @@
+package it.cnr.isti.steplogger.jmh;
+
+import it.cnr.isti.steplogger.core.BinaryPositionEncoder;
+import it.cnr.isti.steplogger.core.BinaryPositionReader;
+import it.cnr.isti.steplogger.core.ColumnarPositionEncoder;
+import it.cnr.isti.steplogger.core.ColumnarPositionReader;
+import it.cnr.isti.steplogger.core.LogSink;
+import it.cnr.isti.steplogger.core.PositionEncoder;
+import it.cnr.isti.steplogger.core.PositionReader;
+import it.cnr.isti.steplogger.core.TextPositionEncoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * size, encode and decode speed of the columnar position format against the plain text and binary ones.
+ * one operation = one position record of the synthetic walk [2 Hz, decimetre steps].
+ *
+ * bytes/record is printed once per fork. text is decoded the way a tool would parse positions.log
+ * [split the line, Long.parseLong / Double.parseDouble]. columnar uses a 1 mm resolution.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColumnarBenchmark {
+
+    private static final Charset CHARSET = Charset.forName("US-ASCII");
+
+    @Param({"text", "binary", "columnar"})
+    public String format;
+
+    private final SyntheticWalk walk = new SyntheticWalk();
+    private final MemorySink sink = new MemorySink();
+
+    /** the whole walk, encoded */
+    private byte[] encoded;
+
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        encodeWalk();
+        encoded = sink.out.toByteArray();
+        System.out.printf("%n%s: %.2f bytes/record%n", format, (double) encoded.length / SyntheticWalk.SIZE);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SyntheticWalk.SIZE)
+    public int encode() throws IOException {
+        sink.out.reset();
+        encodeWalk();
+        return sink.out.size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SyntheticWalk.SIZE)
+    public double decode() throws IOException {
+        if (format.equals("text")) {return decodeText();}
+        double sum = 0;
+        final PositionReader reader = format.equals("binary")
+                ? new BinaryPositionReader(new ByteArrayInputStream(encoded))
+                : new ColumnarPositionReader(new ByteArrayInputStream(encoded));
+        while (reader.next()) {
+            sum += reader.getTimestamp() + reader.getX() + reader.getY() + reader.getZ() + reader.getClientTimestamp() + reader.getReceiveNanos();
+        }
+        return sum;
+    }
+
+    private double decodeText() {
+        double sum = 0;
+        final String text = new String(encoded, CHARSET);
+        int start = 0;
+        int end;
+        while ((end = text.indexOf('\n', start)) >= 0) {
+            final String[] parts = text.substring(start, end).split(" ");
+            sum += Long.parseLong(parts[0]) + Double.parseDouble(parts[1]) + Double.parseDouble(parts[2]) + Double.parseDouble(parts[3])
+                    + Long.parseLong(parts[4]) + Long.parseLong(parts[5]);
+            start = end + 1;
+        }
+        return sum;
+    }
+
+    private void encodeWalk() throws IOException {
+        final PositionEncoder encoder = encoder(format);
+        encoder.writeHeader(sink);
+        for (int i = 0; i < SyntheticWalk.SIZE; ++i) {
+            encoder.encode(walk.receiveTS[i], walk.clientTS[i], walk.receiveNanos[i], walk.x[i], walk.y[i], walk.z[i], sink);
+        }
+        encoder.finish(sink);
+    }
+
+    static PositionEncoder encoder(final String format) {
+        switch (format) {
+            case "text":        return new TextPositionEncoder(6);
+            case "binary":      return new BinaryPositionEncoder(0);
+            case "columnar":    return new ColumnarPositionEncoder(0.001, 64, 0);
+            default:            throw new IllegalArgumentException("unknown format: " + format);
+        }
+    }
+
+    /** collects everything in memory */
+    private static class MemorySink implements LogSink {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        @Override public File getFile() {return null;}
+        @Override public long getBytesWritten() {return out.size();}
+        @Override public void writeRecord(String record) {writeRecord(NO_TIMESTAMP, record.getBytes(CHARSET), 0, record.length());}
+        @Override public void writeRecord(long timestamp, byte[] buf, int off, int len) {out.write(buf, off, len);}
+        @Override public void write(byte[] buf, int off, int len) {out.write(buf, off, len);}
+        @Override public void flushIfDue() {}
+        @Override public void onWaypoint() {}
+        @Override public void flush() {}
+        @Override public void sync() {}
+        @Override public long getNumSyncs() {return 0;}
+        @Override public void close() {}
+    }
+
+}
@@ -0,0 +1,101 @@
+package it.cnr.isti.steplogger.jmh;
+
+import it.cnr.isti.steplogger.core.BinaryPositionEncoder;
+import it.cnr.isti.steplogger.core.DurabilityPolicy;
+import it.cnr.isti.steplogger.core.FlushPolicy;
+import it.cnr.isti.steplogger.core.LogSink;
+import it.cnr.isti.steplogger.core.PositionEncoder;
+import it.cnr.isti.steplogger.core.SegmentedLogWriter;
+import it.cnr.isti.steplogger.core.SessionLogWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * records/s of the binary position log for every durability mode, on both storages.
+ * one operation = one position record, a waypoint is logged every WAYPOINT_EVERY records
+ * [10 s at 100 Hz]. syncs/iteration are printed after every iteration.
+ *
+ * the temp folder must be on a real file system [-Djava.io.tmpdir=...], a tmpfs makes syncs free.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DurabilityBenchmark {
+
+    private static final int WAYPOINT_EVERY = 1000;
+
+    private static final long SEGMENT_SIZE = 16L * 1024 * 1024;
+
+    @Param({"none", "periodic", "waypoint", "record"})
+    public String durability;
+
+    @Param({"file", "segmented"})
+    public String target;
+
+    private final SyntheticWalk walk = new SyntheticWalk();
+
+    private File file;
+    private LogSink writer;
+    private PositionEncoder encoder;
+    private int next;
+    private long numRecords;
+
+
+    @Setup(Level.Iteration)
+    public void open() throws IOException {
+        final DurabilityPolicy policy = new DurabilityPolicy(DurabilityPolicy.Mode.fromConfigName(durability), 1000);
+        if (target.equals("segmented")) {
+            file = File.createTempFile("positions", ".d");
+            file.delete();
+            file.mkdir();
+            writer = new SegmentedLogWriter(file, "positions", "bin", SEGMENT_SIZE, SegmentedLogWriter.SET_LENGTH, policy);
+        } else {
+            file = File.createTempFile("positions", ".bin");
+            writer = new SessionLogWriter(file, new FlushPolicy(0, 1000, true), policy);
+        }
+        encoder = new BinaryPositionEncoder(256);
+        encoder.writeHeader(writer);
+        next = 0;
+        numRecords = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        encoder.finish(writer);
+        writer.close();
+        System.out.printf("%n%s/%s: %d syncs for %d records%n", durability, target, writer.getNumSyncs(), numRecords);
+        if (target.equals("segmented")) {
+            final File[] segments = file.listFiles();
+            if (segments != null) {for (final File segment : segments) {segment.delete();}}
+        }
+        file.delete();
+    }
+
+    @Benchmark
+    public void writeRecord() throws IOException {
+        final int i = next;
+        encoder.encode(walk.receiveTS[i], walk.clientTS[i], walk.receiveNanos[i], walk.x[i], walk.y[i], walk.z[i], writer);
+        next = (i + 1) % SyntheticWalk.SIZE;
+        if (++numRecords % WAYPOINT_EVERY == 0) {writer.onWaypoint();}
+    }
+
+}
@@ -0,0 +1,60 @@
+package it.cnr.isti.steplogger.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * baseline for {@link PositionWriteBenchmark}: the original logging code,
+ * that opened, appended to and closed positions.log for every single record
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LegacyAppendBenchmark {
+
+    private final SyntheticWalk walk = new SyntheticWalk();
+
+    private File file;
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void open() throws IOException {
+        file = File.createTempFile("positions", ".log");
+        next = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() {
+        file.delete();
+    }
+
+    @Benchmark
+    public void reopenPerRecord() throws IOException {
+        final int i = next;
+        final BufferedWriter bw = new BufferedWriter(new FileWriter(file, true));
+        bw.write(String.valueOf(walk.receiveTS[i]) + " " + walk.x[i] + " " + walk.y[i] + " " + walk.z[i] + "\n");
+        bw.flush();
+        bw.close();
+        next = (i + 1) % SyntheticWalk.SIZE;
+    }
+
+}
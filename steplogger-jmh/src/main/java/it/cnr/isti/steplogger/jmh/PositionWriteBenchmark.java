@@ -0,0 +1,131 @@
+package it.cnr.isti.steplogger.jmh;
+
+import it.cnr.isti.steplogger.core.BinaryPositionEncoder;
+import it.cnr.isti.steplogger.core.CompressedLogWriter;
+import it.cnr.isti.steplogger.core.DurabilityPolicy;
+import it.cnr.isti.steplogger.core.FlushPolicy;
+import it.cnr.isti.steplogger.core.LogSink;
+import it.cnr.isti.steplogger.core.PositionEncoder;
+import it.cnr.isti.steplogger.core.SegmentedLogWriter;
+import it.cnr.isti.steplogger.core.SessionLogWriter;
+import it.cnr.isti.steplogger.core.TextPositionEncoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * records/s of the session writer for every output format and flush policy.
+ * one operation = one position record.
+ *
+ * bytes/record is printed after every iteration, the allocation rate
+ * per record is reported by the gc profiler [gc.alloc.rate.norm].
+ * target=devnull isolates the encoding cost from the storage.
+ * target=segmented writes memory-mapped 16 MB segments [the flush policy does not apply],
+ * compare with LegacyAppendBenchmark for the FileWriter append of the original app.
+ * target=compressed writes 64 KB deflate blocks [level 6], its bytes/record is the compressed size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PositionWriteBenchmark {
+
+    @Param({"text", "text-full", "binary", "binary-crc"})
+    public String format;
+
+    @Param({"every-record", "every-10", "interval-1s", "on-close"})
+    public String flush;
+
+    @Param({"file", "devnull", "segmented", "compressed"})
+    public String target;
+
+    private static final long SEGMENT_SIZE = 16L * 1024 * 1024;
+
+    private final SyntheticWalk walk = new SyntheticWalk();
+
+    private File file;
+    private LogSink writer;
+    private PositionEncoder encoder;
+    private int next;
+    private long numRecords;
+
+
+    @Setup(Level.Iteration)
+    public void open() throws IOException {
+        if (target.equals("segmented")) {
+            file = File.createTempFile("positions", ".d");
+            file.delete();
+            file.mkdir();
+            writer = new SegmentedLogWriter(file, "positions", "log", SEGMENT_SIZE, SegmentedLogWriter.SET_LENGTH);
+        } else if (target.equals("compressed")) {
+            file = File.createTempFile("positions", ".gz");
+            writer = new CompressedLogWriter(file, 64 * 1024, 6, flushPolicy(flush), DurabilityPolicy.NONE);
+        } else {
+            file = target.equals("devnull") ? new File("/dev/null") : File.createTempFile("positions", ".log");
+            writer = new SessionLogWriter(file, flushPolicy(flush));
+        }
+        encoder = encoder(format);
+        encoder.writeHeader(writer);
+        next = 0;
+        numRecords = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        encoder.finish(writer);
+        writer.close();
+        System.out.printf("%n%s: %.2f bytes/record%n", format, (double) writer.getBytesWritten() / Math.max(1, numRecords));
+        if (target.equals("segmented")) {
+            final File[] segments = file.listFiles();
+            if (segments != null) {for (final File segment : segments) {segment.delete();}}
+        }
+        if (target.equals("compressed")) {CompressedLogWriter.getIndexFile(file).delete();}
+        if (!target.equals("devnull")) {file.delete();}
+    }
+
+    @Benchmark
+    public void writeRecord() throws IOException {
+        final int i = next;
+        encoder.encode(walk.receiveTS[i], walk.clientTS[i], walk.receiveNanos[i], walk.x[i], walk.y[i], walk.z[i], writer);
+        next = (i + 1) % SyntheticWalk.SIZE;
+        ++numRecords;
+    }
+
+    static PositionEncoder encoder(final String format) {
+        switch (format) {
+            case "text":        return new TextPositionEncoder(6);
+            case "text-full":   return new TextPositionEncoder(-1);
+            case "binary":      return new BinaryPositionEncoder(0);
+            case "binary-crc":  return new BinaryPositionEncoder(256);
+            default:            throw new IllegalArgumentException("unknown format: " + format);
+        }
+    }
+
+    static FlushPolicy flushPolicy(final String flush) {
+        switch (flush) {
+            case "every-record":    return FlushPolicy.EVERY_RECORD;
+            case "every-10":        return new FlushPolicy(10, 0, true);
+            case "interval-1s":     return new FlushPolicy(0, 1000, true);
+            case "on-close":        return new FlushPolicy(0, 0, false);
+            default:                throw new IllegalArgumentException("unknown flush policy: " + flush);
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+package it.cnr.isti.steplogger.jmh;
+
+import it.cnr.isti.steplogger.core.OverflowPolicy;
+import it.cnr.isti.steplogger.core.PositionBatch;
+import it.cnr.isti.steplogger.core.PositionQueue;
+import it.cnr.isti.steplogger.core.SpscRingBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * one producer and one consumer thread moving positions through
+ * the shared-memory {@link SpscRingBuffer} [direct buffer, one instance per side as across processes]
+ * vs. the binder path's {@link PositionQueue} [drop-newest, so a stopped consumer never blocks the producer].
+ *
+ * the offer/put score is the producer's throughput [positions that did not fit are included],
+ * the drain score the number of consumer calls [empty ones included].
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RingBufferBenchmark {
+
+    private static final int CAPACITY = 1024;
+
+    @State(Scope.Group)
+    public static class Ring {
+        SpscRingBuffer producer;
+        SpscRingBuffer consumer;
+        @Setup(Level.Iteration)
+        public void setup() {
+            final ByteBuffer memory = ByteBuffer.allocateDirect(SpscRingBuffer.getRequiredBytes(CAPACITY));
+            consumer = SpscRingBuffer.create(memory, CAPACITY);
+            producer = SpscRingBuffer.attach(memory);
+        }
+    }
+
+    @State(Scope.Group)
+    public static class Queue {
+        PositionQueue queue;
+        @Setup(Level.Iteration)
+        public void setup() {
+            queue = new PositionQueue(CAPACITY, OverflowPolicy.DROP_NEWEST, 1);
+        }
+        @TearDown(Level.Iteration)
+        public void close() {
+            queue.close();
+        }
+    }
+
+    /** per-thread cursor within the walk and the consumer's batch */
+    @State(Scope.Thread)
+    public static class Cursor {
+        final SyntheticWalk walk = new SyntheticWalk();
+        final PositionBatch batch = new PositionBatch(64);
+        int next = 0;
+        int next() {
+            final int i = next;
+            next = (i + 1) % SyntheticWalk.SIZE;
+            return i;
+        }
+    }
+
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(1)
+    public boolean ringOffer(final Ring ring, final Cursor c) {
+        final int i = c.next();
+        return ring.producer.offer(c.walk.clientTS[i], c.walk.x[i], c.walk.y[i], c.walk.z[i]);
+    }
+
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(1)
+    public int ringDrain(final Ring ring, final Cursor c) {
+        return ring.consumer.drainTo(c.batch, 0, 0);
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public boolean queuePut(final Queue q, final Cursor c) throws InterruptedException {
+        final int i = c.next();
+        return q.queue.put(c.walk.clientTS[i], c.walk.receiveTS[i], 0, c.walk.x[i], c.walk.y[i], c.walk.z[i]);
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public int queueDrain(final Queue q, final Cursor c) throws InterruptedException {
+        return q.queue.drainTo(c.batch, 0);
+    }
+
+}
@@ -0,0 +1,97 @@
+package it.cnr.isti.steplogger.jmh;
+
+import it.cnr.isti.steplogger.core.PositionStreamReader;
+import it.cnr.isti.steplogger.core.PositionStreamWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * positions/sec through the position stream over a loopback socket: the reference client
+ * encodes, a reader thread decodes every frame [as the service's connection threads do].
+ *
+ * java 8 has no unix domain sockets, so TCP on 127.0.0.1 stands in for the local socket.
+ * the socket buffers bound the client, so the score is limited by the slower of both sides.
+ * [this is no comparison with the binder calls: binder transactions need a device]
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SocketStreamBenchmark {
+
+    /** positions per POSITIONS frame. 1 = one frame per position */
+    @Param({"1", "64"})
+    public int framePositions;
+
+    private final SyntheticWalk walk = new SyntheticWalk();
+
+    private ServerSocket server;
+    private Thread readerThread;
+    private PositionStreamWriter writer;
+    private volatile long numDecoded;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void connect() throws IOException {
+
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        readerThread = new Thread(new Runnable() {
+            @Override public void run() {
+                try (Socket socket = server.accept()) {
+                    final PositionStreamReader reader = new PositionStreamReader(socket.getInputStream());
+                    final PositionStreamReader.Handler handler = new PositionStreamReader.Handler() {
+                        @Override public void onPositions(long[] timestamps, double[] x, double[] y, double[] z, int count) {
+                            numDecoded += count;
+                        }
+                        @Override public void onWaypoint(long timestamp, String label) {}
+                    };
+                    while (reader.next(handler)) {}
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "reader");
+        readerThread.start();
+
+        final Socket socket = new Socket(server.getInetAddress(), server.getLocalPort());
+        socket.setTcpNoDelay(true);
+        writer = new PositionStreamWriter(socket.getOutputStream(), "bench", framePositions);
+
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException, InterruptedException {
+        writer.close();
+        readerThread.join();
+        server.close();
+        System.out.printf("%npositions decoded: %d%n", numDecoded);
+    }
+
+    @Benchmark
+    public void position() throws IOException {
+        final int i = next;
+        writer.position(walk.clientTS[i], walk.x[i], walk.y[i], walk.z[i]);
+        next = (i + 1) % SyntheticWalk.SIZE;
+    }
+
+}
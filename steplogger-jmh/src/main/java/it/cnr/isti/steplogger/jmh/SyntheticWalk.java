@@ -0,0 +1,38 @@
+package it.cnr.isti.steplogger.jmh;
+
+import java.util.Random;
+
+/**
+ * a deterministic synthetic walk the benchmarks cycle through:
+ * one position every 500 ms, moving a few decimetres per step, changing floor now and then
+ */
+public class SyntheticWalk {
+
+    public static final int SIZE = 4096;
+
+    public final long[] receiveTS = new long[SIZE];
+    public final long[] clientTS = new long[SIZE];
+    public final long[] receiveNanos = new long[SIZE];
+    public final double[] x = new double[SIZE];
+    public final double[] y = new double[SIZE];
+    public final double[] z = new double[SIZE];
+
+    public SyntheticWalk() {
+        final Random rnd = new Random(42);
+        long ts = 1700000000000L;
+        double px = 0;
+        double py = 0;
+        for (int i = 0; i < SIZE; ++i) {
+            ts += 500;
+            px += rnd.nextGaussian() * 0.3;
+            py += rnd.nextGaussian() * 0.3;
+            receiveTS[i] = ts;
+            clientTS[i] = ts - 2 - rnd.nextInt(5);
+            receiveNanos[i] = (ts - 1690000000000L) * 1000000L + rnd.nextInt(1000000);
+            x[i] = px;
+            y[i] = py;
+            z[i] = (i / 1000) * 3.5;
+        }
+    }
+
+}